@@ -0,0 +1,33 @@
+package simplesmc.metrics;
+
+
+/**
+ * Emits one Java Flight Recorder event (simplesmc.Iteration) per SMC iteration, 
+ * so that runs can be diagnosed from a recording, e.g. obtained with
+ * -XX:StartFlightRecording. The event is only filled and committed when it is 
+ * enabled in the current recording.
+ * 
+ * Requires JDK 11 or later, hence it is in the separate 'jfr' jar.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class JFRListener implements SMCListener
+{
+  @Override
+  public void iterationCompleted(IterationMetrics metrics)
+  {
+    final SMCIterationEvent event = new SMCIterationEvent();
+    if (!event.isEnabled())
+      return;
+    event.iteration = metrics.iteration;
+    event.nParticles = metrics.nParticles;
+    event.relativeESS = metrics.relativeESS;
+    event.resampled = metrics.resampled;
+    event.logScalingIncrement = metrics.logScalingIncrement;
+    event.proposalNanos = metrics.proposalNanos;
+    event.normalizationNanos = metrics.normalizationNanos;
+    event.resamplingNanos = metrics.resamplingNanos;
+    event.particlesPerSecond = metrics.particlesPerSecond;
+    event.commit();
+  }
+}
@@ -0,0 +1,51 @@
+package simplesmc.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+
+/**
+ * A Java Flight Recorder event with the metrics of one SMC iteration, see JFRListener.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+@Name("simplesmc.Iteration")
+@Label("SMC Iteration")
+@Category("SimpleSMC")
+@Description("Metrics of one iteration of an SMC algorithm")
+class SMCIterationEvent extends Event
+{
+  @Label("Iteration")
+  int iteration;
+  
+  @Label("Number of Particles")
+  int nParticles;
+  
+  @Label("Relative ESS")
+  double relativeESS;
+  
+  @Label("Resampled")
+  boolean resampled;
+  
+  @Label("LOG Scaling Increment")
+  double logScalingIncrement;
+  
+  @Label("Proposal Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long proposalNanos;
+  
+  @Label("Normalization Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long normalizationNanos;
+  
+  @Label("Resampling Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long resamplingNanos;
+  
+  @Label("Particles per Second")
+  double particlesPerSecond;
+}
@@ -0,0 +1,96 @@
+package simplesmc.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simplesmc.SMCAlgorithm;
+import simplesmc.SMCOptions;
+import simplesmc.WorkerPool;
+import simplesmc.hmm.HMMBatchSMCAlgorithm;
+import simplesmc.hmm.HMMProblemSpecification;
+import simplesmc.hmm.HMMUtils;
+import simplesmc.hmm.ObservationSequence;
+import simplesmc.hmm.ToyHMMParams;
+
+
+/**
+ * Estimates of the likelihood over a grid of self transition probabilities, 
+ * with one SMCAlgorithm per grid point and with HMMBatchSMCAlgorithm. With
+ * fewer grid points than threads, the batch still uses all the threads, as
+ * it splits the particles among them.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GridLikelihoodBenchmark
+{
+  @Param({"2", "16", "256"})
+  public int nGridPoints;
+  
+  @Param({"1", "4"})
+  public int nThreads;
+  
+  @Param({"1000", "10000"})
+  public int nParticles;
+  
+  private List<ToyHMMParams> grid;
+  private List<Integer> observations;
+  private WorkerPool workers;
+  private HMMBatchSMCAlgorithm batch;
+  
+  @Setup
+  public void setup()
+  {
+    grid = new ArrayList<>();
+    for (int i = 0; i < nGridPoints; i++)
+    {
+      ToyHMMParams params = new ToyHMMParams(5);
+      params.selfTransitionProbability.setValue(0.5 + 0.49 * i / nGridPoints);
+      grid.add(params);
+    }
+    observations = HMMUtils.generate(new Random(1), new ToyHMMParams(5), 100).getRight();
+    workers = new WorkerPool(nThreads);
+    batch = new HMMBatchSMCAlgorithm(grid, ObservationSequence.of(observations), options(), workers);
+  }
+  
+  @Benchmark
+  public double [] onePerGridPoint()
+  {
+    final double [] result = new double[nGridPoints];
+    for (int i = 0; i < nGridPoints; i++)
+      result[i] = new SMCAlgorithm<>(new HMMProblemSpecification(grid.get(i), observations), options(), workers).sample().logNormEstimate();
+    return result;
+  }
+  
+  @Benchmark
+  public double [] batch()
+  {
+    return batch.logNormEstimates();
+  }
+  
+  private SMCOptions options()
+  {
+    SMCOptions options = new SMCOptions();
+    options.nParticles = nParticles;
+    return options;
+  }
+}
@@ -0,0 +1,73 @@
+package simplesmc.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simplesmc.hmm.ForwardBackward;
+import simplesmc.hmm.HMMUtils;
+import simplesmc.hmm.ToyHMMParams;
+
+
+/**
+ * Exact computation of the data probability of an HMM, with the array-based 
+ * forward algorithm (with and without reuse of the buffers) and with the 
+ * factor graph and sum product.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HMMUtilsBenchmark
+{
+  @Param({"100", "10000"})
+  public int observationLength;
+  
+  @Param({"2", "20"})
+  public int nStates;
+  
+  private ToyHMMParams hmmParams;
+  private List<Integer> observations;
+  private final ForwardBackward forwardBackward = new ForwardBackward();
+  
+  @Setup
+  public void setup()
+  {
+    hmmParams = new ToyHMMParams(nStates);
+    observations = HMMUtils.generate(new Random(1), hmmParams, observationLength).getRight();
+  }
+  
+  @Benchmark
+  public double exactDataLogProbability()
+  {
+    return HMMUtils.exactDataLogProbability(hmmParams, observations);
+  }
+  
+  @Benchmark
+  public double reusedForwardBackward()
+  {
+    return forwardBackward.logProbability(hmmParams, observations);
+  }
+  
+  @Benchmark
+  public double sumProduct()
+  {
+    return HMMUtils.sumProductDataLogProbability(hmmParams, observations);
+  }
+}
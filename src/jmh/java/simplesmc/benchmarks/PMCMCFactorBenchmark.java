@@ -0,0 +1,79 @@
+package simplesmc.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simplesmc.SMCAlgorithm;
+import simplesmc.SMCOptions;
+import simplesmc.hmm.HMMProblemSpecification;
+import simplesmc.hmm.HMMUtils;
+import simplesmc.hmm.ToyHMMParams;
+import simplesmc.pmcmc.PMCMCFactor;
+
+
+/**
+ * The PMCMC likelihood, when the parameters have not changed (cache hit) 
+ * and when they change at every call (cache miss, i.e. one SMC run per call).
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PMCMCFactorBenchmark
+{
+  @Param({"100", "1000"})
+  public int nParticles;
+  
+  @Param({"1", "4"})
+  public int nThreads;
+  
+  @Param({"100"})
+  public int observationLength;
+  
+  private ToyHMMParams hmmParams;
+  private PMCMCFactor<Integer> factor;
+  private int nCalls = 0;
+  
+  @Setup
+  public void setup()
+  {
+    hmmParams = new ToyHMMParams(2);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, observationLength).getRight();
+    SMCOptions options = new SMCOptions();
+    options.nParticles = nParticles;
+    options.nThreads = nThreads;
+    factor = new PMCMCFactor<>(hmmParams, new SMCAlgorithm<>(new HMMProblemSpecification(hmmParams, observations), options));
+  }
+  
+  @Benchmark
+  public double cacheHit()
+  {
+    hmmParams.selfTransitionProbability.setValue(0.9);
+    return factor.logDensity();
+  }
+  
+  @Benchmark
+  public double cacheMiss()
+  {
+    // a new value at every call, so that the signature changes
+    hmmParams.selfTransitionProbability.setValue(0.5 + 0.49 * ((nCalls++ % 1000) / 1000.0));
+    return factor.logDensity();
+  }
+}
@@ -0,0 +1,95 @@
+package simplesmc.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simplesmc.IntProblemSpecification;
+import simplesmc.IntSMCAlgorithm;
+import simplesmc.SMCOptions;
+import simplesmc.hmm.FullyAdaptedHMMProblemSpecification;
+import simplesmc.hmm.HMMProblemSpecification;
+import simplesmc.hmm.HMMUtils;
+import simplesmc.hmm.ToyHMMParams;
+
+
+/**
+ * The bootstrap and fully adapted proposals on the toy HMM, for several 
+ * numbers of particles. 
+ * 
+ * Besides the throughput, the variance of the estimates of the LOG 
+ * normalization over all the runs of a trial is printed at the end of 
+ * the trial, so that the cost of both proposals can be compared at equal 
+ * variance.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProposalBenchmark
+{
+  @Param({"bootstrap", "fullyAdapted"})
+  public String proposal;
+  
+  @Param({"100", "1000", "10000"})
+  public int nParticles;
+  
+  @Param({"100"})
+  public int observationLength;
+  
+  @Param({"5"})
+  public int nStates;
+  
+  private IntSMCAlgorithm smc;
+  private double sum, sumOfSquares;
+  private int nRuns;
+  
+  @Setup
+  public void setup()
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(nStates);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, observationLength).getRight();
+    IntProblemSpecification specification = proposal.equals("bootstrap") ? 
+      new HMMProblemSpecification(hmmParams, observations) : 
+      new FullyAdaptedHMMProblemSpecification(hmmParams, observations);
+    SMCOptions options = new SMCOptions();
+    options.nParticles = nParticles;
+    smc = new IntSMCAlgorithm(specification, options);
+  }
+  
+  @Benchmark
+  public double sample()
+  {
+    final double estimate = smc.sample().logNormEstimate();
+    sum += estimate;
+    sumOfSquares += estimate * estimate;
+    nRuns++;
+    return estimate;
+  }
+  
+  @TearDown
+  public void printVariance()
+  {
+    final double mean = sum / nRuns;
+    System.out.println("\nproposal = " + proposal + ", nParticles = " + nParticles + 
+        ", variance of the LOG normalization estimate = " + (sumOfSquares / nRuns - mean * mean) + 
+        " (" + nRuns + " runs)");
+  }
+}
@@ -0,0 +1,89 @@
+package simplesmc.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simplesmc.IntSMCAlgorithm;
+import simplesmc.SMCOptions;
+import simplesmc.hmm.HMMProblemSpecification;
+import simplesmc.hmm.HMMUtils;
+import simplesmc.hmm.ToyHMMParams;
+import simplesmc.random.RandomStreams;
+import simplesmc.random.StreamRandom;
+
+
+/**
+ * The per-particle random streams (see SMCOptions.randomStreams): the raw 
+ * throughput of each generator, and a bootstrap filter on the toy HMM with 
+ * large numbers of particles.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RandomStreamsBenchmark
+{
+  @Param({"STATEFUL", "PHILOX", "SPLITMIX", "XOROSHIRO"})
+  public RandomStreams randomStreams;
+  
+  @Param({"100000", "1000000"})
+  public int nParticles;
+  
+  @Param({"4"})
+  public int nThreads;
+  
+  private IntSMCAlgorithm smc;
+  private Random random;
+  private int iteration = 0;
+  
+  @Setup
+  public void setup()
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, 10).getRight();
+    SMCOptions options = new SMCOptions();
+    options.nParticles = nParticles;
+    options.nThreads = nThreads;
+    options.randomStreams = randomStreams;
+    smc = new IntSMCAlgorithm(new HMMProblemSpecification(hmmParams, observations), options);
+    StreamRandom streamRandom = randomStreams.create();
+    random = streamRandom == null ? new Random(1) : streamRandom;
+  }
+  
+  /**
+   * Re-keys the stream (except for STATEFUL) then draws 8 doubles, as a proposal would
+   */
+  @Benchmark
+  public double draws()
+  {
+    if (random instanceof StreamRandom)
+      ((StreamRandom) random).setStream(1L, iteration, iteration++ & 0xffff);
+    double sum = 0.0;
+    for (int i = 0; i < 8; i++)
+      sum += random.nextDouble();
+    return sum;
+  }
+  
+  @Benchmark
+  public double sample()
+  {
+    return smc.sample().logNormEstimate();
+  }
+}
@@ -0,0 +1,87 @@
+package simplesmc.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bayonet.smc.ParticlePopulation;
+import bayonet.smc.ResamplingScheme;
+import simplesmc.WorkerPool;
+import simplesmc.resampling.IntParticlePopulation;
+
+
+/**
+ * Resampling alone, on a population with random (log-normal) weights.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResamplingBenchmark
+{
+  @Param({"10000", "100000", "1000000"})
+  public int nParticles;
+  
+  @Param({"MULTINOMIAL", "STRATIFIED", "SYSTEMATIC"})
+  public ResamplingScheme resamplingScheme;
+  
+  @Param({"4"})
+  public int nThreads;
+  
+  private ParticlePopulation<Integer> population;
+  private IntParticlePopulation intPopulation;
+  private final Random random = new Random(1);
+  private WorkerPool workers;
+  
+  @Setup
+  public void setup()
+  {
+    double [] logWeights = new double[nParticles];
+    int [] particles = new int[nParticles];
+    List<Integer> boxedParticles = new ArrayList<>(nParticles);
+    for (int i = 0; i < nParticles; i++)
+    {
+      logWeights[i] = random.nextGaussian();
+      particles[i] = i;
+      boxedParticles.add(i);
+    }
+    population = ParticlePopulation.buildDestructivelyFromLogWeights(logWeights.clone(), boxedParticles, 0.0);
+    intPopulation = IntParticlePopulation.buildDestructivelyFromLogWeights(logWeights, particles, 0.0);
+    workers = new WorkerPool(nThreads);
+  }
+  
+  @Benchmark
+  public ParticlePopulation<Integer> generic()
+  {
+    return population.resample(random, resamplingScheme);
+  }
+  
+  @Benchmark
+  public IntParticlePopulation primitive()
+  {
+    return intPopulation.resample(random, resamplingScheme);
+  }
+  
+  @Benchmark
+  public IntParticlePopulation primitiveParallel()
+  {
+    return intPopulation.resample(random, resamplingScheme, workers);
+  }
+}
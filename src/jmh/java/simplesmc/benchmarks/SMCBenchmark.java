@@ -0,0 +1,93 @@
+package simplesmc.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bayonet.smc.ResamplingScheme;
+import simplesmc.IntSMCAlgorithm;
+import simplesmc.SMCAlgorithm;
+import simplesmc.SMCOptions;
+import simplesmc.hmm.HMMProblemSpecification;
+import simplesmc.hmm.HMMUtils;
+import simplesmc.hmm.ToyHMMParams;
+
+
+/**
+ * Full SMC runs on the toy HMM, for both the generic (boxed) and int 
+ * particle representations.
+ * 
+ * Run with the gc profiler (the default in the gradle jmh task) to get
+ * allocation rates.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SMCBenchmark
+{
+  @Param({"1000", "10000", "100000"})
+  public int nParticles;
+  
+  @Param({"1", "4"})
+  public int nThreads;
+  
+  @Param({"MULTINOMIAL", "STRATIFIED", "SYSTEMATIC"})
+  public ResamplingScheme resamplingScheme;
+  
+  @Param({"100"})
+  public int observationLength;
+  
+  @Param({"5"})
+  public int nStates;
+  
+  private SMCAlgorithm<Integer> smc;
+  private IntSMCAlgorithm intSmc;
+  
+  @Setup
+  public void setup()
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(nStates);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, observationLength).getRight();
+    HMMProblemSpecification proposal = new HMMProblemSpecification(hmmParams, observations);
+    smc = new SMCAlgorithm<>(proposal, options());
+    intSmc = new IntSMCAlgorithm(proposal, options());
+  }
+  
+  private SMCOptions options()
+  {
+    SMCOptions options = new SMCOptions();
+    options.nParticles = nParticles;
+    options.nThreads = nThreads;
+    options.resamplingScheme = resamplingScheme;
+    return options;
+  }
+  
+  @Benchmark
+  public double generic()
+  {
+    return smc.sample().logNormEstimate();
+  }
+  
+  @Benchmark
+  public double primitive()
+  {
+    return intSmc.sample().logNormEstimate();
+  }
+}
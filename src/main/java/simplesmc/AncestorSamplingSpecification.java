@@ -0,0 +1,26 @@
+package simplesmc;
+
+
+/**
+ * A ConditionalProblemSpecification which also provides the density of its 
+ * proposal, as required by conditional SMC with ancestor sampling: for Markovian 
+ * targets, the ancestor of the reference particle is sampled proportionally to 
+ * the product of the weight of each candidate, the weight update and this density.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type of each individual particles 
+ */
+public interface AncestorSamplingSpecification<P> extends ConditionalProblemSpecification<P>
+{
+  /**
+   * LOG density of the proposal, i.e. of the distribution sampled by proposeNext() 
+   * (or proposeInitial() when currentParticle is null).
+   * 
+   * @param currentSmcIteration The index of particle currentParticle (0, 1, 2, ..)
+   * @param currentParticle The particle proposed from, or null for the zeroth iteration
+   * @param proposedParticle
+   * @return The LOG density of proposing proposedParticle
+   */
+  public double proposalLogDensity(int currentSmcIteration, P currentParticle, P proposedParticle);
+}
@@ -0,0 +1,210 @@
+package simplesmc;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+
+/**
+ * All the randomness used by one SMC run, made explicit as a vector of 
+ * independent standard normals, for correlated pseudo-marginal PMCMC
+ * (see SMCAlgorithm.sampleCorrelated() and simplesmc.pmcmc.CorrelatedPMCMCFactor).
+ * 
+ * Each (iteration, particle) pair gets a block of normalsPerProposal normals,
+ * consumed through a Random (uniforms are obtained via the normal CDF, and 
+ * draws beyond the block come from a generator seeded by the block), and 
+ * each iteration gets one extra normal for (systematic) resampling. 
+ * 
+ * Since the same normals can be replayed, and refreshed with a Crank-Nicolson
+ * move which leaves their distribution invariant, the estimates at the current 
+ * and proposed parameters can be made strongly correlated.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class AuxiliaryRandomness
+{
+  public final int nIterations;
+  public final int nParticles;
+  public final int normalsPerProposal;
+  
+  /**
+   * Indexed by iteration, then (particle * normalsPerProposal + k)
+   */
+  private final double [][] proposalNormals;
+  private final double [] resamplingNormals;
+  
+  /**
+   * @return Fresh independent standard normals
+   */
+  public static AuxiliaryRandomness sample(Random random, int nIterations, int nParticles, int normalsPerProposal)
+  {
+    AuxiliaryRandomness result = new AuxiliaryRandomness(nIterations, nParticles, normalsPerProposal);
+    for (int iteration = 0; iteration < nIterations; iteration++)
+    {
+      for (int i = 0; i < result.proposalNormals[iteration].length; i++)
+        result.proposalNormals[iteration][i] = random.nextGaussian();
+      result.resamplingNormals[iteration] = random.nextGaussian();
+    }
+    return result;
+  }
+  
+  /**
+   * Crank-Nicolson move: each normal z is replaced by 
+   * correlation * z + sqrt(1 - correlation^2) * (a fresh standard normal). 
+   * 
+   * This move is reversible with respect to the distribution of the normals, 
+   * so it can be combined with a parameter proposal in a pseudo-marginal 
+   * Metropolis-Hastings step without changing the acceptance ratio.
+   * 
+   * @param correlation In [0, 1]: 0 gives independent normals, 1 leaves them unchanged
+   * @return The refreshed normals (this object is not modified)
+   */
+  public AuxiliaryRandomness refresh(Random random, double correlation)
+  {
+    if (correlation < 0.0 || correlation > 1.0)
+      throw new RuntimeException("The correlation should be in [0, 1]: " + correlation);
+    final double innovation = Math.sqrt(1.0 - correlation * correlation);
+    AuxiliaryRandomness result = new AuxiliaryRandomness(nIterations, nParticles, normalsPerProposal);
+    for (int iteration = 0; iteration < nIterations; iteration++)
+    {
+      for (int i = 0; i < proposalNormals[iteration].length; i++)
+        result.proposalNormals[iteration][i] = correlation * proposalNormals[iteration][i] + innovation * random.nextGaussian();
+      result.resamplingNormals[iteration] = correlation * resamplingNormals[iteration] + innovation * random.nextGaussian();
+    }
+    return result;
+  }
+  
+  /**
+   * @return A uniform for the resampling step performed after the given iteration
+   */
+  public double resamplingUniform(int iteration)
+  {
+    return normalCDF(resamplingNormals[iteration]);
+  }
+  
+  /**
+   * Positions the provided streams at the blocks of the given iteration 
+   * (creating them if needed).
+   * 
+   * @param streams One stream per particle, or null
+   * @return The streams, to pass to the proposals
+   */
+  Random [] streams(Random [] streams, int iteration)
+  {
+    if (streams == null)
+    {
+      streams = new Random[nParticles];
+      for (int particle = 0; particle < nParticles; particle++)
+        streams[particle] = new NormalBackedRandom();
+    }
+    for (int particle = 0; particle < nParticles; particle++)
+      ((NormalBackedRandom) streams[particle]).position(iteration, particle);
+    return streams;
+  }
+  
+  /**
+   * A Random replaying a block of normals. Not thread safe (each particle 
+   * index has its own instance).
+   */
+  private final class NormalBackedRandom extends Random
+  {
+    private static final long serialVersionUID = 1L;
+    
+    private double [] normals;
+    private int start, position;
+    private SplittableRandom overflow;
+    
+    private void position(int iteration, int particle)
+    {
+      normals = proposalNormals[iteration];
+      start = particle * normalsPerProposal;
+      position = 0;
+      overflow = null;
+    }
+    
+    @Override
+    public double nextGaussian()
+    {
+      if (normals == null) // during construction
+        return super.nextGaussian();
+      if (position < normalsPerProposal)
+        return normals[start + position++];
+      if (overflow == null)
+        overflow = new SplittableRandom(Double.doubleToLongBits(normals[start]) ^ start);
+      return overflowGaussian();
+    }
+    
+    @Override
+    public double nextDouble()
+    {
+      final double result = normalCDF(nextGaussian());
+      return result < 1.0 ? result : Math.nextDown(1.0);
+    }
+    
+    @Override
+    protected int next(int bits)
+    {
+      if (normals == null) // during construction
+        return super.next(bits);
+      return (int) (long) (nextDouble() * (1L << bits));
+    }
+    
+    private double overflowGaussian()
+    {
+      // Box-Muller, discarding the second normal to keep the stream stateless
+      final double radius = Math.sqrt(-2.0 * Math.log(1.0 - overflow.nextDouble()));
+      return radius * Math.cos(2.0 * Math.PI * overflow.nextDouble());
+    }
+  }
+  
+  /**
+   * @return The CDF of a standard normal (double precision approximation of Hart (1968), 
+   *   see West (2005) Better approximations to cumulative normal functions)
+   */
+  public static double normalCDF(double x)
+  {
+    final double abs = Math.abs(x);
+    final double tail;
+    if (abs > 37.0) 
+      tail = 0.0;
+    else 
+    {
+      final double exponential = Math.exp(-abs * abs / 2.0);
+      if (abs < 7.07106781186547) 
+      {
+        double numerator = 3.52624965998911E-02 * abs + 0.700383064443688;
+        numerator = numerator * abs + 6.37396220353165;
+        numerator = numerator * abs + 33.912866078383;
+        numerator = numerator * abs + 112.079291497871;
+        numerator = numerator * abs + 221.213596169931;
+        numerator = numerator * abs + 220.206867912376;
+        double denominator = 8.83883476483184E-02 * abs + 1.75566716318264;
+        denominator = denominator * abs + 16.064177579207;
+        denominator = denominator * abs + 86.7807322029461;
+        denominator = denominator * abs + 296.564248779674;
+        denominator = denominator * abs + 637.333633378831;
+        denominator = denominator * abs + 793.826512519948;
+        denominator = denominator * abs + 440.413735824752;
+        tail = exponential * numerator / denominator;
+      } 
+      else 
+      {
+        double fraction = abs + 0.65;
+        fraction = abs + 4.0 / fraction;
+        fraction = abs + 3.0 / fraction;
+        fraction = abs + 2.0 / fraction;
+        fraction = abs + 1.0 / fraction;
+        tail = exponential / fraction / 2.506628274631;
+      }
+    }
+    return x > 0.0 ? 1.0 - tail : tail;
+  }
+  
+  private AuxiliaryRandomness(int nIterations, int nParticles, int normalsPerProposal)
+  {
+    this.nIterations = nIterations;
+    this.nParticles = nParticles;
+    this.normalsPerProposal = normalsPerProposal;
+    this.proposalNormals = new double[nIterations][nParticles * normalsPerProposal];
+    this.resamplingNormals = new double[nIterations];
+  }
+}
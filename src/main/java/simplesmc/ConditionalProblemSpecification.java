@@ -0,0 +1,25 @@
+package simplesmc;
+
+
+/**
+ * A ProblemSpecification which can also weight a given proposed particle, as 
+ * required by conditional SMC (SMCAlgorithm.sampleConditional()) to weight 
+ * the reference particle.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type of each individual particles 
+ */
+public interface ConditionalProblemSpecification<P> extends ProblemSpecification<P>
+{
+  /**
+   * LOG weight update that proposeNext() (or proposeInitial() when currentParticle 
+   * is null) would return if it had proposed proposedParticle. 
+   * 
+   * @param currentSmcIteration The index of particle currentParticle (0, 1, 2, ..)
+   * @param currentParticle The particle proposed from, or null for the zeroth iteration
+   * @param proposedParticle
+   * @return The LOG weight update
+   */
+  public double logWeightUpdate(int currentSmcIteration, P currentParticle, P proposedParticle);
+}
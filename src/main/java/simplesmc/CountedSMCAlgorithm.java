@@ -0,0 +1,127 @@
+package simplesmc;
+
+import java.util.Arrays;
+
+import simplesmc.resampling.CountedParticlePopulation;
+import simplesmc.resampling.Resampling;
+
+
+/**
+ * An SMC algorithm for problems with a small finite number of states, where 
+ * the particles sharing a value are processed together (see 
+ * CountedParticlePopulation): the number of particles moving from each 
+ * distinct current state to each next state is sampled from a multinomial, 
+ * and the weights are aggregated per next state. 
+ * 
+ * Each iteration costs O(nDistinct * nStates) instead of O(nParticles), 
+ * which allows very large numbers of particles over tiny state spaces. 
+ * 
+ * The result has the same distribution as the one of SMCAlgorithm with 
+ * the corresponding proposal, but not the same realization: all the 
+ * randomness is drawn from options.random, and options.nThreads is ignored.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class CountedSMCAlgorithm
+{
+  public final FiniteStateProblemSpecification proposal;
+  private final SMCOptions options;
+  
+  /**
+   * Compute the SMC algorithm
+   * 
+   * @return The particle population at the last step
+   */
+  public CountedParticlePopulation sample()
+  {
+    CountedParticlePopulation currentPopulation = propose(null, 0);
+    
+    int nSMCIterations = proposal.nIterations();
+    
+    for (int currentIteration = 0; currentIteration < nSMCIterations - 1; currentIteration++)
+    {
+      currentPopulation = propose(currentPopulation, currentIteration);
+      if (currentPopulation.getRelativeESS() < options.essThreshold &&
+          currentIteration < nSMCIterations - 2)
+        currentPopulation = currentPopulation.resample(options.random, options.resamplingScheme);
+    }
+    
+    return currentPopulation;
+  }
+  
+  /**
+   * See SMCAlgorithm.propose()
+   */
+  private CountedParticlePopulation propose(final CountedParticlePopulation currentPopulation, final int currentIteration)
+  {
+    final boolean isInitial = currentPopulation == null;
+    final int nStates = proposal.nStates();
+    final double [] prs = new double[nStates];
+    final int [] moves = new int[nStates];
+    final int [] nextCounts = new int[nStates];
+    final double [] logNextWeights = new double[nStates];
+    Arrays.fill(logNextWeights, Double.NEGATIVE_INFINITY);
+    
+    final int nGroups = isInitial ? 1 : currentPopulation.nDistinct();
+    for (int group = 0; group < nGroups; group++)
+    {
+      final int current = isInitial ? -1 : currentPopulation.particles[group];
+      if (isInitial)
+        proposal.initialProposalPrs(prs);
+      else
+        proposal.nextProposalPrs(currentIteration, current, prs);
+      final int count = isInitial ? options.nParticles : currentPopulation.counts[group];
+      // each particle in the group has weight 1 in the initial iteration
+      final double logParticleWeight = isInitial ? 0.0 : Math.log(currentPopulation.getNormalizedWeight(group));
+      Resampling.sampleMultinomial(options.random, count, prs, moves);
+      for (int next = 0; next < nStates; next++)
+        if (moves[next] > 0)
+        {
+          nextCounts[next] += moves[next];
+          final double logWeightUpdate = isInitial ? 
+            proposal.initialLogWeight(next) : 
+            proposal.nextLogWeight(currentIteration, current, next);
+          logNextWeights[next] = logAdd(logNextWeights[next], Math.log(moves[next]) + logParticleWeight + logWeightUpdate);
+        }
+    }
+    
+    int nDistinct = 0;
+    for (int next = 0; next < nStates; next++)
+      if (nextCounts[next] > 0)
+        nDistinct++;
+    final int [] particles = new int[nDistinct], counts = new int[nDistinct];
+    final double [] logGroupWeights = new double[nDistinct];
+    for (int next = 0, i = 0; next < nStates; next++)
+      if (nextCounts[next] > 0)
+      {
+        particles[i] = next;
+        counts[i] = nextCounts[next];
+        logGroupWeights[i++] = logNextWeights[next];
+      }
+    
+    return CountedParticlePopulation.buildDestructivelyFromLogWeights(
+        logGroupWeights, 
+        particles,
+        counts,
+        isInitial ? 0.0 : currentPopulation.logScaling);
+  }
+  
+  private static double logAdd(double logX, double logY)
+  {
+    if (logX < logY)
+    {
+      final double temp = logX;
+      logX = logY;
+      logY = temp;
+    }
+    if (logY == Double.NEGATIVE_INFINITY)
+      return logX;
+    return logX + Math.log1p(Math.exp(logY - logX));
+  }
+  
+  public CountedSMCAlgorithm(FiniteStateProblemSpecification proposal, SMCOptions options)
+  {
+    this.proposal = proposal;
+    this.options = options;
+  }
+}
@@ -0,0 +1,114 @@
+package simplesmc;
+
+import java.util.Random;
+
+import simplesmc.random.ParticleStreams;
+import simplesmc.random.RandomStreams;
+import simplesmc.resampling.DoubleParticlePopulation;
+
+
+/**
+ * An SMC algorithm for problems where each particle is a single double.
+ * 
+ * Behaves like SMCAlgorithm, but keeps the particles in double arrays from
+ * the proposal to the resampling, so that no object is created per
+ * particle.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class DoubleSMCAlgorithm
+{
+  public final DoubleProblemSpecification proposal;
+  private final SMCOptions options;
+  
+  /**
+   * This is used to ensure that the result is deterministic even in a 
+   * multi-threading context: each particle index has its own unique random 
+   * stream
+   */
+  private final Random[] randoms;
+  
+  /**
+   * Used instead of randoms (which is then null) when options.randomStreams is not 
+   * STATEFUL, see SMCAlgorithm
+   */
+  private final ParticleStreams keyedStreams;
+  private long streamSeed;
+  
+  /**
+   * Threads used to propose, kept across iterations and calls to sample()
+   */
+  private final WorkerPool workers;
+  
+  /**
+   * Compute the SMC algorithm
+   * 
+   * @return The particle population at the last step
+   */
+  public DoubleParticlePopulation sample()
+  {
+    if (keyedStreams != null)
+      streamSeed = options.random.nextLong();
+    DoubleParticlePopulation currentPopulation = propose(null, 0);
+    
+    int nSMCIterations = proposal.nIterations();
+    
+    for (int currentIteration = 0; currentIteration < nSMCIterations - 1; currentIteration++)
+    {
+      currentPopulation = propose(currentPopulation, currentIteration);
+      if (currentPopulation.getRelativeESS() < options.essThreshold &&
+          currentIteration < nSMCIterations - 2)
+        currentPopulation = currentPopulation.resample(options.random, options.resamplingScheme,
+            options.parallelResampling ? workers : null);
+    }
+    
+    return currentPopulation;
+  }
+  
+  /**
+   * See SMCAlgorithm.propose()
+   */
+  private DoubleParticlePopulation propose(final DoubleParticlePopulation currentPopulation, final int currentIteration)
+  {
+    final boolean isInitial = currentPopulation == null;
+    
+    final double [] logWeights = new double[options.nParticles];
+    final double [] particles = new double[options.nParticles];
+    
+    final ParticleStreams.BlockProcessor proposeBlock = (particleRandoms, fromIndex, toIndex) ->
+    {
+      proposal.proposeBatch(currentIteration, particleRandoms, isInitial ? null : currentPopulation.particles, 
+          fromIndex, toIndex, logWeights, particles);
+      if (!isInitial)
+        for (int particleIndex = fromIndex; particleIndex < toIndex; particleIndex++)
+          logWeights[particleIndex] += Math.log(currentPopulation.getNormalizedWeight(particleIndex));
+    };
+    if (keyedStreams != null)
+      keyedStreams.process(workers, options.nParticles, streamSeed, isInitial ? 0 : currentIteration + 1, proposeBlock);
+    else
+      workers.process(options.nParticles, (fromIndex, toIndex) -> proposeBlock.process(randoms, fromIndex, toIndex));
+    
+    return DoubleParticlePopulation.buildDestructivelyFromLogWeights(
+        logWeights, 
+        particles,
+        isInitial ? 0.0 : currentPopulation.logScaling);
+  }
+
+  public DoubleSMCAlgorithm(DoubleProblemSpecification proposal, SMCOptions options)
+  {
+    this(proposal, options, new WorkerPool(options.nThreads));
+  }
+  
+  /**
+   * @param workers The threads to use, e.g. to share them among several algorithms
+   *   (options.nThreads is then ignored)
+   */
+  public DoubleSMCAlgorithm(DoubleProblemSpecification proposal, SMCOptions options, WorkerPool workers)
+  {
+    this.workers = workers;
+    this.proposal = proposal;
+    this.options = options;
+    this.keyedStreams = options.randomStreams == RandomStreams.STATEFUL ? null : new ParticleStreams(options.randomStreams);
+    this.randoms = keyedStreams == null ? SMCUtils.particleRandoms(options) : null;
+  }
+}
@@ -0,0 +1,44 @@
+package simplesmc;
+
+
+/**
+ * The specification of a problem input to a CountedSMCAlgorithm: each 
+ * particle is one of nStates() values, and instead of sampling the proposals, 
+ * the problem provides their probabilities, so that the proposals of all 
+ * the particles sharing a value can be sampled at once.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public interface FiniteStateProblemSpecification
+{
+  /**
+   * @return The number of values of the particles (0, 1, .., nStates() - 1)
+   */
+  public int nStates();
+  
+  /**
+   * @param prs Where to write the probability of proposing each state for the zeroth iteration
+   */
+  public void initialProposalPrs(double [] prs);
+  
+  /**
+   * @return The LOG weight of a particle proposed with the given state at the zeroth iteration
+   */
+  public double initialLogWeight(int proposedState);
+  
+  /**
+   * @param currentSmcIteration The index of the current state (0, 1, 2, ..)
+   * @param prs Where to write the probability of proposing each next state
+   */
+  public void nextProposalPrs(int currentSmcIteration, int currentState, double [] prs);
+  
+  /**
+   * @return The LOG weight update of a particle moving from currentState to nextState
+   */
+  public double nextLogWeight(int currentSmcIteration, int currentState, int nextState);
+  
+  /**
+   * @return Number of iterations, including the initial step, see ProblemSpecification
+   */
+  public int nIterations();
+}
@@ -0,0 +1,130 @@
+package simplesmc;
+
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+
+/**
+ * A ProblemSpecification that writes its proposals into a caller-owned
+ * ProposalOutput instead of returning a Pair.
+ * 
+ * SMCAlgorithm detects this interface and uses the in-place methods, so 
+ * that the only per-particle allocation left is the particle itself (if 
+ * any). The Pair-based methods are provided by default for other callers. 
+ * 
+ * Conversely, a plain ProblemSpecification is used by SMCAlgorithm through
+ * the adapter returned by adapt().
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type of each individual particles 
+ */
+public interface InPlaceProblemSpecification<P> extends ProblemSpecification<P>
+{
+  /**
+   * Computes a proposal and the LOG weight update for that proposed particle,
+   * and writes both into the output.
+   * 
+   * @param currentSmcIteration The index of particle currentParticle (0, 1, 2, ..)
+   * @param random
+   * @param currentParticle
+   * @param output Where to write (1) the LOG weight update, and (2) proposed particle
+   */
+  public void proposeNext(int currentSmcIteration, Random random, P currentParticle, ProposalOutput<P> output);
+  
+  /**
+   * 
+   * @param random
+   * @param output Where to write (1) the LOG weight update, and (2) proposed particle 
+   *   for the zeroth iteration
+   */
+  public void proposeInitial(Random random, ProposalOutput<P> output);
+  
+  @Override
+  public default Pair<Double, P> proposeNext(int currentSmcIteration, Random random, P currentParticle)
+  {
+    ProposalOutput<P> output = ProposalOutput.single();
+    proposeNext(currentSmcIteration, random, currentParticle, output);
+    return Pair.of(output.getLogWeightUpdate(), output.getParticle());
+  }
+  
+  @Override
+  public default Pair<Double, P> proposeInitial(Random random)
+  {
+    ProposalOutput<P> output = ProposalOutput.single();
+    proposeInitial(random, output);
+    return Pair.of(output.getLogWeightUpdate(), output.getParticle());
+  }
+  
+  /**
+   * By default, falls back to calling the in-place per-particle methods, 
+   * using a single output slot for the whole block.
+   */
+  @Override
+  public default void proposeBatch(int currentSmcIteration, Random [] randoms, List<P> currentParticles, 
+      int fromIndex, int toIndex, double [] logWeightUpdates, List<P> proposedParticles)
+  {
+    final ProposalOutput<P> output = new ProposalOutput<>(logWeightUpdates, proposedParticles);
+    for (int particleIndex = fromIndex; particleIndex < toIndex; particleIndex++)
+    {
+      output.at(particleIndex);
+      if (currentParticles == null)
+        proposeInitial(randoms[particleIndex], output);
+      else
+        proposeNext(currentSmcIteration, randoms[particleIndex], currentParticles.get(particleIndex), output);
+    }
+  }
+  
+  /**
+   * @return The provided specification if it is already an InPlaceProblemSpecification, 
+   *   otherwise, an adapter calling its Pair-based methods
+   */
+  public static <P> InPlaceProblemSpecification<P> adapt(final ProblemSpecification<P> specification)
+  {
+    if (specification instanceof InPlaceProblemSpecification)
+      return (InPlaceProblemSpecification<P>) specification;
+    return new InPlaceProblemSpecification<P>() 
+    {
+      @Override
+      public void proposeNext(int currentSmcIteration, Random random, P currentParticle, ProposalOutput<P> output)
+      {
+        Pair<Double, P> proposed = specification.proposeNext(currentSmcIteration, random, currentParticle);
+        output.set(proposed.getLeft(), proposed.getRight());
+      }
+
+      @Override
+      public void proposeInitial(Random random, ProposalOutput<P> output)
+      {
+        Pair<Double, P> proposed = specification.proposeInitial(random);
+        output.set(proposed.getLeft(), proposed.getRight());
+      }
+      
+      @Override
+      public Pair<Double, P> proposeNext(int currentSmcIteration, Random random, P currentParticle)
+      {
+        return specification.proposeNext(currentSmcIteration, random, currentParticle);
+      }
+      
+      @Override
+      public Pair<Double, P> proposeInitial(Random random)
+      {
+        return specification.proposeInitial(random);
+      }
+
+      @Override
+      public void proposeBatch(int currentSmcIteration, Random [] randoms, List<P> currentParticles, 
+          int fromIndex, int toIndex, double [] logWeightUpdates, List<P> proposedParticles)
+      {
+        specification.proposeBatch(currentSmcIteration, randoms, currentParticles, fromIndex, toIndex, logWeightUpdates, proposedParticles);
+      }
+
+      @Override
+      public int nIterations()
+      {
+        return specification.nIterations();
+      }
+    };
+  }
+}
@@ -0,0 +1,67 @@
+package simplesmc;
+
+import java.util.Random;
+
+
+/**
+ * The specification of a problem input to an SMC algorithm where each 
+ * particle is a single int.
+ * 
+ * This is the primitive counterpart of ProblemSpecification: instead of 
+ * returning a boxed particle, the proposal writes it directly into the 
+ * array holding the next population, so that no object needs to be 
+ * created per particle.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public interface IntProblemSpecification
+{
+  /**
+   * Computes a proposal and the LOG weight update for that proposed particle.
+   * 
+   * @param currentSmcIteration The index of particle currentParticle (0, 1, 2, ..)
+   * @param random
+   * @param currentParticle
+   * @param proposedParticles The array where the proposed particle should be written
+   * @param proposedIndex The index in proposedParticles where the proposed particle should be written
+   * @return The LOG weight update
+   */
+  public double proposeNext(int currentSmcIteration, Random random, int currentParticle, int [] proposedParticles, int proposedIndex);
+  
+  /**
+   * 
+   * @param random
+   * @param proposedParticles The array where the proposed particle should be written
+   * @param proposedIndex The index in proposedParticles where the proposed particle should be written
+   * @return The LOG weight update for the zeroth iteration
+   */
+  public double proposeInitial(Random random, int [] proposedParticles, int proposedIndex);
+  
+  /**
+   * Proposes for a block of particles at once, see ProblemSpecification.proposeBatch().
+   * 
+   * By default, falls back to calling the per-particle methods.
+   * 
+   * @param currentSmcIteration The index of the particles in currentParticles (0, 1, 2, ..)
+   * @param randoms The random stream of each particle index
+   * @param currentParticles The particles before the proposal, or null for the zeroth iteration
+   * @param fromIndex First particle index to process (inclusive)
+   * @param toIndex Last particle index to process (exclusive)
+   * @param logWeightUpdates Where to write the LOG weight update of each proposed particle
+   * @param proposedParticles Where to write each proposed particle
+   */
+  public default void proposeBatch(int currentSmcIteration, Random [] randoms, int [] currentParticles, 
+      int fromIndex, int toIndex, double [] logWeightUpdates, int [] proposedParticles)
+  {
+    for (int particleIndex = fromIndex; particleIndex < toIndex; particleIndex++)
+      logWeightUpdates[particleIndex] = currentParticles == null ?
+        proposeInitial(randoms[particleIndex], proposedParticles, particleIndex) :
+        proposeNext(currentSmcIteration, randoms[particleIndex], currentParticles[particleIndex], proposedParticles, particleIndex);
+  }
+  
+  /**
+   * @return Number of iterations, including the initial step. For example, this is the length of
+   *   the chain in an HMM context
+   */
+  public int nIterations();
+}
@@ -0,0 +1,121 @@
+package simplesmc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import bayonet.smc.ParticlePopulation;
+
+
+/**
+ * The output of IslandSMCAlgorithm: one particle population per island, the 
+ * combined estimate of the normalization, and its variance estimated across
+ * islands.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type (class) of the individual particles
+ */
+public class IslandPopulations<P>
+{
+  public final List<ParticlePopulation<P>> islands;
+  
+  /**
+   * @return The LOG of the combined estimate of the normalization, i.e. the average 
+   *   of the islands' estimates
+   */
+  public double logNormEstimate()
+  {
+    final double max = maxIslandLogNormEstimate();
+    double sum = 0.0;
+    for (ParticlePopulation<P> island : islands)
+      sum += Math.exp(island.logNormEstimate() - max);
+    return max + Math.log(sum / islands.size());
+  }
+  
+  /**
+   * @return An estimate of the relative variance of the combined estimate, Var[Z_hat] / Z^2, 
+   *   from the spread of the islands' estimates. Only valid for independent islands, or for 
+   *   the iterations since the last interaction.
+   */
+  public double relativeVariance()
+  {
+    final int nIslands = islands.size();
+    if (nIslands < 2)
+      return Double.NaN;
+    double sum = 0.0;
+    for (double weight : islandWeights())
+    {
+      final double ratio = nIslands * weight - 1.0;
+      sum += ratio * ratio;
+    }
+    return sum / nIslands / (nIslands - 1);
+  }
+  
+  /**
+   * @return The LOG of each island's estimate of the normalization
+   */
+  public double [] islandLogNormEstimates()
+  {
+    final double [] result = new double[islands.size()];
+    for (int island = 0; island < result.length; island++)
+      result[island] = islands.get(island).logNormEstimate();
+    return result;
+  }
+  
+  /**
+   * @return The islands' estimates of the normalization, normalized to sum to one
+   */
+  public double [] islandWeights()
+  {
+    final double max = maxIslandLogNormEstimate();
+    final double [] result = islandLogNormEstimates();
+    double sum = 0.0;
+    for (int island = 0; island < result.length; island++)
+    {
+      result[island] = Math.exp(result[island] - max);
+      sum += result[island];
+    }
+    for (int island = 0; island < result.length; island++)
+      result[island] /= sum;
+    return result;
+  }
+  
+  /**
+   * @return All the particles in one population, weighted by their weight within their 
+   *   island times the weight of their island, with logNormEstimate() equal to the combined 
+   *   estimate
+   */
+  public ParticlePopulation<P> merge()
+  {
+    final List<P> particles = new ArrayList<>();
+    final List<Double> logWeights = new ArrayList<>();
+    final double max = maxIslandLogNormEstimate();
+    for (ParticlePopulation<P> island : islands)
+      for (int i = 0; i < island.nParticles(); i++)
+      {
+        particles.add(island.particles.get(i));
+        logWeights.add(island.logNormEstimate() - max + Math.log(island.getNormalizedWeight(i)));
+      }
+    final double [] logWeightsArray = new double[logWeights.size()];
+    for (int i = 0; i < logWeightsArray.length; i++)
+      logWeightsArray[i] = logWeights.get(i);
+    return ParticlePopulation.buildDestructivelyFromLogWeights(
+        logWeightsArray, 
+        particles, 
+        max + Math.log(particles.size()) - Math.log(islands.size()));
+  }
+  
+  private double maxIslandLogNormEstimate()
+  {
+    double max = Double.NEGATIVE_INFINITY;
+    for (ParticlePopulation<P> island : islands)
+      max = Math.max(max, island.logNormEstimate());
+    return max;
+  }
+  
+  public IslandPopulations(List<ParticlePopulation<P>> islands)
+  {
+    this.islands = Collections.unmodifiableList(new ArrayList<>(islands));
+  }
+}
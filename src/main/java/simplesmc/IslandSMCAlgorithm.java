@@ -0,0 +1,163 @@
+package simplesmc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import simplesmc.resampling.Resampling;
+import bayonet.smc.ParticlePopulation;
+import bayonet.smc.ResamplingScheme;
+
+
+/**
+ * An SMC algorithm using several independent sub-populations (islands), 
+ * each advanced by a single thread, so that proposals and resampling stay
+ * local to a core.
+ * 
+ * The options.nParticles particles are split evenly among the islands, each 
+ * with its own random streams (so the result does not depend on the number of
+ * threads). Optionally, every interactionPeriod iterations, the islands are 
+ * resampled according to their estimates of the normalization (when the ESS 
+ * of the islands is below options.essThreshold), as in the island particle 
+ * models of Verge et al. (2015).
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type (class) of the individual particles
+ */
+public class IslandSMCAlgorithm<P>
+{
+  public final ProblemSpecification<P> proposal;
+  private final SMCOptions options;
+  private final List<SMCAlgorithm<P>> islands = new ArrayList<>();
+  
+  /**
+   * Threads used to advance the islands, one island at a time per thread
+   */
+  private final WorkerPool workers;
+  
+  /**
+   * Number of iterations between interactions of the islands, or 0 if they 
+   * are independent
+   */
+  public final int interactionPeriod;
+  
+  /**
+   * Compute the SMC algorithm on all islands
+   * 
+   * @return The islands' particle populations at the last step
+   */
+  public IslandPopulations<P> sample()
+  {
+    final int nIslands = islands.size();
+    final List<ParticlePopulation<P>> populations = new ArrayList<>();
+    for (int island = 0; island < nIslands; island++)
+      populations.add(null);
+    final int nSMCIterations = proposal.nIterations();
+    
+    workers.process(nIslands, 1, (fromIsland, toIsland) -> 
+    {
+      for (int island = fromIsland; island < toIsland; island++)
+        populations.set(island, islands.get(island).initialPopulation());
+    });
+    
+    for (int start = 0; start < nSMCIterations - 1; start += period(nSMCIterations))
+    {
+      final int end = Math.min(nSMCIterations - 1, start + period(nSMCIterations));
+      final int first = start;
+      workers.process(nIslands, 1, (fromIsland, toIsland) -> 
+      {
+        for (int island = fromIsland; island < toIsland; island++)
+        {
+          ParticlePopulation<P> population = populations.get(island);
+          for (int currentIteration = first; currentIteration < end; currentIteration++)
+            population = islands.get(island).step(population, currentIteration);
+          populations.set(island, population);
+        }
+      });
+      if (end < nSMCIterations - 1)
+        interact(populations);
+    }
+    
+    return new IslandPopulations<>(populations);
+  }
+  
+  private int period(int nSMCIterations)
+  {
+    return interactionPeriod == 0 ? nSMCIterations : interactionPeriod;
+  }
+  
+  /**
+   * Resamples the islands if their ESS is too low. All islands then carry the same 
+   * (combined) estimate of the normalization.
+   */
+  private void interact(List<ParticlePopulation<P>> populations)
+  {
+    final IslandPopulations<P> current = new IslandPopulations<>(populations);
+    final double [] islandWeights = current.islandWeights();
+    double sumOfSquares = 0.0;
+    for (double weight : islandWeights)
+      sumOfSquares += weight * weight;
+    if (1.0 / sumOfSquares / islandWeights.length >= options.essThreshold)
+      return;
+    
+    final double logNormEstimate = current.logNormEstimate();
+    final int [] ancestors = Resampling.sampleAncestors(options.random, ResamplingScheme.MULTINOMIAL, islandWeights);
+    final List<ParticlePopulation<P>> ancestorPopulations = new ArrayList<>(populations);
+    for (int island = 0; island < ancestors.length; island++)
+      populations.set(island, withLogNormEstimate(ancestorPopulations.get(ancestors[island]), logNormEstimate));
+  }
+  
+  private static <P> ParticlePopulation<P> withLogNormEstimate(ParticlePopulation<P> population, double logNormEstimate)
+  {
+    final int nParticles = population.nParticles();
+    final double [] logWeights = new double[nParticles];
+    for (int i = 0; i < nParticles; i++)
+      logWeights[i] = Math.log(population.getNormalizedWeight(i));
+    return ParticlePopulation.buildDestructivelyFromLogWeights(
+        logWeights, 
+        new ArrayList<>(population.particles), 
+        logNormEstimate + Math.log(nParticles));
+  }
+  
+  public int nIslands()
+  {
+    return islands.size();
+  }
+  
+  public IslandSMCAlgorithm(ProblemSpecification<P> proposal, SMCOptions options, int nIslands)
+  {
+    this(proposal, options, nIslands, 0);
+  }
+  
+  /**
+   * @param options Shared by the islands; nParticles is the total number of particles, 
+   *   and random is used to seed the islands and for the interactions
+   * @param nIslands Should divide options.nParticles
+   * @param interactionPeriod Number of iterations between interactions, or 0 for 
+   *   independent islands
+   */
+  public IslandSMCAlgorithm(ProblemSpecification<P> proposal, SMCOptions options, int nIslands, int interactionPeriod)
+  {
+    if (nIslands < 1 || options.nParticles % nIslands != 0)
+      throw new RuntimeException("The number of islands should divide the number of particles: " + nIslands);
+    if (interactionPeriod < 0)
+      throw new RuntimeException("The interaction period should be non-negative: " + interactionPeriod);
+    this.proposal = proposal;
+    this.options = options;
+    this.interactionPeriod = interactionPeriod;
+    this.workers = new WorkerPool(Math.min(options.nThreads, nIslands));
+    final WorkerPool sequential = new WorkerPool(1);
+    for (int island = 0; island < nIslands; island++)
+    {
+      SMCOptions islandOptions = new SMCOptions();
+      islandOptions.essThreshold = options.essThreshold;
+      islandOptions.resamplingScheme = options.resamplingScheme;
+      islandOptions.randomStreams = options.randomStreams;
+      islandOptions.random = new Random(options.random.nextLong());
+      islandOptions.nParticles = options.nParticles / nIslands;
+      islandOptions.nThreads = 1;
+      islands.add(new SMCAlgorithm<>(proposal, islandOptions, sequential));
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package simplesmc;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import simplesmc.random.ParticleStreams;
+import simplesmc.random.RandomStreams;
+import bayonet.smc.ParticlePopulation;
+
+
+/**
+ * A stateful SMC algorithm (particle filter) processing the observations 
+ * as they arrive: each call to step() costs O(nParticles), and the filtering 
+ * population as well as the running estimate of the LOG normalization 
+ * are available after each call.
+ * 
+ * Resampling is decided lazily, at the beginning of the next step, so that 
+ * the population returned by step() is always the weighted filtering 
+ * population.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type (class) of the individual particles
+ * @param <O> The type of each observation
+ */
+public class OnlineSMCAlgorithm<P, O>
+{
+  public final StreamingProblemSpecification<P, O> proposal;
+  private final SMCOptions options;
+  
+  /**
+   * See SMCAlgorithm; keyedStreams is used instead of randoms (which is then null) 
+   * when options.randomStreams is not STATEFUL, with a streamSeed drawn once, as 
+   * there is a single run
+   */
+  private final Random[] randoms;
+  private final ParticleStreams keyedStreams;
+  private final long streamSeed;
+  private final WorkerPool workers;
+  
+  private ParticlePopulation<P> currentPopulation = null;
+  private int nObservations = 0;
+  
+  /**
+   * Incorporates the next observation.
+   * 
+   * @return The filtering population given the observations so far
+   */
+  public ParticlePopulation<P> step(final O observation)
+  {
+    if (currentPopulation != null && currentPopulation.getRelativeESS() < options.essThreshold)
+      currentPopulation = SMCUtils.resample(currentPopulation, options, workers);
+    currentPopulation = propose(currentPopulation, observation);
+    nObservations++;
+    return currentPopulation;
+  }
+  
+  /**
+   * @return The filtering population given the observations so far, or null if 
+   *   no observation was provided yet
+   */
+  public ParticlePopulation<P> getCurrentPopulation()
+  {
+    return currentPopulation;
+  }
+  
+  /**
+   * @return The LOG of the estimate of the probability of the observations so far
+   */
+  public double logNormEstimate()
+  {
+    return currentPopulation == null ? 0.0 : currentPopulation.logNormEstimate();
+  }
+  
+  public int nObservations()
+  {
+    return nObservations;
+  }
+  
+  /**
+   * See SMCAlgorithm.propose()
+   */
+  private ParticlePopulation<P> propose(final ParticlePopulation<P> currentPopulation, final O observation)
+  {
+    final boolean isInitial = currentPopulation == null;
+    final int currentIteration = nObservations - 1;
+    
+    final double [] logWeights = new double[options.nParticles];
+    @SuppressWarnings("unchecked")
+    final P [] particles = (P[]) new Object[options.nParticles];
+    final List<P> proposedParticles = Arrays.asList(particles);
+    
+    final ParticleStreams.BlockProcessor proposeBlock = (particleRandoms, fromIndex, toIndex) ->
+    {
+      final ProposalOutput<P> output = new ProposalOutput<>(logWeights, proposedParticles);
+      for (int particleIndex = fromIndex; particleIndex < toIndex; particleIndex++)
+      {
+        output.at(particleIndex);
+        if (isInitial)
+          proposal.proposeInitial(particleRandoms[particleIndex], observation, output);
+        else
+        {
+          proposal.proposeNext(currentIteration, particleRandoms[particleIndex], currentPopulation.particles.get(particleIndex), observation, output);
+          logWeights[particleIndex] += Math.log(currentPopulation.getNormalizedWeight(particleIndex));
+        }
+      }
+    };
+    if (keyedStreams != null)
+      keyedStreams.process(workers, options.nParticles, streamSeed, nObservations, proposeBlock);
+    else
+      workers.process(options.nParticles, (fromIndex, toIndex) -> proposeBlock.process(randoms, fromIndex, toIndex));
+    
+    return ParticlePopulation.buildDestructivelyFromLogWeights(
+        logWeights, 
+        proposedParticles,
+        isInitial ? 0.0 : currentPopulation.logScaling);
+  }
+  
+  public OnlineSMCAlgorithm(StreamingProblemSpecification<P, O> proposal, SMCOptions options)
+  {
+    this(proposal, options, new WorkerPool(options.nThreads));
+  }
+  
+  /**
+   * @param workers The threads to use, e.g. to share them among several algorithms
+   *   (options.nThreads is then ignored)
+   */
+  public OnlineSMCAlgorithm(StreamingProblemSpecification<P, O> proposal, SMCOptions options, WorkerPool workers)
+  {
+    this.proposal = proposal;
+    this.options = options;
+    this.workers = workers;
+    this.keyedStreams = options.randomStreams == RandomStreams.STATEFUL ? null : new ParticleStreams(options.randomStreams);
+    this.randoms = keyedStreams == null ? SMCUtils.particleRandoms(options) : null;
+    this.streamSeed = keyedStreams == null ? 0L : options.random.nextLong();
+  }
+}
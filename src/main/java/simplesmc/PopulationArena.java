@@ -0,0 +1,190 @@
+package simplesmc;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import simplesmc.resampling.Resampling;
+import bayonet.smc.ParticlePopulation;
+import bayonet.smc.ResamplingScheme;
+
+
+/**
+ * The population of SMCAlgorithm.sample(), kept in two sets of preallocated
+ * buffers which swap roles at each iteration: the proposals read the current
+ * particles and LOG weights and write the next ones in the other buffers,
+ * and resampling copies the ancestors in the other particle buffer.
+ *
+ * The weights are kept as unnormalized LOG weights, relative to logOffset
+ * (the LOG weight of particle i is logOffset + logWeights[i]), so that a
+ * proposal only adds the LOG weight update, and the normalization only
+ * updates logOffset and logScaling.
+ *
+ * The buffers are reused across runs (they are only reallocated when the
+ * number of particles changes), so that the memory allocated by a run does
+ * not grow with the number of iterations. The arena therefore keeps the
+ * particles of the last run until they are overwritten.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type (class) of the individual particles
+ */
+final class PopulationArena<P>
+{
+  int nParticles = 0;
+
+  /**
+   * The current particles (particleList is a view of particles), and the buffer
+   * receiving the next ones
+   */
+  P [] particles, nextParticles;
+  List<P> particleList, nextParticleList;
+
+  /**
+   * The current LOG weights relative to logOffset, and the buffer receiving the next ones
+   */
+  double [] logWeights, nextLogWeights;
+  double logOffset;
+
+  /**
+   * The LOG of the sum of the unnormalized weights, as in ParticlePopulation,
+   * and the relative ESS, both set by normalize()
+   */
+  double logScaling, relativeESS;
+
+  /**
+   * The weights exponentiated by normalize() (divided by weightsSum, they are the
+   * normalized weights), followed by the buffers used to resample
+   */
+  private double [] weights, cumulativeWeights;
+  private double weightsSum;
+  int [] ancestors;
+
+  /**
+   * Prepares the buffers for a run with the given number of particles
+   */
+  void reset(int nParticles)
+  {
+    if (nParticles != this.nParticles)
+    {
+      this.nParticles = nParticles;
+      particles = newParticles(nParticles);
+      nextParticles = newParticles(nParticles);
+      particleList = Arrays.asList(particles);
+      nextParticleList = Arrays.asList(nextParticles);
+      logWeights = new double[nParticles];
+      nextLogWeights = new double[nParticles];
+      weights = new double[nParticles];
+      cumulativeWeights = new double[nParticles];
+      ancestors = new int[nParticles];
+    }
+    logOffset = 0.0;
+  }
+
+  /**
+   * Makes the next particles and LOG weights the current ones
+   */
+  void swap()
+  {
+    final P [] swappedParticles = particles;
+    particles = nextParticles;
+    nextParticles = swappedParticles;
+    final List<P> swappedList = particleList;
+    particleList = nextParticleList;
+    nextParticleList = swappedList;
+    final double [] swappedLogWeights = logWeights;
+    logWeights = nextLogWeights;
+    nextLogWeights = swappedLogWeights;
+  }
+
+  /**
+   * Computes logScaling and relativeESS in one pass, shifting the LOG weights
+   * so that the largest is zero (and logOffset accordingly).
+   */
+  void normalize()
+  {
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < nParticles; i++)
+      max = Math.max(max, logWeights[i]);
+    if (max == Double.NEGATIVE_INFINITY)
+      throw new RuntimeException("All the particles have zero weight");
+    double sum = 0.0, sumOfSquares = 0.0;
+    for (int i = 0; i < nParticles; i++)
+    {
+      final double logWeight = logWeights[i] - max;
+      final double weight = Math.exp(logWeight);
+      logWeights[i] = logWeight;
+      weights[i] = weight;
+      sum += weight;
+      sumOfSquares += weight * weight;
+    }
+    logOffset += max;
+    weightsSum = sum;
+    logScaling = logOffset + Math.log(sum);
+    relativeESS = sum * sum / sumOfSquares / nParticles;
+  }
+
+  /**
+   * Samples the ancestors (in the ancestors buffer) from the weights computed by the
+   * last call to normalize(), and replaces the population by the equally weighted
+   * copies of the ancestors (logScaling is unchanged).
+   */
+  void resample(Random random, ResamplingScheme resamplingScheme, WorkerPool workers)
+  {
+    for (int i = 0; i < nParticles; i++)
+      weights[i] /= weightsSum;
+    Resampling.sampleAncestors(random, resamplingScheme, weights, workers, cumulativeWeights, ancestors);
+    for (int i = 0; i < nParticles; i++)
+      nextParticles[i] = particles[ancestors[i]];
+    swap();
+    setEquallyWeighted();
+  }
+
+  /**
+   * Loads a population written by SMCAlgorithm in a Checkpoint
+   *
+   * @param logWeights See logWeights, or null if the population is equally weighted
+   * @param logScaling logOffset if logWeights is non null, otherwise logScaling
+   */
+  void load(List<P> particles, double [] logWeights, double logScaling)
+  {
+    reset(particles.size());
+    for (int i = 0; i < nParticles; i++)
+      this.particles[i] = particles.get(i);
+    if (logWeights == null)
+    {
+      this.logScaling = logScaling;
+      setEquallyWeighted();
+    }
+    else
+    {
+      System.arraycopy(logWeights, 0, this.logWeights, 0, nParticles);
+      this.logOffset = logScaling;
+      normalize();
+    }
+  }
+
+  /**
+   * @return A new population, which does not share the buffers of the arena
+   */
+  ParticlePopulation<P> population()
+  {
+    return ParticlePopulation.buildDestructivelyFromLogWeights(
+        logWeights.clone(),
+        Arrays.asList(particles.clone()),
+        logOffset);
+  }
+
+  private void setEquallyWeighted()
+  {
+    Arrays.fill(logWeights, 0.0);
+    logOffset = logScaling - Math.log(nParticles);
+    relativeESS = 1.0;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <P> P [] newParticles(int nParticles)
+  {
+    return (P[]) new Object[nParticles];
+  }
+}
@@ -1,5 +1,6 @@
 package simplesmc;
 
+import java.util.List;
 import java.util.Random;
 
 import org.apache.commons.lang3.tuple.Pair;
@@ -37,6 +38,34 @@ public interface ProblemSpecification<P>
    */
   public Pair<Double, P>  proposeInitial(Random random);
   
+  /**
+   * Proposes for a block of particles at once, which allows implementations to 
+   * share work across particles (e.g. computing quantities that depend only 
+   * on the iteration once per block).
+   * 
+   * By default, falls back to calling the per-particle methods.
+   * 
+   * @param currentSmcIteration The index of the particles in currentParticles (0, 1, 2, ..)
+   * @param randoms The random stream of each particle index
+   * @param currentParticles The particles before the proposal, or null for the zeroth iteration
+   * @param fromIndex First particle index to process (inclusive)
+   * @param toIndex Last particle index to process (exclusive)
+   * @param logWeightUpdates Where to write the LOG weight update of each proposed particle
+   * @param proposedParticles Where to write each proposed particle (a fixed size list)
+   */
+  public default void proposeBatch(int currentSmcIteration, Random [] randoms, List<P> currentParticles, 
+      int fromIndex, int toIndex, double [] logWeightUpdates, List<P> proposedParticles)
+  {
+    for (int particleIndex = fromIndex; particleIndex < toIndex; particleIndex++)
+    {
+      Pair<Double, P> proposed = currentParticles == null ?
+        proposeInitial(randoms[particleIndex]) :
+        proposeNext(currentSmcIteration, randoms[particleIndex], currentParticles.get(particleIndex));
+      logWeightUpdates[particleIndex] = proposed.getLeft();
+      proposedParticles.set(particleIndex, proposed.getRight());
+    }
+  }
+  
   /**
    * @return Number of iterations, including the initial step. For example, this is the length of
    *   the chain in an HMM context
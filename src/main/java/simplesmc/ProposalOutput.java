@@ -0,0 +1,80 @@
+package simplesmc;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * A caller-owned slot into which an InPlaceProblemSpecification writes 
+ * a proposed particle and its LOG weight update.
+ * 
+ * The SMC algorithm keeps one instance per block of particles processed 
+ * by a thread and moves it from one particle index to the next, so that 
+ * proposing does not allocate a Pair and a boxed Double per particle.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type of each individual particles 
+ */
+public final class ProposalOutput<P>
+{
+  private final double [] logWeightUpdates;
+  private final List<P> particles;
+  private int index;
+  
+  /**
+   * Records the result of a proposal.
+   * 
+   * @param logWeightUpdate The LOG weight update
+   * @param particle The proposed particle
+   */
+  public void set(double logWeightUpdate, P particle)
+  {
+    logWeightUpdates[index] = logWeightUpdate;
+    particles.set(index, particle);
+  }
+  
+  /**
+   * @return The LOG weight update written at the current index
+   */
+  public double getLogWeightUpdate()
+  {
+    return logWeightUpdates[index];
+  }
+  
+  /**
+   * @return The particle written at the current index
+   */
+  public P getParticle()
+  {
+    return particles.get(index);
+  }
+  
+  /**
+   * Move the slot to the given index of the underlying arrays.
+   */
+  ProposalOutput<P> at(int index)
+  {
+    this.index = index;
+    return this;
+  }
+  
+  /**
+   * An output writing into the provided array and (fixed size) list.
+   */
+  ProposalOutput(double [] logWeightUpdates, List<P> particles)
+  {
+    this.logWeightUpdates = logWeightUpdates;
+    this.particles = particles;
+  }
+  
+  /**
+   * @return An output holding a single result, e.g. to implement 
+   *   the Pair-based methods on top of the in-place ones
+   */
+  @SuppressWarnings("unchecked")
+  public static <P> ProposalOutput<P> single()
+  {
+    return new ProposalOutput<P>(new double[1], Arrays.asList((P[]) new Object[1]));
+  }
+}
@@ -1,13 +1,22 @@
 package simplesmc;
 
+import java.io.File;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.SplittableRandom;
+import java.util.function.ToDoubleFunction;
 
-import org.apache.commons.lang3.tuple.Pair;
-
+import simplesmc.checkpoint.Checkpoint;
+import simplesmc.distributed.ParticleCodec;
+import simplesmc.genealogy.Genealogy;
+import simplesmc.metrics.IterationMetrics;
+import simplesmc.metrics.SMCListener;
+import simplesmc.random.ParticleStreams;
+import simplesmc.random.RandomStreams;
+import simplesmc.resampling.Resampling;
 import bayonet.smc.ParticlePopulation;
-import briefj.BriefParallel;
+import bayonet.smc.ResamplingScheme;
 
 
 /**
@@ -25,12 +34,70 @@ public class SMCAlgorithm<P>
   public final ProblemSpecification<P> proposal;
   private final SMCOptions options;
   
+  /**
+   * The proposal, viewed through the allocation-free interface (either the 
+   * proposal itself, or an adapter, see InPlaceProblemSpecification.adapt())
+   */
+  private final InPlaceProblemSpecification<P> kernel;
+  
   /**
    * This is used to ensure that the result is deterministic even in a 
    * multi-threading context: each particle index has its own unique random 
-   * stream
+   * stream (the array can be larger than nParticles, see setNParticles())
    */
-  private final Random[] randoms;
+  private Random[] randoms;
+  
+  /**
+   * Provides the seeds of the streams of new particle indices
+   */
+  private final SplittableRandom streamSeeds;
+  
+  /**
+   * When options.randomStreams is not STATEFUL, the streams keyed by (streamSeed, iteration, 
+   * particle index) used instead of randoms (which is then empty); streamSeed is drawn 
+   * from options.random at the beginning of each run
+   */
+  private final ParticleStreams keyedStreams;
+  private long streamSeed;
+  
+  /**
+   * Initially options.nParticles, see setNParticles()
+   */
+  private int nParticles;
+  
+  /**
+   * Threads used to propose, kept across iterations and calls to sample()
+   */
+  private final WorkerPool workers;
+  
+  /**
+   * Streams replaying the auxiliary randomness in sampleCorrelated(), reused across calls
+   */
+  private Random [] auxiliaryStreams = null;
+  
+  /**
+   * See setListener()
+   */
+  private SMCListener listener = null;
+  
+  /**
+   * When the last call to propose() started normalizing the weights (only measured 
+   * when there is a listener)
+   */
+  private long normalizationStart;
+  
+  /**
+   * See setCheckpointing()
+   */
+  private File checkpointDirectory = null;
+  private int checkpointPeriod;
+  private ParticleCodec<P> checkpointCodec;
+  
+  /**
+   * The population of sample() and resume(), whose buffers are reused across 
+   * iterations and runs
+   */
+  private final PopulationArena<P> arena = new PopulationArena<>();
   
   /**
    * Compute the SMC algorithm
@@ -39,63 +106,439 @@ public class SMCAlgorithm<P>
    */
   public ParticlePopulation<P> sample()
   {
-    ParticlePopulation<P> currentPopulation = propose(null, 0);
+    return sample(null);
+  }
+  
+  /**
+   * Compute the SMC algorithm, recording the ancestry of the particles.
+   * 
+   * @param genealogy Where to record the ancestry (it is re-initialized), or null 
+   *   if it is not needed
+   * @return The particle population at the last step
+   */
+  public ParticlePopulation<P> sample(Genealogy<P> genealogy)
+  {
+    final SMCListener listener = this.listener;
+    long start = listener == null ? 0L : System.nanoTime();
+    newStreamSeed();
+    arena.reset(nParticles);
+    propose(0, true, particleStreams());
+    if (listener != null)
+      report(listener, 0, arena.relativeESS, false, arena.logScaling, start, System.nanoTime());
+    if (genealogy != null)
+      genealogy.initialize(arena.particleList);
+    return iterate(0, genealogy);
+  }
+  
+  /**
+   * Continues a run of sample() from a checkpoint, see setCheckpointing(). The 
+   * result is identical to the one of the uninterrupted run, provided the 
+   * problem specification and options (other than options.random, which is 
+   * replaced by the checkpointed one) are the same.
+   * 
+   * @return The particle population at the last step
+   */
+  public ParticlePopulation<P> resume(Checkpoint<P> checkpoint)
+  {
+    randoms = checkpoint.particleRandoms();
+    options.random = checkpoint.random();
+    streamSeed = checkpoint.streamSeed;
+    nParticles = checkpoint.nParticles();
+    arena.load(checkpoint.particles, checkpoint.logWeights(), checkpoint.logScaling());
+    return iterate(checkpoint.iteration, null);
+  }
+  
+  /**
+   * The iterations of sample() following the population of index firstIteration, 
+   * which is in the arena
+   */
+  private ParticlePopulation<P> iterate(int firstIteration, Genealogy<P> genealogy)
+  {
+    final SMCListener listener = this.listener;
+    final int nSMCIterations = proposal.nIterations();
+    final WorkerPool resamplingWorkers = options.parallelResampling ? workers : null;
     
-    int nSMCIterations = proposal.nIterations();
+    for (int currentIteration = firstIteration; currentIteration < nSMCIterations - 1; currentIteration++)
+    {
+      final long start = listener == null ? 0L : System.nanoTime();
+      final double previousLogScaling = arena.logScaling;
+      propose(currentIteration, false, particleStreams());
+      final long proposed = listener == null ? 0L : System.nanoTime();
+      if (genealogy != null)
+        genealogy.extend(arena.particleList);
+      final double relativeESS = arena.relativeESS;
+      final boolean resample = relativeESS < options.essThreshold && currentIteration < nSMCIterations - 2;
+      if (resample)
+      {
+        arena.resample(options.random, options.resamplingScheme, resamplingWorkers);
+        if (genealogy != null)
+          genealogy.resample(arena.ancestors);
+      }
+      if (checkpointDirectory != null && (currentIteration + 1) % checkpointPeriod == 0)
+        new Checkpoint<>(currentIteration + 1, arena.particleList, 
+            resample ? null : arena.logWeights, 
+            resample ? arena.logScaling : arena.logOffset, 
+            randoms, options.random, streamSeed).write(Checkpoint.file(checkpointDirectory, currentIteration + 1), checkpointCodec);
+      if (listener != null)
+        report(listener, currentIteration + 1, relativeESS, resample, arena.logScaling - previousLogScaling, start, proposed);
+    }
+    
+    return arena.population();
+  }
+  
+  /**
+   * Writes a Checkpoint of the population of every period-th iteration in the given 
+   * directory (see Checkpoint.file()) during sample() and resume(), allowing to 
+   * resume interrupted runs and to inspect intermediate populations.
+   * 
+   * @param directory The directory of the checkpoints, or null (the default) to disable checkpointing
+   * @param codec How to write the particles
+   */
+  public void setCheckpointing(File directory, int period, ParticleCodec<P> codec)
+  {
+    if (directory != null && period < 1)
+      throw new RuntimeException("The checkpointing period should be positive: " + period);
+    if (directory != null && codec == null)
+      throw new RuntimeException("A ParticleCodec is needed to write checkpoints");
+    if (directory != null)
+      directory.mkdirs();
+    this.checkpointDirectory = directory;
+    this.checkpointPeriod = period;
+    this.checkpointCodec = codec;
+  }
+  
+  /**
+   * Receives the metrics of each iteration of sample(), or null (the default) to 
+   * disable the measurements altogether
+   */
+  public void setListener(SMCListener listener)
+  {
+    this.listener = listener;
+  }
+  
+  /**
+   * @param start When the proposals started
+   * @param proposed When propose() returned (the normalization started at normalizationStart)
+   */
+  private void report(SMCListener listener, int iteration, double relativeESS, 
+      boolean resampled, double logScalingIncrement, long start, long proposed)
+  {
+    final long end = System.nanoTime();
+    listener.iterationCompleted(new IterationMetrics(iteration, nParticles, relativeESS, resampled, 
+        logScalingIncrement, arena.logScaling - Math.log(nParticles), 
+        normalizationStart - start, proposed - normalizationStart, end - proposed));
+  }
+  
+  /**
+   * The first population of sample(), see IslandSMCAlgorithm
+   */
+  ParticlePopulation<P> initialPopulation()
+  {
+    newStreamSeed();
+    return propose(null, 0, null, particleStreams());
+  }
+  
+  /**
+   * One iteration of sample(): proposes, then resamples if the ESS is too low, 
+   * see IslandSMCAlgorithm
+   */
+  ParticlePopulation<P> step(ParticlePopulation<P> currentPopulation, int currentIteration)
+  {
+    currentPopulation = propose(currentPopulation, currentIteration, null, particleStreams());
+    if (currentPopulation.getRelativeESS() < options.essThreshold &&
+        currentIteration < proposal.nIterations() - 2)
+      currentPopulation = SMCUtils.resample(currentPopulation, options, workers);
+    return currentPopulation;
+  }
+  
+  /**
+   * Index of the reference trajectory in conditional SMC
+   */
+  public static final int REFERENCE_INDEX = 0;
+  
+  /**
+   * Compute conditional SMC, i.e. SMC where the particle at REFERENCE_INDEX 
+   * is forced to follow the provided reference trajectory. This is the building 
+   * block of particle Gibbs (see simplesmc.pmcmc.ParticleGibbs).
+   * 
+   * Multinomial resampling is performed at every iteration (the other particles 
+   * are resampled as usual, and options.resamplingScheme and essThreshold are ignored).
+   * 
+   * Requires the proposal to be a ConditionalProblemSpecification, and, for ancestor 
+   * sampling, an AncestorSamplingSpecification.
+   * 
+   * @param referenceTrajectory One particle per iteration
+   * @param ancestorSampling If true, the ancestor of the reference particle is resampled 
+   *   at each iteration, otherwise the reference keeps its own ancestry
+   * @param genealogy Where to record the ancestry (it is re-initialized), e.g. to sample 
+   *   the next reference trajectory, or null if it is not needed
+   * @return The particle population at the last step
+   */
+  public ParticlePopulation<P> sampleConditional(List<P> referenceTrajectory, boolean ancestorSampling, Genealogy<P> genealogy)
+  {
+    final int nSMCIterations = proposal.nIterations();
+    if (referenceTrajectory.size() != nSMCIterations)
+      throw new RuntimeException("The reference trajectory should have one particle per iteration");
+    if (!(proposal instanceof ConditionalProblemSpecification))
+      throw new RuntimeException("Conditional SMC requires a ConditionalProblemSpecification");
+    if (ancestorSampling && !(proposal instanceof AncestorSamplingSpecification))
+      throw new RuntimeException("Ancestor sampling requires an AncestorSamplingSpecification");
+    
+    newStreamSeed();
+    ParticlePopulation<P> currentPopulation = propose(null, 0, referenceTrajectory.get(0), particleStreams());
+    if (genealogy != null)
+      genealogy.initialize(currentPopulation.particles);
     
     for (int currentIteration = 0; currentIteration < nSMCIterations - 1; currentIteration++)
     {
-      currentPopulation = propose(currentPopulation, currentIteration);
-      if (currentPopulation.getRelativeESS() < options.essThreshold &&
-          currentIteration < nSMCIterations - 2)
-        currentPopulation = currentPopulation.resample(options.random, options.resamplingScheme);
+      final P reference = referenceTrajectory.get(currentIteration + 1);
+      final int [] ancestors = Resampling.sampleAncestors(options.random, ResamplingScheme.MULTINOMIAL, 
+          SMCUtils.normalizedWeights(currentPopulation));
+      // the ancestors are sorted: shuffle them so that the ones of the other 
+      // particles are still iid after overwriting the reference's
+      shuffle(options.random, ancestors);
+      ancestors[REFERENCE_INDEX] = ancestorSampling ? 
+        sampleReferenceAncestor(currentPopulation, currentIteration, reference) : 
+        REFERENCE_INDEX;
+      currentPopulation = SMCUtils.resample(currentPopulation, ancestors);
+      if (genealogy != null)
+        genealogy.resample(ancestors);
+      currentPopulation = propose(currentPopulation, currentIteration, reference, particleStreams());
+      if (genealogy != null)
+        genealogy.extend(currentPopulation.particles);
     }
     
     return currentPopulation;
   }
   
   /**
-   * Calls the proposal options.nParticles times, form the new weights, and return the new population.
+   * Compute the SMC algorithm using explicit auxiliary randomness, for correlated 
+   * pseudo-marginal PMCMC (see simplesmc.pmcmc.CorrelatedPMCMCFactor).
+   * 
+   * The proposals use the streams provided by the auxiliary randomness instead of 
+   * the particles' own streams, and resampling is systematic, after sorting the 
+   * particles by the provided key, so that the estimate varies smoothly with the 
+   * auxiliary randomness and the parameters. For the same reason, resampling is 
+   * performed at every iteration (essThreshold is ignored), since a change in the
+   * resampling decisions would break the correlation. Works best with continuous 
+   * and one dimensional (or well summarized) states.
+   * 
+   * @param randomness Normals for nParticles() and proposal.nIterations()
+   * @param sortKey Used to sort the particles before resampling
+   * @return The particle population at the last step
+   */
+  public ParticlePopulation<P> sampleCorrelated(AuxiliaryRandomness randomness, ToDoubleFunction<P> sortKey)
+  {
+    final int nSMCIterations = proposal.nIterations();
+    if (randomness.nIterations != nSMCIterations || randomness.nParticles != nParticles)
+      throw new RuntimeException("The auxiliary randomness does not match the problem size");
+    
+    auxiliaryStreams = randomness.streams(auxiliaryStreams, 0);
+    ParticlePopulation<P> currentPopulation = propose(null, 0, null, auxiliaryStreams);
+    
+    for (int currentIteration = 0; currentIteration < nSMCIterations - 1; currentIteration++)
+    {
+      auxiliaryStreams = randomness.streams(auxiliaryStreams, currentIteration + 1);
+      currentPopulation = propose(currentPopulation, currentIteration, null, auxiliaryStreams);
+      if (currentIteration < nSMCIterations - 2)
+      {
+        final int nParticles = currentPopulation.nParticles();
+        final double [] keys = new double[nParticles];
+        for (int i = 0; i < nParticles; i++)
+          keys[i] = sortKey.applyAsDouble(currentPopulation.particles.get(i));
+        final int [] ancestors = Resampling.sampleSortedSystematicAncestors(
+            SMCUtils.normalizedWeights(currentPopulation), keys, randomness.resamplingUniform(currentIteration + 1));
+        currentPopulation = SMCUtils.resample(currentPopulation, ancestors);
+      }
+    }
+    
+    return currentPopulation;
+  }
+  
+  private static void shuffle(Random random, int [] array)
+  {
+    for (int i = array.length - 1; i > 0; i--)
+    {
+      final int j = random.nextInt(i + 1);
+      final int swapped = array[i];
+      array[i] = array[j];
+      array[j] = swapped;
+    }
+  }
+  
+  /**
+   * Samples the ancestor of the reference particle proportionally to the weight of each
+   * candidate times the density of the reference under the weighted proposal from that 
+   * candidate (valid for Markovian targets, e.g. state space models).
+   */
+  private int sampleReferenceAncestor(ParticlePopulation<P> currentPopulation, int currentIteration, P reference)
+  {
+    final AncestorSamplingSpecification<P> specification = (AncestorSamplingSpecification<P>) proposal;
+    final double [] logWeights = new double[currentPopulation.nParticles()];
+    for (int i = 0; i < logWeights.length; i++)
+    {
+      final P candidate = currentPopulation.particles.get(i);
+      logWeights[i] = 
+        Math.log(currentPopulation.getNormalizedWeight(i)) + 
+        specification.logWeightUpdate(currentIteration, candidate, reference) + 
+        specification.proposalLogDensity(currentIteration, candidate, reference);
+    }
+    Resampling.expNormalize(logWeights);
+    return Resampling.sampleIndex(options.random, logWeights);
+  }
+  
+  /**
+   * Calls the proposal nParticles times from the population in the arena, and makes the 
+   * new particles and their normalized weights the population of the arena. The LOG 
+   * weights are updated in place, without going through the normalized weights.
+   * 
+   * @param currentIteration The iteration of the particles used as starting points for the proposal step
+   * @param isInitial If true, use the initial distribution, otherwise, use the transition 
+   *   from the population in the arena. Both are specified by the proposal object.
+   * @param streams The random stream of each particle index, or null to use the keyed 
+   *   streams (see particleStreams())
+   */
+  private void propose(final int currentIteration, final boolean isInitial, final Random [] streams)
+  {
+    final List<P> currentParticles = isInitial ? null : arena.particleList;
+    final double [] currentLogWeights = arena.logWeights, logWeights = arena.nextLogWeights;
+    final List<P> proposedParticles = arena.nextParticleList;
+    
+    final ParticleStreams.BlockProcessor proposeBlock = (particleRandoms, fromIndex, toIndex) ->
+    {
+      kernel.proposeBatch(currentIteration, particleRandoms, currentParticles, 
+          fromIndex, toIndex, logWeights, proposedParticles);
+      if (!isInitial)
+        for (int particleIndex = fromIndex; particleIndex < toIndex; particleIndex++)
+          logWeights[particleIndex] += currentLogWeights[particleIndex];
+    };
+    process(proposeBlock, isInitial ? 0 : currentIteration + 1, streams);
+    
+    if (listener != null)
+      normalizationStart = System.nanoTime();
+    arena.swap();
+    arena.normalize();
+  }
+  
+  /**
+   * Proposes from the population of sampleConditional(), sampleCorrelated() and step(), 
+   * see propose(int, boolean, Random[]) for the other arguments.
    * 
    * If the provided currentPopulation is null, use the initial distribution, otherwise, use the 
    * transition. Both are specified by the proposal object.
    * 
    * @param currentPopulation The population of particles before the proposal
-   * @param currentIteration The iteration of the particles used as starting points for the proposal step
-   * @return
+   * @param reference If non null, the particle at REFERENCE_INDEX is set to reference 
+   *   instead of being proposed (for conditional SMC)
+   * @return The new population
    */
-  private ParticlePopulation<P> propose(final ParticlePopulation<P> currentPopulation, final int currentIteration)
+  private ParticlePopulation<P> propose(final ParticlePopulation<P> currentPopulation, final int currentIteration, 
+      final P reference, final Random [] streams)
   {
     final boolean isInitial = currentPopulation == null;
     
-    final double [] logWeights = new double[options.nParticles];
+    final double [] logWeights = new double[nParticles];
     @SuppressWarnings("unchecked")
-    final P [] particles = (P[]) new Object[options.nParticles];
+    final P [] particles = (P[]) new Object[nParticles];
+    final List<P> proposedParticles = Arrays.asList(particles);
+    
+    final ParticleStreams.BlockProcessor proposeBlock = (particleRandoms, fromIndex, toIndex) ->
+    {
+      kernel.proposeBatch(currentIteration, particleRandoms, isInitial ? null : currentPopulation.particles, 
+          fromIndex, toIndex, logWeights, proposedParticles);
+      if (!isInitial)
+        for (int particleIndex = fromIndex; particleIndex < toIndex; particleIndex++)
+          logWeights[particleIndex] += Math.log(currentPopulation.getNormalizedWeight(particleIndex));
+    };
+    process(proposeBlock, isInitial ? 0 : currentIteration + 1, streams);
     
-    BriefParallel.process(options.nParticles, options.nThreads, particleIndex ->
+    if (reference != null)
     {
-      Pair<Double, P> proposed = isInitial ?
-        proposal.proposeInitial(randoms[particleIndex]) :
-        proposal.proposeNext(currentIteration, randoms[particleIndex], currentPopulation.particles.get(particleIndex));
-      logWeights[particleIndex] = 
-        proposed.getLeft().doubleValue() + 
-        (isInitial ? 0.0 : Math.log(currentPopulation.getNormalizedWeight(particleIndex)));
-        particles[particleIndex] = (proposed.getRight());
-    });
+      final ConditionalProblemSpecification<P> specification = (ConditionalProblemSpecification<P>) proposal;
+      particles[REFERENCE_INDEX] = reference;
+      logWeights[REFERENCE_INDEX] = isInitial ?
+        specification.logWeightUpdate(currentIteration, null, reference) :
+        specification.logWeightUpdate(currentIteration, currentPopulation.particles.get(REFERENCE_INDEX), reference) + 
+          Math.log(currentPopulation.getNormalizedWeight(REFERENCE_INDEX));
+    }
     
     return ParticlePopulation.buildDestructivelyFromLogWeights(
         logWeights, 
-        Arrays.asList(particles),
+        proposedParticles,
         isInitial ? 0.0 : currentPopulation.logScaling);
   }
 
+  /**
+   * Runs the proposals of all particle indices on the worker threads
+   * 
+   * @param iteration The index of the proposed population (for the keyed streams)
+   * @param streams The random stream of each particle index, or null to use the keyed 
+   *   streams (see particleStreams())
+   */
+  private void process(ParticleStreams.BlockProcessor proposeBlock, int iteration, final Random [] streams)
+  {
+    if (streams == null)
+      keyedStreams.process(workers, nParticles, streamSeed, iteration, proposeBlock);
+    else
+      workers.process(nParticles, (fromIndex, toIndex) -> proposeBlock.process(streams, fromIndex, toIndex));
+  }
+
+  public int nParticles()
+  {
+    return nParticles;
+  }
+  
+  /**
+   * Changes the number of particles used by the next calls (options.nParticles is 
+   * not modified). The random streams of the existing particle indices are kept, 
+   * and new ones are only created for the new indices, so each particle index has 
+   * the stream it would have had if the algorithm was created with that number of 
+   * particles.
+   */
+  public void setNParticles(int nParticles)
+  {
+    if (nParticles < 1)
+      throw new RuntimeException("The number of particles should be positive: " + nParticles);
+    if (keyedStreams == null)
+      this.randoms = SMCUtils.extendRandoms(randoms, streamSeeds, nParticles);
+    this.nParticles = nParticles;
+  }
+
   public SMCAlgorithm(ProblemSpecification<P> proposal, SMCOptions options)
   {
+    this(proposal, options, new WorkerPool(options.nThreads));
+  }
+  
+  /**
+   * @param workers The threads to use, e.g. to share them among several algorithms
+   *   (options.nThreads is then ignored)
+   */
+  public SMCAlgorithm(ProblemSpecification<P> proposal, SMCOptions options, WorkerPool workers)
+  {
+    this.workers = workers;
     this.proposal = proposal;
+    this.kernel = InPlaceProblemSpecification.adapt(proposal);
     this.options = options;
-    this.randoms = new Random[options.nParticles];
-    SplittableRandom splitRandom = new SplittableRandom(options.random.nextLong());
-    for (int i = 0; i < options.nParticles; i++)
-      this.randoms[i] = new Random(splitRandom.split().nextLong());
+    this.nParticles = options.nParticles;
+    this.streamSeeds = new SplittableRandom(options.random.nextLong());
+    this.keyedStreams = options.randomStreams == RandomStreams.STATEFUL ? null : new ParticleStreams(options.randomStreams);
+    this.randoms = keyedStreams == null ? SMCUtils.extendRandoms(new Random[0], streamSeeds, nParticles) : new Random[0];
+  }
+  
+  /**
+   * @return The streams to pass to propose(): randoms, or null for the keyed streams
+   */
+  private Random [] particleStreams()
+  {
+    return keyedStreams == null ? randoms : null;
+  }
+  
+  /**
+   * Called at the beginning of each run, so that successive runs use different keyed streams
+   */
+  private void newStreamSeed()
+  {
+    if (keyedStreams != null)
+      streamSeed = options.random.nextLong();
   }
 }
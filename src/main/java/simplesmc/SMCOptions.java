@@ -4,6 +4,7 @@ import java.util.Random;
 
 import bayonet.smc.ResamplingScheme;
 import briefj.opt.Option;
+import simplesmc.random.RandomStreams;
 
 
 /**
@@ -27,5 +28,17 @@ public class SMCOptions
 
   @Option(gloss = "Number of parallel threads")
   public int nThreads = 1;
+  
+  @Option(gloss = "Use the parallel threads for resampling as well (worth it for large numbers of particles)")
+  public boolean parallelResampling = false;
+  
+  /**
+   * Honored by SMCAlgorithm (and the samplers built on it, e.g. IslandSMCAlgorithm and PMCMC), 
+   * IntSMCAlgorithm, DoubleSMCAlgorithm, TemperedSMCAlgorithm, OnlineSMCAlgorithm and 
+   * DistributedSMCAlgorithm. HMMBatchSMCAlgorithm always uses keyed streams (PHILOX for STATEFUL).
+   */
+  @Option(gloss = "Random stream of each particle: STATEFUL (one java.util.Random per particle), or keyed "
+      + "by (seed, iteration, particle) without per-particle objects (PHILOX, SPLITMIX, XOROSHIRO)")
+  public RandomStreams randomStreams = RandomStreams.STATEFUL;
 
 }
\ No newline at end of file
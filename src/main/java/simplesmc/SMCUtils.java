@@ -0,0 +1,83 @@
+package simplesmc;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import simplesmc.resampling.Resampling;
+import bayonet.smc.ParticlePopulation;
+
+
+/**
+ * Functionality shared by the SMC algorithms over the different 
+ * particle representations.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+class SMCUtils
+{
+  /**
+   * Creates one random stream per particle index, which ensures that the 
+   * result is deterministic even in a multi-threading context.
+   */
+  static Random [] particleRandoms(SMCOptions options)
+  {
+    return extendRandoms(new Random[0], new SplittableRandom(options.random.nextLong()), options.nParticles);
+  }
+  
+  /**
+   * @param randoms The streams of the first particle indices
+   * @param streamSeeds Provides the seed of each new stream, in order of particle index
+   * @return The provided streams followed by new ones, up to nParticles (or randoms 
+   *   itself if it is large enough)
+   */
+  static Random [] extendRandoms(Random [] randoms, SplittableRandom streamSeeds, int nParticles)
+  {
+    if (nParticles <= randoms.length)
+      return randoms;
+    final Random [] result = Arrays.copyOf(randoms, nParticles);
+    for (int i = randoms.length; i < nParticles; i++)
+      result[i] = new Random(streamSeeds.split().nextLong());
+    return result;
+  }
+  
+  /**
+   * Resamples using the ancestor-based implementations in simplesmc.resampling, which 
+   * can use the worker threads (see SMCOptions.parallelResampling).
+   */
+  static <P> ParticlePopulation<P> resample(final ParticlePopulation<P> population, SMCOptions options, WorkerPool workers)
+  {
+    return resample(population, sampleAncestors(population, options, workers));
+  }
+  
+  /**
+   * @return For each particle in the resampled population, the index of its ancestor
+   */
+  static int [] sampleAncestors(final ParticlePopulation<?> population, SMCOptions options, WorkerPool workers)
+  {
+    final WorkerPool resamplingWorkers = options.parallelResampling ? workers : null;
+    return Resampling.sampleAncestors(options.random, options.resamplingScheme, normalizedWeights(population), resamplingWorkers);
+  }
+  
+  static double [] normalizedWeights(final ParticlePopulation<?> population)
+  {
+    final double [] result = new double[population.nParticles()];
+    for (int i = 0; i < result.length; i++)
+      result[i] = population.getNormalizedWeight(i);
+    return result;
+  }
+  
+  /**
+   * @return The equally weighted population obtained by copying the given ancestors
+   */
+  static <P> ParticlePopulation<P> resample(final ParticlePopulation<P> population, int [] ancestors)
+  {
+    @SuppressWarnings("unchecked")
+    final P [] resampled = (P[]) new Object[ancestors.length];
+    for (int i = 0; i < ancestors.length; i++)
+      resampled[i] = population.particles.get(ancestors[i]);
+    return ParticlePopulation.buildEquallyWeighted(Arrays.asList(resampled), population.logScaling);
+  }
+  
+  private SMCUtils() {}
+}
@@ -0,0 +1,41 @@
+package simplesmc;
+
+import java.util.Random;
+
+
+/**
+ * The specification of a problem input to an OnlineSMCAlgorithm, where 
+ * the observations are provided one at the time instead of being known 
+ * up front.
+ * 
+ * Contrary to ProblemSpecification, there is no nIterations(): the 
+ * number of iterations is the number of observations received so far.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type of each individual particles 
+ * @param <O> The type of each observation
+ */
+public interface StreamingProblemSpecification<P, O>
+{
+  /**
+   * Computes a proposal and the LOG weight update for that proposed particle,
+   * given the next observation.
+   * 
+   * @param currentSmcIteration The index of particle currentParticle (0, 1, 2, ..)
+   * @param random
+   * @param currentParticle
+   * @param observation The observation of iteration currentSmcIteration + 1
+   * @param output Where to write (1) the LOG weight update, and (2) proposed particle
+   */
+  public void proposeNext(int currentSmcIteration, Random random, P currentParticle, O observation, ProposalOutput<P> output);
+  
+  /**
+   * 
+   * @param random
+   * @param observation The first observation
+   * @param output Where to write (1) the LOG weight update, and (2) proposed particle 
+   *   for the zeroth iteration
+   */
+  public void proposeInitial(Random random, O observation, ProposalOutput<P> output);
+}
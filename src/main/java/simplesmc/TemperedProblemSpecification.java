@@ -0,0 +1,42 @@
+package simplesmc;
+
+import java.util.Random;
+
+
+/**
+ * The specification of a static target, prior(x) * likelihood(x), to be 
+ * approximated by a TemperedSMCAlgorithm, i.e. via the sequence of 
+ * distributions prior(x) * likelihood(x)^temperature, with temperatures
+ * going from 0 to 1.
+ * 
+ * The log likelihood of each particle is written along with it in the
+ * ProposalOutput (in place of the LOG weight update), so that it is only 
+ * computed once per particle.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type of each individual particles 
+ */
+public interface TemperedProblemSpecification<P>
+{
+  /**
+   * @param random
+   * @param output Where to write (1) the LOG likelihood, and (2) a particle sampled 
+   *   from the prior
+   */
+  public void sampleInitial(Random random, ProposalOutput<P> output);
+  
+  /**
+   * An MCMC move leaving prior(x) * likelihood(x)^temperature invariant (e.g. one 
+   * or several Metropolis-Hastings steps).
+   * 
+   * @param random
+   * @param currentParticle
+   * @param currentLogLikelihood The LOG likelihood of currentParticle
+   * @param temperature 
+   * @param output Where to write (1) the LOG likelihood, and (2) the new particle (which
+   *   can be currentParticle itself, e.g. after a rejection)
+   */
+  public void rejuvenate(Random random, P currentParticle, double currentLogLikelihood, double temperature, 
+      ProposalOutput<P> output);
+}
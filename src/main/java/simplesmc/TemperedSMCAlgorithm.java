@@ -0,0 +1,223 @@
+package simplesmc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import simplesmc.random.ParticleStreams;
+import simplesmc.random.RandomStreams;
+import simplesmc.resampling.Resampling;
+import bayonet.smc.ParticlePopulation;
+
+
+/**
+ * An SMC sampler for a static target, going from the prior to the posterior 
+ * through tempered distributions, prior(x) * likelihood(x)^temperature, where 
+ * each temperature increment is chosen adaptively (Zhou, Johansen and Aston, 2016): 
+ * the largest one for which the relative conditional ESS is at least 
+ * temperingOptions.targetConditionalESS, found by bisection.
+ * 
+ * The log likelihood of each particle is stored along with it, so changing the 
+ * temperature does not require any likelihood evaluation. Resampling is performed
+ * when the ESS is below options.essThreshold, and each change of temperature is 
+ * followed by MCMC rejuvenation moves, proposed in parallel.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type (class) of the individual particles
+ */
+public class TemperedSMCAlgorithm<P>
+{
+  public final TemperedProblemSpecification<P> problem;
+  private final SMCOptions options;
+  private final TemperingOptions temperingOptions;
+  
+  /**
+   * See SMCAlgorithm; keyedStreams is used instead of randoms (which is then null) 
+   * when options.randomStreams is not STATEFUL, with the index of the temperature 
+   * as iteration
+   */
+  private final Random[] randoms;
+  private final ParticleStreams keyedStreams;
+  private long streamSeed;
+  private final WorkerPool workers;
+  
+  private final List<Double> temperatures = new ArrayList<>();
+  
+  /**
+   * Compute the SMC algorithm
+   * 
+   * @return The particle population at temperature 1, whose logNormEstimate() 
+   *   estimates the LOG of the marginal likelihood
+   */
+  public ParticlePopulation<P> sample()
+  {
+    final int nParticles = options.nParticles;
+    if (keyedStreams != null)
+      streamSeed = options.random.nextLong();
+    @SuppressWarnings("unchecked")
+    List<P> particles = Arrays.asList((P[]) new Object[nParticles]);
+    double [] logLikelihoods = new double[nParticles];
+    final List<P> initialParticles = particles;
+    final double [] initialLogLikelihoods = logLikelihoods;
+    process(nParticles, 0, (particleRandoms, fromIndex, toIndex) ->
+    {
+      final ProposalOutput<P> output = new ProposalOutput<>(initialLogLikelihoods, initialParticles);
+      for (int particleIndex = fromIndex; particleIndex < toIndex; particleIndex++)
+        problem.sampleInitial(particleRandoms[particleIndex], output.at(particleIndex));
+    });
+    
+    double [] normalizedWeights = new double[nParticles];
+    Arrays.fill(normalizedWeights, 1.0 / nParticles);
+    double temperature = 0.0, logNormEstimate = 0.0;
+    temperatures.clear();
+    temperatures.add(temperature);
+    
+    while (temperature < 1.0)
+    {
+      final double increment = nextIncrement(normalizedWeights, logLikelihoods, 1.0 - temperature);
+      temperature = increment == 1.0 - temperature ? 1.0 : temperature + increment;
+      temperatures.add(temperature);
+      
+      // reweight, using the stored log likelihoods
+      final double [] logWeights = new double[nParticles];
+      for (int i = 0; i < nParticles; i++)
+        logWeights[i] = Math.log(normalizedWeights[i]) + increment * logLikelihoods[i];
+      logNormEstimate += Resampling.expNormalize(logWeights);
+      normalizedWeights = logWeights;
+      
+      if (ess(normalizedWeights) / nParticles < options.essThreshold)
+      {
+        final int [] ancestors = Resampling.sampleAncestors(options.random, options.resamplingScheme, normalizedWeights, 
+            options.parallelResampling ? workers : null);
+        @SuppressWarnings("unchecked")
+        final P [] resampled = (P[]) new Object[nParticles];
+        final double [] resampledLogLikelihoods = new double[nParticles];
+        for (int i = 0; i < nParticles; i++)
+        {
+          resampled[i] = particles.get(ancestors[i]);
+          resampledLogLikelihoods[i] = logLikelihoods[ancestors[i]];
+        }
+        particles = Arrays.asList(resampled);
+        logLikelihoods = resampledLogLikelihoods;
+        Arrays.fill(normalizedWeights, 1.0 / nParticles);
+      }
+      
+      rejuvenate(particles, logLikelihoods, temperature, temperatures.size() - 1);
+    }
+    
+    final double [] logWeights = new double[nParticles];
+    for (int i = 0; i < nParticles; i++)
+      logWeights[i] = Math.log(normalizedWeights[i]);
+    return ParticlePopulation.buildDestructivelyFromLogWeights(logWeights, particles, logNormEstimate + Math.log(nParticles));
+  }
+  
+  /**
+   * @return The temperatures used by the last call to sample(), starting at 0 and ending at 1
+   */
+  public List<Double> getTemperatures()
+  {
+    return Collections.unmodifiableList(temperatures);
+  }
+  
+  /**
+   * @return The largest increment (up to maxIncrement) for which the relative conditional 
+   *   ESS is at least the target, found by bisection
+   */
+  private double nextIncrement(double [] normalizedWeights, double [] logLikelihoods, double maxIncrement)
+  {
+    if (relativeConditionalESS(normalizedWeights, logLikelihoods, maxIncrement) >= temperingOptions.targetConditionalESS)
+      return maxIncrement;
+    double low = 0.0, high = maxIncrement;
+    for (int iteration = 0; iteration < temperingOptions.maxBisectionIterations; iteration++)
+    {
+      final double middle = (low + high) / 2.0;
+      if (relativeConditionalESS(normalizedWeights, logLikelihoods, middle) >= temperingOptions.targetConditionalESS)
+        low = middle;
+      else
+        high = middle;
+    }
+    // make progress even if the target cannot be reached
+    return low > 0.0 ? low : high;
+  }
+  
+  /**
+   * @return (sum_i w_i g_i)^2 / sum_i w_i g_i^2, where g_i is the incremental weight 
+   *   likelihood^increment, computed relative to the maximum for stability
+   */
+  private static double relativeConditionalESS(double [] normalizedWeights, double [] logLikelihoods, double increment)
+  {
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < logLikelihoods.length; i++)
+      if (normalizedWeights[i] > 0.0)
+        max = Math.max(max, increment * logLikelihoods[i]);
+    double sum = 0.0, sumOfSquares = 0.0;
+    for (int i = 0; i < logLikelihoods.length; i++)
+    {
+      if (normalizedWeights[i] == 0.0)
+        continue;
+      final double incremental = Math.exp(increment * logLikelihoods[i] - max);
+      sum += normalizedWeights[i] * incremental;
+      sumOfSquares += normalizedWeights[i] * incremental * incremental;
+    }
+    return sum * sum / sumOfSquares;
+  }
+  
+  private static double ess(double [] normalizedWeights)
+  {
+    double sumOfSquares = 0.0;
+    for (double weight : normalizedWeights)
+      sumOfSquares += weight * weight;
+    return 1.0 / sumOfSquares;
+  }
+  
+  /**
+   * Applies the MCMC moves to all particles in parallel, updating the provided list and array
+   * 
+   * @param iteration The index of the temperature (for the keyed streams)
+   */
+  private void rejuvenate(final List<P> particles, final double [] logLikelihoods, final double temperature, int iteration)
+  {
+    process(particles.size(), iteration, (particleRandoms, fromIndex, toIndex) ->
+    {
+      final ProposalOutput<P> output = new ProposalOutput<>(logLikelihoods, particles);
+      for (int particleIndex = fromIndex; particleIndex < toIndex; particleIndex++)
+        for (int step = 0; step < temperingOptions.nRejuvenationSteps; step++)
+          problem.rejuvenate(particleRandoms[particleIndex], particles.get(particleIndex), logLikelihoods[particleIndex], 
+              temperature, output.at(particleIndex));
+    });
+  }
+  
+  /**
+   * Processes all particle indices on the worker threads, with randoms or the keyed streams
+   */
+  private void process(int nParticles, int iteration, ParticleStreams.BlockProcessor processor)
+  {
+    if (keyedStreams != null)
+      keyedStreams.process(workers, nParticles, streamSeed, iteration, processor);
+    else
+      workers.process(nParticles, (fromIndex, toIndex) -> processor.process(randoms, fromIndex, toIndex));
+  }
+
+  public TemperedSMCAlgorithm(TemperedProblemSpecification<P> problem, SMCOptions options, TemperingOptions temperingOptions)
+  {
+    this(problem, options, temperingOptions, new WorkerPool(options.nThreads));
+  }
+  
+  /**
+   * @param workers The threads to use, e.g. to share them among several algorithms
+   *   (options.nThreads is then ignored)
+   */
+  public TemperedSMCAlgorithm(TemperedProblemSpecification<P> problem, SMCOptions options, TemperingOptions temperingOptions, 
+      WorkerPool workers)
+  {
+    this.problem = problem;
+    this.options = options;
+    this.temperingOptions = temperingOptions;
+    this.workers = workers;
+    this.keyedStreams = options.randomStreams == RandomStreams.STATEFUL ? null : new ParticleStreams(options.randomStreams);
+    this.randoms = keyedStreams == null ? SMCUtils.particleRandoms(options) : null;
+  }
+}
@@ -0,0 +1,21 @@
+package simplesmc;
+
+import briefj.opt.Option;
+
+
+/**
+ * Command line options for adaptive tempering (see TemperedSMCAlgorithm)
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class TemperingOptions
+{
+  @Option(gloss = "Relative conditional ESS targeted when choosing the next temperature")
+  public double targetConditionalESS = 0.9;
+  
+  @Option(gloss = "Number of rejuvenation moves per particle after each change of temperature")
+  public int nRejuvenationSteps = 1;
+  
+  @Option(gloss = "Maximum number of iterations of the bisection for the next temperature")
+  public int maxBisectionIterations = 100;
+}
@@ -0,0 +1,144 @@
+package simplesmc;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * A long-lived set of worker threads used to process the particles in 
+ * parallel, so that the cost of creating threads is not paid at each 
+ * SMC iteration (or at each SMC run, e.g. in PMCMC).
+ * 
+ * The indices are split into contiguous chunks which are claimed 
+ * dynamically by the workers (and by the calling thread), which 
+ * balances the load. The chunk size adapts to the number of items: 
+ * small populations are processed directly in the calling thread, 
+ * large ones are split in several chunks per thread.
+ * 
+ * Since each particle index has its own random stream, the results 
+ * do not depend on the number of threads nor on the chunking.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class WorkerPool
+{
+  /**
+   * Below this number of items per chunk, the coordination cost 
+   * dominates, so we use fewer chunks (or none)
+   */
+  public static final int MIN_CHUNK_SIZE = 256;
+  
+  /**
+   * Number of chunks per thread, more chunks giving better load balancing
+   */
+  public static final int CHUNKS_PER_THREAD = 4;
+  
+  private final ExecutorService executor;
+  private final int nThreads;
+  
+  /**
+   * A pool that owns its threads (daemon threads, so no need to shut it down).
+   * 
+   * @param nThreads Total number of threads, including the calling thread
+   */
+  public WorkerPool(int nThreads)
+  {
+    this(nThreads > 1 ? new ForkJoinPool(nThreads - 1) : null, nThreads);
+  }
+  
+  /**
+   * A pool running on the provided executor (e.g. a ForkJoinPool shared 
+   * by several algorithms).
+   * 
+   * @param executor 
+   * @param nThreads Maximum number of threads used at once, including the calling thread
+   */
+  public WorkerPool(ExecutorService executor, int nThreads)
+  {
+    if (nThreads < 1)
+      throw new RuntimeException("The number of threads should be positive: " + nThreads);
+    this.executor = executor;
+    this.nThreads = executor == null ? 1 : nThreads;
+  }
+  
+  public int nThreads()
+  {
+    return nThreads;
+  }
+  
+  /**
+   * Process the indices 0, 1, .., nItems-1, returning once they are all processed.
+   */
+  public void process(final int nItems, final BlockProcessor processor)
+  {
+    process(nItems, chunkSize(nItems), processor);
+  }
+  
+  /**
+   * Process the indices 0, 1, .., nItems-1 in chunks of the given size 
+   * (for cases where the chunk boundaries should not depend on the 
+   * number of threads), returning once they are all processed.
+   */
+  public void process(final int nItems, final int chunkSize, final BlockProcessor processor)
+  {
+    if (chunkSize < 1)
+      throw new RuntimeException("The chunk size should be positive: " + chunkSize);
+    final int nChunks = (nItems + chunkSize - 1) / chunkSize;
+    if (nChunks <= 1 || nThreads == 1)
+    {
+      processor.process(0, nItems);
+      return;
+    }
+    
+    final AtomicInteger nextChunk = new AtomicInteger();
+    final CountDownLatch remainingChunks = new CountDownLatch(nChunks);
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    final Runnable worker = () ->
+    {
+      for (int chunk = nextChunk.getAndIncrement(); chunk < nChunks; chunk = nextChunk.getAndIncrement())
+        try 
+        { 
+          processor.process(chunk * chunkSize, Math.min(nItems, (chunk + 1) * chunkSize)); 
+        }
+        catch (Throwable t) 
+        { 
+          error.compareAndSet(null, t); 
+        }
+        finally 
+        { 
+          remainingChunks.countDown(); 
+        }
+    };
+    
+    final int nHelpers = Math.min(nThreads, nChunks) - 1;
+    for (int i = 0; i < nHelpers; i++)
+      executor.execute(worker);
+    worker.run();
+    
+    // we only wait for the chunks, not for the helpers: helpers that have not 
+    // started yet will find no work left (this also avoids dead-locks when 
+    // the calling thread belongs to the executor)
+    try { remainingChunks.await(); }
+    catch (InterruptedException e) { throw new RuntimeException(e); }
+    if (error.get() != null)
+      throw new RuntimeException(error.get());
+  }
+  
+  private int chunkSize(int nItems)
+  {
+    if (nThreads == 1 || nItems < 2 * MIN_CHUNK_SIZE)
+      return Math.max(1, nItems);
+    return Math.max(MIN_CHUNK_SIZE, nItems / (nThreads * CHUNKS_PER_THREAD));
+  }
+  
+  public static interface BlockProcessor
+  {
+    /**
+     * Process the indices fromIndex (inclusive) to toIndex (exclusive)
+     */
+    public void process(int fromIndex, int toIndex);
+  }
+}
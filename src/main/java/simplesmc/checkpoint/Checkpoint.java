@@ -0,0 +1,398 @@
+package simplesmc.checkpoint;
+
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import bayonet.smc.ParticlePopulation;
+import simplesmc.distributed.ParticleCodec;
+
+
+/**
+ * The state of an SMCAlgorithm at the end of an iteration, enough to resume
+ * the run (see SMCAlgorithm.resume()) and obtain the same result as an
+ * uninterrupted run.
+ *
+ * The population is stored through the LOG weights it was built from
+ * rather than its normalized weights, so that the rebuilt population is
+ * identical to the bit.
+ *
+ * File format (big endian): a header (magic, version, iteration, number
+ * of particles, whether the population is equally weighted, logScaling,
+ * seed of the keyed random streams),
+ * the LOG weights (absent when equally weighted), then the size and bytes
+ * of the serialized random streams, then the size and bytes of the
+ * particles written by the ParticleCodec. Files are written and read
+ * through memory mapping; the particles are encoded directly in the
+ * mapped file, after a first pass computing their size.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type (class) of the individual particles
+ */
+public final class Checkpoint<P>
+{
+  private static final int MAGIC = 0x534d4343; // "SMCC"
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 1 + 8 + 8;
+
+  private static final String PREFIX = "checkpoint-";
+  private static final String SUFFIX = ".bin";
+
+  /**
+   * The index of the population (0 for the initial population)
+   */
+  public final int iteration;
+
+  public final List<P> particles;
+
+  /**
+   * The LOG weights passed to ParticlePopulation.buildDestructivelyFromLogWeights(),
+   * or null if the population is equally weighted
+   */
+  private final double [] logWeights;
+
+  /**
+   * The logScaling passed to the ParticlePopulation factory
+   */
+  private final double logScaling;
+
+  /**
+   * The serialized random stream of each particle index followed by SMCOptions.random,
+   * at the end of the iteration (java.util.Random does not expose its state, but its
+   * serialized form contains all of it)
+   */
+  private final byte [] randomState;
+  
+  /**
+   * The seed of the keyed random streams of the run (see SMCOptions.randomStreams), 
+   * or 0 if they are not used
+   */
+  public final long streamSeed;
+
+  /**
+   * @param logWeights The unnormalized LOG weights the population was built from
+   *   (not modified), or null if the population is equally weighted
+   * @param logScaling The logScaling the population was built from
+   * @param particleRandoms The random stream of each particle index (their current state is copied)
+   * @param random SMCOptions.random (its current state is copied)
+   * @param streamSeed See streamSeed
+   */
+  public Checkpoint(int iteration, List<P> particles, double [] logWeights, double logScaling,
+      Random [] particleRandoms, Random random, long streamSeed)
+  {
+    this(iteration, particles, logWeights, logScaling, serialize(particleRandoms, random), streamSeed);
+  }
+
+  private Checkpoint(int iteration, List<P> particles, double [] logWeights, double logScaling, byte [] randomState, 
+      long streamSeed)
+  {
+    if (logWeights != null && logWeights.length != particles.size())
+      throw new RuntimeException("There should be one LOG weight per particle: " + logWeights.length + " for " + particles.size());
+    this.iteration = iteration;
+    this.particles = particles;
+    this.logWeights = logWeights;
+    this.logScaling = logScaling;
+    this.randomState = randomState;
+    this.streamSeed = streamSeed;
+  }
+
+  /**
+   * @return New copies of the random stream of each particle index, in their checkpointed state
+   */
+  public Random [] particleRandoms()
+  {
+    return (Random []) deserialize()[0];
+  }
+
+  /**
+   * @return A new copy of SMCOptions.random, in its checkpointed state
+   */
+  public Random random()
+  {
+    return (Random) deserialize()[1];
+  }
+
+  /**
+   * @return A new population, identical to the one checkpointed
+   */
+  public ParticlePopulation<P> population()
+  {
+    List<P> copy = new ArrayList<>(particles);
+    return logWeights == null ?
+      ParticlePopulation.buildEquallyWeighted(copy, logScaling) :
+      ParticlePopulation.buildDestructivelyFromLogWeights(logWeights.clone(), copy, logScaling);
+  }
+
+  /**
+   * @return A copy of the LOG weights the population was built from, or null if it 
+   *   is equally weighted
+   */
+  public double [] logWeights()
+  {
+    return logWeights == null ? null : logWeights.clone();
+  }
+
+  /**
+   * @return The logScaling the population was built from
+   */
+  public double logScaling()
+  {
+    return logScaling;
+  }
+
+  public int nParticles()
+  {
+    return particles.size();
+  }
+
+  /**
+   * Writes to a temporary file first, moved to the destination once complete, so
+   * that an interrupted write never corrupts an existing checkpoint.
+   */
+  public void write(File file, ParticleCodec<P> codec)
+  {
+    try
+    {
+      // first pass: the size of the encoded particles, without keeping them
+      ByteCounter counter = new ByteCounter();
+      DataOutputStream countingOutput = new DataOutputStream(counter);
+      for (P particle : particles)
+        codec.encode(particle, countingOutput);
+      countingOutput.flush();
+      if (counter.count > Integer.MAX_VALUE)
+        throw new RuntimeException("The encoded particles are too large for a checkpoint: " + counter.count + " bytes");
+      final int particlesSize = (int) counter.count;
+
+      final long size = HEADER_SIZE +
+          (logWeights == null ? 0L : 8L * logWeights.length) +
+          4L + randomState.length +
+          4L + particlesSize;
+
+      File temporary = new File(file.getPath() + ".tmp");
+      try (FileChannel channel = FileChannel.open(temporary.toPath(),
+          StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+          StandardOpenOption.READ, StandardOpenOption.WRITE))
+      {
+        MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(iteration);
+        buffer.putInt(particles.size());
+        buffer.put((byte) (logWeights == null ? 1 : 0));
+        buffer.putDouble(logScaling);
+        buffer.putLong(streamSeed);
+        if (logWeights != null)
+          buffer.asDoubleBuffer().put(logWeights);
+        buffer.position(buffer.position() + (logWeights == null ? 0 : 8 * logWeights.length));
+        buffer.putInt(randomState.length);
+        buffer.put(randomState);
+        buffer.putInt(particlesSize);
+        DataOutputStream particleOutput = new DataOutputStream(new BufferedOutputStream(new ByteBufferOutputStream(buffer)));
+        for (P particle : particles)
+          codec.encode(particle, particleOutput);
+        particleOutput.flush();
+        if (buffer.position() != size)
+          throw new RuntimeException("The codec wrote a different number of bytes in the second pass");
+        buffer.force();
+      }
+      Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public static <P> Checkpoint<P> read(File file, ParticleCodec<P> codec)
+  {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+    {
+      MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != MAGIC)
+        throw new RuntimeException("Not a checkpoint: " + file);
+      final int version = buffer.getInt();
+      if (version != VERSION)
+        throw new RuntimeException("Unsupported checkpoint version: " + version);
+      final int iteration = buffer.getInt();
+      final int nParticles = buffer.getInt();
+      final boolean equallyWeighted = buffer.get() != 0;
+      final double logScaling = buffer.getDouble();
+      final long streamSeed = buffer.getLong();
+      double [] logWeights = null;
+      if (!equallyWeighted)
+      {
+        logWeights = new double[nParticles];
+        buffer.asDoubleBuffer().get(logWeights);
+        buffer.position(buffer.position() + 8 * nParticles);
+      }
+      byte [] randomState = new byte[buffer.getInt()];
+      buffer.get(randomState);
+      final int particlesSize = buffer.getInt();
+      ByteBuffer particleBytes = buffer.slice();
+      particleBytes.limit(particlesSize);
+      DataInputStream particleInput = new DataInputStream(new ByteBufferInputStream(particleBytes));
+      List<P> particles = new ArrayList<>(nParticles);
+      for (int i = 0; i < nParticles; i++)
+        particles.add(codec.decode(particleInput));
+      return new Checkpoint<>(iteration, particles, logWeights, logScaling, randomState, streamSeed);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return The file used by SMCAlgorithm for the checkpoint of the given iteration
+   */
+  public static File file(File directory, int iteration)
+  {
+    return new File(directory, PREFIX + iteration + SUFFIX);
+  }
+
+  /**
+   * @return The iterations of the checkpoints found in the directory, in increasing order
+   */
+  public static List<Integer> iterations(File directory)
+  {
+    List<Integer> result = new ArrayList<>();
+    File [] files = directory.listFiles();
+    if (files != null)
+      for (File file : files)
+      {
+        String name = file.getName();
+        if (name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+          try
+          {
+            result.add(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+          }
+          catch (NumberFormatException e) {}
+      }
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * @return The checkpoint with the largest iteration in the directory, or null if there is none
+   */
+  public static <P> Checkpoint<P> latest(File directory, ParticleCodec<P> codec)
+  {
+    List<Integer> iterations = iterations(directory);
+    return iterations.isEmpty() ? null : read(file(directory, iterations.get(iterations.size() - 1)), codec);
+  }
+
+  private static byte [] serialize(Random [] particleRandoms, Random random)
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes))
+    {
+      output.writeObject(particleRandoms);
+      output.writeObject(random);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private Object [] deserialize()
+  {
+    try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(randomState)))
+    {
+      return new Object[]{input.readObject(), input.readObject()};
+    }
+    catch (IOException | ClassNotFoundException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Counts the bytes written, and discards them
+   */
+  private static final class ByteCounter extends OutputStream
+  {
+    private long count = 0L;
+
+    @Override
+    public void write(int b)
+    {
+      count++;
+    }
+
+    @Override
+    public void write(byte [] bytes, int offset, int length)
+    {
+      count += length;
+    }
+  }
+
+  private static final class ByteBufferOutputStream extends OutputStream
+  {
+    private final ByteBuffer buffer;
+
+    private ByteBufferOutputStream(ByteBuffer buffer)
+    {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b)
+    {
+      buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte [] bytes, int offset, int length)
+    {
+      buffer.put(bytes, offset, length);
+    }
+  }
+
+  private static final class ByteBufferInputStream extends InputStream
+  {
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer)
+    {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read()
+    {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte [] bytes, int offset, int length)
+    {
+      if (!buffer.hasRemaining())
+        return -1;
+      length = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, length);
+      return length;
+    }
+  }
+}
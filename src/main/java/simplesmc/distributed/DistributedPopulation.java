@@ -0,0 +1,84 @@
+package simplesmc.distributed;
+
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * The part of a particle population held by one node of a distributed SMC 
+ * algorithm: the particles with indices firstIndex, firstIndex + 1, ..., 
+ * with their weights normalized over the whole population.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type (class) of the individual particles
+ */
+public class DistributedPopulation<P>
+{
+  public final List<P> particles;
+  
+  /**
+   * Index of the first local particle in the whole population
+   */
+  public final int firstIndex;
+  
+  /**
+   * Number of particles in the whole population
+   */
+  public final int nParticles;
+  
+  /**
+   * See bayonet.smc.ParticlePopulation
+   */
+  public final double logScaling;
+  
+  private final double [] normalizedWeights;
+  
+  /**
+   * The total normalized weight of the particles of each node
+   */
+  final double [] nodeWeights;
+  
+  private final double relativeESS;
+  
+  /**
+   * @param localIndex The index of the particle in particles
+   */
+  public double getNormalizedWeight(int localIndex)
+  {
+    return normalizedWeights[localIndex];
+  }
+  
+  /**
+   * @return The LOG of the estimate of the normalization, the same on all nodes
+   */
+  public double logNormEstimate()
+  {
+    return logScaling - Math.log(nParticles);
+  }
+  
+  /**
+   * @return The ESS of the whole population, divided by nParticles
+   */
+  public double getRelativeESS()
+  {
+    return relativeESS;
+  }
+  
+  public int nLocalParticles()
+  {
+    return particles.size();
+  }
+  
+  DistributedPopulation(List<P> particles, int firstIndex, int nParticles, double logScaling, 
+      double [] normalizedWeights, double [] nodeWeights, double relativeESS)
+  {
+    this.particles = Collections.unmodifiableList(particles);
+    this.firstIndex = firstIndex;
+    this.nParticles = nParticles;
+    this.logScaling = logScaling;
+    this.normalizedWeights = normalizedWeights;
+    this.nodeWeights = nodeWeights;
+    this.relativeESS = relativeESS;
+  }
+}
@@ -0,0 +1,429 @@
+package simplesmc.distributed;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import simplesmc.InPlaceProblemSpecification;
+import simplesmc.ProblemSpecification;
+import simplesmc.SMCOptions;
+import simplesmc.WorkerPool;
+import simplesmc.random.ParticleStreams;
+import simplesmc.random.RandomStreams;
+import bayonet.smc.ParticlePopulation;
+
+
+/**
+ * An SMC algorithm where the population is split across several nodes (e.g. 
+ * JVMs on one or more hosts), to go beyond the particle counts allowed by 
+ * the heap of a single JVM. Each node runs its own instance, with the same 
+ * options (in particular, the same seed), and holds a contiguous range of 
+ * particle indices.
+ * 
+ * Proposals are local (and multi-threaded within each node). For the weights 
+ * and resampling decisions, the nodes only exchange a summary of their 
+ * weights (maximum, sum and sum of squares). After resampling, the node of 
+ * each ancestor is determined from these summaries and the sorted cumulative 
+ * probabilities (generated identically on all nodes), and particles are only 
+ * sent (through the ParticleCodec) when their offspring belong to another node.
+ * 
+ * Since each particle index has the same random stream as in SMCAlgorithm (for 
+ * the keyed streams of options.randomStreams, the stream of a local particle is 
+ * keyed by its index in the whole population), 
+ * and resampling matches cumulative weights against the same sorted 
+ * probabilities, the result is the same as SMCAlgorithm's with the same 
+ * options, up to the rounding of the weights' normalization.
+ * 
+ * Note: each node holds the sorted cumulative probabilities of the whole 
+ * population (one double per particle) while resampling.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type (class) of the individual particles
+ */
+public class DistributedSMCAlgorithm<P>
+{
+  public final ProblemSpecification<P> proposal;
+  private final SMCOptions options;
+  private final InPlaceProblemSpecification<P> kernel;
+  private final Transport transport;
+  private final ParticleCodec<P> codec;
+  private final WorkerPool workers;
+  
+  /**
+   * The range of particle indices of node k is firstIndices[k], ..., firstIndices[k+1] - 1
+   */
+  private final int [] firstIndices;
+  
+  private final int nLocalParticles;
+  
+  /**
+   * The random streams of the local particles, see SMCAlgorithm
+   */
+  private final Random [] randoms;
+  
+  /**
+   * Used instead of randoms (which is then null) when options.randomStreams is not 
+   * STATEFUL; streamSeed is drawn at the beginning of each run, as in SMCAlgorithm
+   */
+  private final ParticleStreams keyedStreams;
+  private long streamSeed;
+  
+  /**
+   * Compute the SMC algorithm. Should be called on all nodes at the same time.
+   * 
+   * @return The local part of the particle population at the last step
+   */
+  public DistributedPopulation<P> sample()
+  {
+    if (keyedStreams != null)
+      streamSeed = options.random.nextLong();
+    DistributedPopulation<P> currentPopulation = propose(null, 0);
+    
+    int nSMCIterations = proposal.nIterations();
+    
+    for (int currentIteration = 0; currentIteration < nSMCIterations - 1; currentIteration++)
+    {
+      currentPopulation = propose(currentPopulation, currentIteration);
+      if (currentPopulation.getRelativeESS() < options.essThreshold &&
+          currentIteration < nSMCIterations - 2)
+        currentPopulation = resample(currentPopulation);
+    }
+    
+    return currentPopulation;
+  }
+  
+  /**
+   * Collects the whole population on node 0. Should be called on all nodes at the same time.
+   * 
+   * @return The whole population on node 0, null on the other nodes
+   */
+  public ParticlePopulation<P> gather(DistributedPopulation<P> population)
+  {
+    if (transport.rank() != 0)
+    {
+      transport.send(0, encode(population.particles, 0, population.nLocalParticles(), population));
+      return null;
+    }
+    final List<P> particles = new ArrayList<>(population.particles);
+    final double [] logWeights = new double[population.nParticles];
+    for (int i = 0; i < population.nLocalParticles(); i++)
+      logWeights[i] = Math.log(population.getNormalizedWeight(i));
+    for (int node = 1; node < transport.nNodes(); node++)
+    {
+      final DataInputStream input = input(transport.receive(node));
+      try
+      {
+        for (int i = firstIndices[node]; i < firstIndices[node + 1]; i++)
+        {
+          logWeights[i] = input.readDouble();
+          particles.add(codec.decode(input));
+        }
+      } 
+      catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+    }
+    return ParticlePopulation.buildDestructivelyFromLogWeights(logWeights, particles, population.logScaling);
+  }
+  
+  /**
+   * See SMCAlgorithm.propose(); the weights are normalized using the summaries of all nodes.
+   */
+  private DistributedPopulation<P> propose(final DistributedPopulation<P> currentPopulation, final int currentIteration)
+  {
+    final boolean isInitial = currentPopulation == null;
+    final double [] logWeights = new double[nLocalParticles];
+    @SuppressWarnings("unchecked")
+    final P [] particles = (P[]) new Object[nLocalParticles];
+    final List<P> proposedParticles = Arrays.asList(particles);
+    
+    final ParticleStreams.BlockProcessor proposeBlock = (particleRandoms, fromIndex, toIndex) ->
+    {
+      kernel.proposeBatch(currentIteration, particleRandoms, isInitial ? null : currentPopulation.particles, 
+          fromIndex, toIndex, logWeights, proposedParticles);
+      if (!isInitial)
+        for (int particleIndex = fromIndex; particleIndex < toIndex; particleIndex++)
+          logWeights[particleIndex] += Math.log(currentPopulation.getNormalizedWeight(particleIndex));
+    };
+    if (keyedStreams != null)
+      keyedStreams.process(workers, firstIndex(), nLocalParticles, streamSeed, isInitial ? 0 : currentIteration + 1, 
+          proposeBlock);
+    else
+      workers.process(nLocalParticles, (fromIndex, toIndex) -> proposeBlock.process(randoms, fromIndex, toIndex));
+    
+    // summary of the local weights: maximum, and sums of the weights and of their squares relative to it
+    double localMax = Double.NEGATIVE_INFINITY;
+    for (double logWeight : logWeights)
+      localMax = Math.max(localMax, logWeight);
+    // (the sums are zero if all the local weights are zero, as exp(-inf - -inf) is NaN)
+    double localSum = 0.0, localSumOfSquares = 0.0;
+    if (localMax != Double.NEGATIVE_INFINITY)
+      for (double logWeight : logWeights)
+      {
+        final double weight = Math.exp(logWeight - localMax);
+        localSum += weight;
+        localSumOfSquares += weight * weight;
+      }
+    final double [][] summaries = allGather(localMax, localSum, localSumOfSquares);
+    
+    double max = Double.NEGATIVE_INFINITY;
+    for (double [] summary : summaries)
+      max = Math.max(max, summary[0]);
+    if (max == Double.NEGATIVE_INFINITY)
+      throw new RuntimeException("All the particles have zero weight");
+    final double [] nodeWeights = new double[summaries.length];
+    double sum = 0.0, sumOfSquares = 0.0;
+    for (int node = 0; node < summaries.length; node++)
+    {
+      if (summaries[node][0] == Double.NEGATIVE_INFINITY)
+        continue;
+      final double factor = Math.exp(summaries[node][0] - max);
+      nodeWeights[node] = summaries[node][1] * factor;
+      sum += nodeWeights[node];
+      sumOfSquares += summaries[node][2] * factor * factor;
+    }
+    for (int node = 0; node < summaries.length; node++)
+      nodeWeights[node] /= sum;
+    
+    for (int i = 0; i < nLocalParticles; i++)
+      logWeights[i] = Math.exp(logWeights[i] - max) / sum;
+    final int nParticles = options.nParticles;
+    return new DistributedPopulation<>(
+        proposedParticles, 
+        firstIndex(), 
+        nParticles, 
+        (isInitial ? 0.0 : currentPopulation.logScaling) + max + Math.log(sum), 
+        logWeights, 
+        nodeWeights, 
+        sum * sum / sumOfSquares / nParticles);
+  }
+  
+  /**
+   * Resamples the whole population: the resampled particle j is the offspring of the first 
+   * particle whose cumulative weight reaches the j-th sorted cumulative probability (as in 
+   * simplesmc.resampling.Resampling), and belongs to the node holding index j.
+   */
+  private DistributedPopulation<P> resample(final DistributedPopulation<P> population)
+  {
+    final int nParticles = options.nParticles, nNodes = transport.nNodes(), rank = transport.rank();
+    final double [] sortedCumulativeProbabilities = options.resamplingScheme.getSortedCumulativeProbabilities(options.random, nParticles);
+    
+    // the resampled particles whose ancestors are in node k are offspringStarts[k], ..., offspringStarts[k+1] - 1
+    final int [] offspringStarts = new int[nNodes + 1];
+    double cumulativeNodeWeight = 0.0;
+    for (int node = 1; node < nNodes; node++)
+    {
+      cumulativeNodeWeight += population.nodeWeights[node - 1];
+      int start = offspringStarts[node - 1];
+      while (start < nParticles && sortedCumulativeProbabilities[start] <= cumulativeNodeWeight)
+        start++;
+      offspringStarts[node] = start;
+    }
+    offspringStarts[nNodes] = nParticles;
+    
+    // ancestors of the offspring of the local particles
+    final int offspringStart = offspringStarts[rank], offspringEnd = offspringStarts[rank + 1];
+    final int [] ancestors = new int[offspringEnd - offspringStart];
+    double cumulativeWeight = 0.0;
+    for (int node = 0; node < rank; node++)
+      cumulativeWeight += population.nodeWeights[node];
+    int ancestor = 0;
+    if (ancestors.length > 0)
+      cumulativeWeight += population.getNormalizedWeight(0);
+    for (int j = offspringStart; j < offspringEnd; j++)
+    {
+      while (ancestor < population.nLocalParticles() - 1 && cumulativeWeight < sortedCumulativeProbabilities[j])
+        cumulativeWeight += population.getNormalizedWeight(++ancestor);
+      ancestors[j - offspringStart] = ancestor;
+    }
+    
+    // send the offspring belonging to other nodes, then collect those of this node
+    @SuppressWarnings("unchecked")
+    final P [] resampled = (P[]) new Object[nLocalParticles];
+    for (int node = 0; node < nNodes; node++)
+    {
+      final int from = Math.max(offspringStart, firstIndices[node]), to = Math.min(offspringEnd, firstIndices[node + 1]);
+      if (from >= to)
+        continue;
+      if (node == rank)
+        for (int j = from; j < to; j++)
+          resampled[j - firstIndex()] = population.particles.get(ancestors[j - offspringStart]);
+      else
+        transport.send(node, encodeRuns(population, ancestors, from - offspringStart, to - offspringStart));
+    }
+    for (int node = 0; node < nNodes; node++)
+    {
+      final int from = Math.max(offspringStarts[node], firstIndex()), to = Math.min(offspringStarts[node + 1], firstIndices[rank + 1]);
+      if (node == rank || from >= to)
+        continue;
+      decodeRuns(transport.receive(node), resampled, from - firstIndex(), to - firstIndex());
+    }
+    
+    final double [] normalizedWeights = new double[nLocalParticles];
+    Arrays.fill(normalizedWeights, 1.0 / nParticles);
+    final double [] nodeWeights = new double[nNodes];
+    for (int node = 0; node < nNodes; node++)
+      nodeWeights[node] = ((double) (firstIndices[node + 1] - firstIndices[node])) / nParticles;
+    return new DistributedPopulation<>(Arrays.asList(resampled), firstIndex(), nParticles, population.logScaling, 
+        normalizedWeights, nodeWeights, 1.0);
+  }
+  
+  /**
+   * Each distinct ancestor is sent once, with its number of consecutive offspring
+   */
+  private byte [] encodeRuns(DistributedPopulation<P> population, int [] ancestors, int from, int to)
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream output = new DataOutputStream(bytes);
+    try
+    {
+      int runStart = from;
+      for (int i = from + 1; i <= to; i++)
+        if (i == to || ancestors[i] != ancestors[runStart])
+        {
+          output.writeInt(i - runStart);
+          codec.encode(population.particles.get(ancestors[runStart]), output);
+          runStart = i;
+        }
+      output.flush();
+    } 
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+    return bytes.toByteArray();
+  }
+  
+  private void decodeRuns(byte [] message, P [] resampled, int from, int to)
+  {
+    final DataInputStream input = input(message);
+    try
+    {
+      for (int i = from; i < to; )
+      {
+        final int multiplicity = input.readInt();
+        final P particle = codec.decode(input);
+        for (int copy = 0; copy < multiplicity; copy++)
+          resampled[i++] = particle;
+      }
+    } 
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  private byte [] encode(List<P> particles, int from, int to, DistributedPopulation<P> population)
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream output = new DataOutputStream(bytes);
+    try
+    {
+      for (int i = from; i < to; i++)
+      {
+        output.writeDouble(Math.log(population.getNormalizedWeight(i)));
+        codec.encode(particles.get(i), output);
+      }
+      output.flush();
+    } 
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+    return bytes.toByteArray();
+  }
+  
+  /**
+   * @return The values provided by each node, indexed by rank
+   */
+  private double [][] allGather(double ... values)
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream output = new DataOutputStream(bytes);
+    try
+    {
+      for (double value : values)
+        output.writeDouble(value);
+      output.flush();
+      final byte [] message = bytes.toByteArray();
+      final int rank = transport.rank();
+      for (int node = 0; node < transport.nNodes(); node++)
+        if (node != rank)
+          transport.send(node, message);
+      final double [][] result = new double[transport.nNodes()][];
+      for (int node = 0; node < transport.nNodes(); node++)
+      {
+        if (node == rank)
+        {
+          result[node] = values;
+          continue;
+        }
+        final DataInputStream input = input(transport.receive(node));
+        result[node] = new double[values.length];
+        for (int i = 0; i < values.length; i++)
+          result[node][i] = input.readDouble();
+      }
+      return result;
+    } 
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  private static DataInputStream input(byte [] message)
+  {
+    return new DataInputStream(new ByteArrayInputStream(message));
+  }
+  
+  private int firstIndex()
+  {
+    return firstIndices[transport.rank()];
+  }
+  
+  /**
+   * @param options The same on all nodes; nParticles is the size of the whole population, 
+   *   and nThreads, the number of threads of this node (randomStreams is honored as in 
+   *   SMCAlgorithm)
+   * @param transport Connects this node to the others
+   * @param codec Used to move particles between nodes
+   */
+  public DistributedSMCAlgorithm(ProblemSpecification<P> proposal, SMCOptions options, Transport transport, ParticleCodec<P> codec)
+  {
+    final int nNodes = transport.nNodes();
+    if (options.nParticles < nNodes)
+      throw new RuntimeException("There should be at least one particle per node");
+    this.proposal = proposal;
+    this.kernel = InPlaceProblemSpecification.adapt(proposal);
+    this.options = options;
+    this.transport = transport;
+    this.codec = codec;
+    this.workers = new WorkerPool(options.nThreads);
+    this.firstIndices = new int[nNodes + 1];
+    for (int node = 0; node <= nNodes; node++)
+      firstIndices[node] = (int) ((long) options.nParticles * node / nNodes);
+    
+    this.nLocalParticles = firstIndices[transport.rank() + 1] - firstIndex();
+    
+    // same streams as in SMCAlgorithm, skipping those of the other nodes
+    SplittableRandom splitRandom = new SplittableRandom(options.random.nextLong());
+    this.keyedStreams = options.randomStreams == RandomStreams.STATEFUL ? null : new ParticleStreams(options.randomStreams);
+    this.randoms = keyedStreams == null ? new Random[nLocalParticles] : null;
+    if (keyedStreams == null)
+      for (int i = 0; i < firstIndices[transport.rank() + 1]; i++)
+      {
+        final long seed = splitRandom.split().nextLong();
+        if (i >= firstIndex())
+          randoms[i - firstIndex()] = new Random(seed);
+      }
+  }
+}
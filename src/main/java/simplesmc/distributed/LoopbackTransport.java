@@ -0,0 +1,83 @@
+package simplesmc.distributed;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+
+/**
+ * Nodes living in the same JVM (e.g. in different threads), exchanging messages
+ * through queues. Used for tests, and as a reference for other transports.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class LoopbackTransport implements Transport
+{
+  private final int rank;
+  
+  /**
+   * Indexed by source, then destination
+   */
+  private final List<List<BlockingQueue<byte[]>>> queues;
+  
+  /**
+   * @return The transports of nNodes nodes connected to each other, indexed by rank
+   */
+  public static List<Transport> create(int nNodes)
+  {
+    final List<List<BlockingQueue<byte[]>>> queues = new ArrayList<>();
+    for (int source = 0; source < nNodes; source++)
+    {
+      List<BlockingQueue<byte[]>> fromSource = new ArrayList<>();
+      for (int destination = 0; destination < nNodes; destination++)
+        fromSource.add(new LinkedBlockingQueue<>());
+      queues.add(fromSource);
+    }
+    final List<Transport> result = new ArrayList<>();
+    for (int rank = 0; rank < nNodes; rank++)
+      result.add(new LoopbackTransport(rank, queues));
+    return result;
+  }
+
+  @Override
+  public int rank()
+  {
+    return rank;
+  }
+
+  @Override
+  public int nNodes()
+  {
+    return queues.size();
+  }
+
+  @Override
+  public void send(int destination, byte [] message)
+  {
+    queues.get(rank).get(destination).add(message);
+  }
+
+  @Override
+  public byte [] receive(int source)
+  {
+    try
+    {
+      return queues.get(source).get(rank).take();
+    } 
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void close() {}
+  
+  private LoopbackTransport(int rank, List<List<BlockingQueue<byte[]>>> queues)
+  {
+    this.rank = rank;
+    this.queues = queues;
+  }
+}
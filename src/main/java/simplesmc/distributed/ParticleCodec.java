@@ -0,0 +1,41 @@
+package simplesmc.distributed;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+/**
+ * Serializes particles, to move them between nodes (see DistributedSMCAlgorithm).
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type (class) of the individual particles
+ */
+public interface ParticleCodec<P>
+{
+  public void encode(P particle, DataOutput output) throws IOException;
+  
+  public P decode(DataInput input) throws IOException;
+  
+  /**
+   * A codec for integer particles, e.g. the states of an HMM
+   */
+  public static ParticleCodec<Integer> integers()
+  {
+    return new ParticleCodec<Integer>() 
+    {
+      @Override
+      public void encode(Integer particle, DataOutput output) throws IOException
+      {
+        output.writeInt(particle);
+      }
+
+      @Override
+      public Integer decode(DataInput input) throws IOException
+      {
+        return input.readInt();
+      }
+    };
+  }
+}
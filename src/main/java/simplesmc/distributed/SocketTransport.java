@@ -0,0 +1,203 @@
+package simplesmc.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+
+/**
+ * Nodes connected by TCP sockets, typically one per JVM, on one or more hosts.
+ * 
+ * Each node listens on the port of its own address, connects to the nodes of 
+ * lower rank and accepts the connections of the nodes of higher rank. Each 
+ * connection has a thread reading the incoming messages, so that sending never 
+ * waits for the destination to receive.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class SocketTransport implements Transport
+{
+  /**
+   * Time given to the other nodes to start listening
+   */
+  public static final long CONNECTION_TIMEOUT_MILLIS = 60_000;
+  
+  private static final byte [] CLOSED = new byte[0];
+  
+  private final int rank;
+  private final ServerSocket server;
+  
+  /**
+   * Indexed by the rank of the other node (null for this node)
+   */
+  private final List<Socket> sockets = new ArrayList<>();
+  private final List<DataOutputStream> outputs = new ArrayList<>();
+  private final List<BlockingQueue<byte[]>> received = new ArrayList<>();
+  
+  /**
+   * Blocks until all the nodes are connected.
+   * 
+   * @param rank The index of this node in addresses
+   * @param addresses The address of each node
+   */
+  public SocketTransport(int rank, List<InetSocketAddress> addresses)
+  {
+    this.rank = rank;
+    final int nNodes = addresses.size();
+    for (int node = 0; node < nNodes; node++)
+    {
+      sockets.add(null);
+      outputs.add(null);
+      received.add(new LinkedBlockingQueue<>());
+    }
+    try
+    {
+      server = new ServerSocket(addresses.get(rank).getPort());
+      for (int node = 0; node < rank; node++)
+      {
+        Socket socket = connect(addresses.get(node));
+        new DataOutputStream(socket.getOutputStream()).writeInt(rank);
+        register(node, socket);
+      }
+      for (int i = rank + 1; i < nNodes; i++)
+      {
+        Socket socket = server.accept();
+        register(new DataInputStream(socket.getInputStream()).readInt(), socket);
+      }
+    }
+    catch (IOException e)
+    {
+      close();
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public int rank()
+  {
+    return rank;
+  }
+
+  @Override
+  public int nNodes()
+  {
+    return sockets.size();
+  }
+
+  @Override
+  public void send(int destination, byte [] message)
+  {
+    final DataOutputStream output = outputs.get(destination);
+    synchronized (output)
+    {
+      try
+      {
+        output.writeInt(message.length);
+        output.write(message);
+        output.flush();
+      } 
+      catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  @Override
+  public byte [] receive(int source)
+  {
+    final byte [] result;
+    try
+    {
+      result = received.get(source).take();
+    } 
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    if (result == CLOSED)
+      throw new RuntimeException("The connection with node " + source + " was closed");
+    return result;
+  }
+
+  @Override
+  public void close()
+  {
+    try
+    {
+      for (Socket socket : sockets)
+        if (socket != null)
+          socket.close();
+      if (server != null)
+        server.close();
+    } 
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  private static Socket connect(InetSocketAddress address) throws IOException
+  {
+    final long deadline = System.currentTimeMillis() + CONNECTION_TIMEOUT_MILLIS;
+    while (true)
+    {
+      try
+      {
+        return new Socket(address.getHostString(), address.getPort());
+      }
+      catch (IOException e)
+      {
+        // the other node might not be listening yet
+        if (System.currentTimeMillis() > deadline)
+          throw e;
+        try
+        {
+          Thread.sleep(100);
+        } 
+        catch (InterruptedException ie)
+        {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(ie);
+        }
+      }
+    }
+  }
+  
+  private void register(final int node, Socket socket) throws IOException
+  {
+    socket.setTcpNoDelay(true);
+    sockets.set(node, socket);
+    outputs.set(node, new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+    final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    final BlockingQueue<byte[]> queue = received.get(node);
+    Thread reader = new Thread(() ->
+    {
+      try
+      {
+        while (true)
+        {
+          final byte [] message = new byte[input.readInt()];
+          input.readFully(message);
+          queue.add(message);
+        }
+      }
+      catch (IOException e)
+      {
+        queue.add(CLOSED);
+      }
+    }, "SocketTransport-" + rank + "-from-" + node);
+    reader.setDaemon(true);
+    reader.start();
+  }
+}
@@ -0,0 +1,35 @@
+package simplesmc.distributed;
+
+import java.io.Closeable;
+
+
+/**
+ * Point to point messages between the nodes of a distributed SMC algorithm 
+ * (see DistributedSMCAlgorithm), each identified by its rank in 0, 1, ..., 
+ * nNodes() - 1.
+ * 
+ * Messages between a given pair of nodes are delivered in order. Sending 
+ * should not block until the message is received, since all nodes send 
+ * before receiving.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public interface Transport extends Closeable
+{
+  /**
+   * @return The index of this node
+   */
+  public int rank();
+  
+  public int nNodes();
+  
+  public void send(int destination, byte [] message);
+  
+  /**
+   * Blocks until the next message from the provided node is available.
+   */
+  public byte [] receive(int source);
+  
+  @Override
+  public void close();
+}
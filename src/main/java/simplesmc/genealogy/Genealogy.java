@@ -0,0 +1,145 @@
+package simplesmc.genealogy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import bayonet.smc.ParticlePopulation;
+
+
+/**
+ * Records the ancestry of the particles of an SMC algorithm, so that full 
+ * trajectories can be extracted from the final population without storing 
+ * the whole path inside each particle.
+ * 
+ * The paths are stored as a tree where each node only points to its parent.
+ * Branches that have no descendant in the current generation are therefore
+ * no longer referenced and are freed by the garbage collector. Since the 
+ * genealogy of a resampled population coalesces quickly, the memory 
+ * used in practice is close to O(T + N log N) rather than O(N T), where 
+ * T is the number of iterations and N, the number of particles.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type (class) of the individual particles
+ */
+public class Genealogy<P>
+{
+  private Node<P> [] currentGeneration = null;
+  private int nGenerations = 0;
+  
+  /**
+   * Starts a new genealogy from the particles of the zeroth iteration.
+   */
+  public void initialize(List<P> particles)
+  {
+    currentGeneration = newGeneration(particles.size());
+    for (int i = 0; i < particles.size(); i++)
+      currentGeneration[i] = new Node<>(particles.get(i), null);
+    nGenerations = 1;
+  }
+  
+  /**
+   * Adds a generation where the particle at index i was proposed from the 
+   * particle at index i of the current generation.
+   */
+  public void extend(List<P> proposedParticles)
+  {
+    if (currentGeneration == null)
+      throw new RuntimeException("The genealogy should be initialized first");
+    if (proposedParticles.size() != currentGeneration.length)
+      throw new RuntimeException();
+    final Node<P> [] nextGeneration = newGeneration(currentGeneration.length);
+    for (int i = 0; i < currentGeneration.length; i++)
+      nextGeneration[i] = new Node<>(proposedParticles.get(i), currentGeneration[i]);
+    currentGeneration = nextGeneration;
+    nGenerations++;
+  }
+  
+  /**
+   * Records a resampling step (which does not add a generation).
+   * 
+   * @param ancestors For each resampled particle, the index of its ancestor in the current generation
+   */
+  public void resample(int [] ancestors)
+  {
+    final Node<P> [] resampled = newGeneration(ancestors.length);
+    for (int i = 0; i < ancestors.length; i++)
+      resampled[i] = currentGeneration[ancestors[i]];
+    currentGeneration = resampled;
+  }
+  
+  /**
+   * @return The path of particles leading to the particle at the provided index 
+   *   of the current generation, ordered from the zeroth iteration to the last
+   */
+  public List<P> trajectory(int particleIndex)
+  {
+    final List<P> result = new ArrayList<>(nGenerations);
+    for (Node<P> node = currentGeneration[particleIndex]; node != null; node = node.parent)
+      result.add(node.particle);
+    Collections.reverse(result);
+    return result;
+  }
+  
+  /**
+   * @param population The population of the current generation, used for the weights
+   * @return A trajectory sampled proportionally to the weights of its last particle
+   */
+  public List<P> sampleTrajectory(Random random, ParticlePopulation<P> population)
+  {
+    final double uniform = random.nextDouble();
+    double sum = 0.0;
+    for (int i = 0; i < population.nParticles(); i++)
+    {
+      sum += population.getNormalizedWeight(i);
+      if (uniform < sum)
+        return trajectory(i);
+    }
+    return trajectory(population.nParticles() - 1);
+  }
+  
+  /**
+   * @return The number of generations (iterations) recorded so far
+   */
+  public int nGenerations()
+  {
+    return nGenerations;
+  }
+  
+  /**
+   * Walks the tree, so this costs time proportional to the number of nodes.
+   * 
+   * @return The number of nodes still reachable from the current generation, i.e. not 
+   *   freed yet
+   */
+  public int nReachableNodes()
+  {
+    final Map<Node<P>, Boolean> visited = new IdentityHashMap<>();
+    for (Node<P> leaf : currentGeneration)
+      for (Node<P> node = leaf; node != null && !visited.containsKey(node); node = node.parent)
+        visited.put(node, true);
+    return visited.size();
+  }
+  
+  @SuppressWarnings("unchecked")
+  private static <P> Node<P> [] newGeneration(int size)
+  {
+    return new Node[size];
+  }
+  
+  private static final class Node<P>
+  {
+    private final P particle;
+    private final Node<P> parent;
+    
+    private Node(P particle, Node<P> parent)
+    {
+      this.particle = particle;
+      this.parent = parent;
+    }
+  }
+}
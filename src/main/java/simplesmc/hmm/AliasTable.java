@@ -0,0 +1,93 @@
+package simplesmc.hmm;
+
+import java.util.Random;
+
+
+/**
+ * Walker's alias tables (built with Vose's algorithm) for the rows of a 
+ * matrix of probabilities, each row then being sampled in O(1) time with a 
+ * single uniform.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public final class AliasTable
+{
+  private final int nColumns;
+  
+  /**
+   * For each row and column (row major), the probability of keeping the column, 
+   * and the column used otherwise
+   */
+  private final double [] keepPrs;
+  private final int [] aliases;
+  
+  /**
+   * @return A column sampled from the given row
+   */
+  public int sample(Random random, int row)
+  {
+    final double uniform = random.nextDouble() * nColumns;
+    final int column = Math.min((int) uniform, nColumns - 1);
+    final int index = row * nColumns + column;
+    return uniform - column < keepPrs[index] ? column : aliases[index];
+  }
+  
+  /**
+   * @param prs The probabilities, row major (each row is normalized here, so they 
+   *   only need to be proportional to the probabilities)
+   * @param nRows
+   * @param nColumns
+   */
+  public AliasTable(double [] prs, int nRows, int nColumns)
+  {
+    if (prs.length != nRows * nColumns)
+      throw new RuntimeException("Expected " + nRows + " rows of " + nColumns + " probabilities");
+    this.nColumns = nColumns;
+    this.keepPrs = new double[prs.length];
+    this.aliases = new int[prs.length];
+    final double [] scaled = new double[nColumns];
+    final int [] small = new int[nColumns], large = new int[nColumns];
+    for (int row = 0; row < nRows; row++)
+    {
+      final int offset = row * nColumns;
+      double sum = 0.0;
+      for (int column = 0; column < nColumns; column++)
+        sum += prs[offset + column];
+      if (!(sum > 0.0))
+        throw new RuntimeException("Row " + row + " has no positive probability");
+      int nSmall = 0, nLarge = 0;
+      for (int column = 0; column < nColumns; column++)
+      {
+        scaled[column] = prs[offset + column] * nColumns / sum;
+        if (scaled[column] < 1.0)
+          small[nSmall++] = column;
+        else
+          large[nLarge++] = column;
+      }
+      while (nSmall > 0 && nLarge > 0)
+      {
+        final int less = small[--nSmall], more = large[--nLarge];
+        keepPrs[offset + less] = scaled[less];
+        aliases[offset + less] = more;
+        scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+        if (scaled[more] < 1.0)
+          small[nSmall++] = more;
+        else
+          large[nLarge++] = more;
+      }
+      // the remaining ones are 1 up to rounding
+      while (nLarge > 0)
+      {
+        final int column = large[--nLarge];
+        keepPrs[offset + column] = 1.0;
+        aliases[offset + column] = column;
+      }
+      while (nSmall > 0)
+      {
+        final int column = small[--nSmall];
+        keepPrs[offset + column] = 1.0;
+        aliases[offset + column] = column;
+      }
+    }
+  }
+}
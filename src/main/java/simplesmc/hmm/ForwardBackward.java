@@ -0,0 +1,246 @@
+package simplesmc.hmm;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Exact inference in finite HMMs using the scaled forward-backward recursions 
+ * over primitive arrays.
+ * 
+ * The transition, initial and (when small enough) emission probabilities are 
+ * exponentiated once per parameter setting, and all buffers are kept across calls, 
+ * so that evaluating many parameter settings or long sequences does not allocate. 
+ * An instance is therefore not thread safe: use one per thread.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public final class ForwardBackward
+{
+  /**
+   * Maximum number of entries of the tabulated emission probabilities; beyond 
+   * that, they are computed at each time step
+   */
+  public static final int MAX_EMISSION_TABLE_SIZE = 1 << 20;
+  
+  private int nStates = 0, length = 0;
+  
+  /**
+   * Row major: transitionPrs[current * nStates + next]
+   */
+  private double [] transitionPrs = new double[0];
+  private double [] initialPrs = new double[0];
+  
+  /**
+   * emissionPrs[emission * nStates + latent], or null if there are too many observed states
+   */
+  private double [] emissionPrs = null;
+  private double [] emissionTable = new double[0];
+  private HMMParams params;
+  
+  private ObservationSequence observations;
+  
+  /**
+   * Scaled forward probabilities, forward[t * nStates + state] (sums to one for each t); when 
+   * only the probability is needed, just two rows are kept, alternating between even and odd t
+   */
+  private double [] forward = new double[0];
+  private double [] scales = new double[0];
+  private double [] backward = new double[0], nextBackward = new double[0], emissions = new double[0];
+  
+  /**
+   * @return The LOG probability of the provided sequence of observations
+   */
+  public double logProbability(HMMParams params, List<Integer> observations)
+  {
+    return logProbability(params, ObservationSequence.of(observations));
+  }
+  
+  /**
+   * @return The LOG probability of the provided sequence of observations; the memory used 
+   *   does not grow with the length of the sequence
+   */
+  public double logProbability(HMMParams params, ObservationSequence observations)
+  {
+    load(params, observations, false);
+    return runForward(false);
+  }
+  
+  /**
+   * @return The LOG probability of the observations for each of the provided parameters
+   */
+  public double [] logProbabilities(List<? extends HMMParams> paramsList, List<Integer> observations)
+  {
+    return logProbabilities(paramsList, ObservationSequence.of(observations));
+  }
+  
+  /**
+   * @return The LOG probability of the observations for each of the provided parameters
+   */
+  public double [] logProbabilities(List<? extends HMMParams> paramsList, ObservationSequence observations)
+  {
+    final double [] result = new double[paramsList.size()];
+    setObservations(observations);
+    for (int i = 0; i < result.length; i++)
+    {
+      setParams(paramsList.get(i), false);
+      result[i] = runForward(false);
+    }
+    return result;
+  }
+  
+  /**
+   * @return The posterior marginals, result[t][state] = P(latent at t = state | observations)
+   */
+  public double [][] posteriorMarginals(HMMParams params, List<Integer> observations)
+  {
+    return posteriorMarginals(params, ObservationSequence.of(observations));
+  }
+  
+  /**
+   * @return The posterior marginals, result[t][state] = P(latent at t = state | observations)
+   */
+  public double [][] posteriorMarginals(HMMParams params, ObservationSequence observations)
+  {
+    load(params, observations, true);
+    if (runForward(true) == Double.NEGATIVE_INFINITY)
+      throw new RuntimeException("The observations have probability zero");
+    
+    final double [][] result = new double[length][nStates];
+    Arrays.fill(backward, 0, nStates, 1.0);
+    for (int t = length - 1; t >= 0; t--)
+    {
+      final int offset = t * nStates;
+      for (int state = 0; state < nStates; state++)
+        result[t][state] = forward[offset + state] * backward[state];
+      if (t == 0)
+        break;
+      
+      // backward[i] <- sum_j A[i][j] e_t[j] backward[j] / scale_t
+      final int observation = this.observations.get(t);
+      final double [] emissionPrs = emissionPrs(observation);
+      final int emissionOffset = emissionOffset(observation);
+      for (int next = 0; next < nStates; next++)
+        nextBackward[next] = emissionPrs[emissionOffset + next] * backward[next] / scales[t];
+      for (int current = 0; current < nStates; current++)
+      {
+        final int row = current * nStates;
+        double sum = 0.0;
+        for (int next = 0; next < nStates; next++)
+          sum += transitionPrs[row + next] * nextBackward[next];
+        backward[current] = sum;
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * @param keepAll Whether all forward rows and scales are kept (for the backward pass)
+   */
+  private void load(HMMParams params, ObservationSequence observations, boolean keepAll)
+  {
+    setObservations(observations);
+    setParams(params, keepAll);
+  }
+  
+  private double runForward(boolean keepAll)
+  {
+    double logProbability = 0.0;
+    for (int t = 0; t < length; t++)
+    {
+      final int offset = (keepAll ? t : t & 1) * nStates;
+      final int observation = observations.get(t);
+      final double [] emissionPrs = emissionPrs(observation);
+      final int emissionOffset = emissionOffset(observation);
+      if (t == 0)
+        for (int state = 0; state < nStates; state++)
+          forward[state] = initialPrs[state];
+      else
+      {
+        Arrays.fill(forward, offset, offset + nStates, 0.0);
+        final int previousOffset = (keepAll ? t - 1 : (t - 1) & 1) * nStates;
+        for (int current = 0; current < nStates; current++)
+        {
+          final double previous = forward[previousOffset + current];
+          if (previous == 0.0)
+            continue;
+          final int row = current * nStates;
+          for (int next = 0; next < nStates; next++)
+            forward[offset + next] += previous * transitionPrs[row + next];
+        }
+      }
+      double scale = 0.0;
+      for (int state = 0; state < nStates; state++)
+      {
+        forward[offset + state] *= emissionPrs[emissionOffset + state];
+        scale += forward[offset + state];
+      }
+      if (scale == 0.0)
+        return Double.NEGATIVE_INFINITY;
+      for (int state = 0; state < nStates; state++)
+        forward[offset + state] /= scale;
+      if (keepAll)
+        scales[t] = scale;
+      logProbability += Math.log(scale);
+    }
+    return logProbability;
+  }
+  
+  private double [] emissionPrs(int observation)
+  {
+    if (emissionPrs != null)
+      return emissionPrs;
+    for (int state = 0; state < nStates; state++)
+      emissions[state] = Math.exp(params.emissionLogPr(state, observation));
+    return emissions;
+  }
+  
+  private int emissionOffset(int observation)
+  {
+    return emissionPrs == null ? 0 : observation * nStates;
+  }
+  
+  private void setObservations(ObservationSequence observations)
+  {
+    this.observations = observations;
+    this.length = observations.size();
+  }
+  
+  private void setParams(HMMParams params, boolean keepAll)
+  {
+    this.params = params;
+    nStates = params.nLatentStates();
+    final int nObserved = params.nObservedStates();
+    transitionPrs = ensureCapacity(transitionPrs, nStates * nStates);
+    initialPrs = ensureCapacity(initialPrs, nStates);
+    backward = ensureCapacity(backward, nStates);
+    nextBackward = ensureCapacity(nextBackward, nStates);
+    emissions = ensureCapacity(emissions, nStates);
+    forward = ensureCapacity(forward, (keepAll ? length : 2) * nStates);
+    if (keepAll)
+      scales = ensureCapacity(scales, length);
+    
+    for (int current = 0; current < nStates; current++)
+    {
+      initialPrs[current] = Math.exp(params.initialLogPr(current));
+      for (int next = 0; next < nStates; next++)
+        transitionPrs[current * nStates + next] = Math.exp(params.transitionLogPr(current, next));
+    }
+    
+    if ((long) nObserved * nStates <= MAX_EMISSION_TABLE_SIZE)
+    {
+      emissionTable = ensureCapacity(emissionTable, nObserved * nStates);
+      for (int emission = 0; emission < nObserved; emission++)
+        for (int state = 0; state < nStates; state++)
+          emissionTable[emission * nStates + state] = Math.exp(params.emissionLogPr(state, emission));
+      emissionPrs = emissionTable;
+    }
+    else
+      emissionPrs = null;
+  }
+  
+  private static double [] ensureCapacity(double [] array, int size)
+  {
+    return array.length >= size ? array : new double[size];
+  }
+}
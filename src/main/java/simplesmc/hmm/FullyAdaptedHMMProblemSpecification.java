@@ -0,0 +1,273 @@
+package simplesmc.hmm;
+
+import java.util.List;
+import java.util.Random;
+
+import simplesmc.AncestorSamplingSpecification;
+import simplesmc.InPlaceProblemSpecification;
+import simplesmc.IntProblemSpecification;
+import simplesmc.ProposalOutput;
+import simplesmc.pmcmc.WithSignature;
+
+
+/**
+ * The specification of an SMC algorithm based on an HMM with a finite number 
+ * of latent states, using the locally optimal (fully adapted) proposal: the 
+ * next state is sampled from p(x_t | x_{t-1}, y_t), proportional to the 
+ * transition times the emission probability, and the weight update is the 
+ * predictive likelihood p(y_t | x_{t-1}), which does not depend on the 
+ * proposed state.
+ * 
+ * Compared to the bootstrap sampler (HMMProblemSpecification), far fewer 
+ * particles are needed for a given variance of the estimate of the 
+ * normalization when the emissions are informative. 
+ * 
+ * The transition probabilities are exponentiated once (and again when the 
+ * parameters' signature changes), and each thread keeps the emission probabilities 
+ * and predictive distributions of the last observation it used, the latter computed 
+ * once per distinct previous state, so each proposal costs O(nLatentStates) at most.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class FullyAdaptedHMMProblemSpecification implements InPlaceProblemSpecification<Integer>, AncestorSamplingSpecification<Integer>, 
+  IntProblemSpecification, WithSignature
+{
+  private final HMMParams parameters;
+  private final ObservationSequence observations;
+  private final int nLatentStates;
+  
+  /**
+   * The exponentiated transitions (row major) and initial probabilities, for the 
+   * parameters with the given signature
+   */
+  private static class Tables
+  {
+    private final long signature;
+    private final double [] transitionPrs, initialPrs;
+    
+    private Tables(HMMParams parameters)
+    {
+      final int nLatentStates = parameters.nLatentStates();
+      this.signature = parameters.signature();
+      this.transitionPrs = new double[nLatentStates * nLatentStates];
+      this.initialPrs = new double[nLatentStates];
+      for (int current = 0; current < nLatentStates; current++)
+      {
+        initialPrs[current] = Math.exp(parameters.initialLogPr(current));
+        for (int next = 0; next < nLatentStates; next++)
+          transitionPrs[current * nLatentStates + next] = Math.exp(parameters.transitionLogPr(current, next));
+      }
+    }
+  }
+  private volatile Tables tables = null;
+  
+  /**
+   * The last Predictive of each thread, reused while the observation, the tables and 
+   * whether it is initial are unchanged (e.g. ancestor sampling calls logWeightUpdate() 
+   * about 2 * nParticles times per iteration)
+   */
+  private final ThreadLocal<Predictive> lastPredictive = new ThreadLocal<>();
+  
+  /**
+   * The cumulative (unnormalized) predictive distributions given an observation: row 
+   * s is that of the previous state s (row nLatentStates for the initial distribution), 
+   * computed the first time it is needed. The last entry of a row is the predictive likelihood.
+   */
+  private class Predictive
+  {
+    private final double [] emissionPrs = new double[nLatentStates];
+    private final double [] tablesPrs;
+    private final Tables tables;
+    private final int observation;
+    private final boolean initial;
+    private final double [][] cumulative = new double[nLatentStates + 1][];
+    
+    private Predictive(Tables tables, int observation, boolean initial)
+    {
+      this.tables = tables;
+      this.observation = observation;
+      this.initial = initial;
+      this.tablesPrs = initial ? tables.initialPrs : tables.transitionPrs;
+      for (int latent = 0; latent < nLatentStates; latent++)
+        emissionPrs[latent] = Math.exp(parameters.emissionLogPr(latent, observation));
+    }
+    
+    /**
+     * @return The cumulative predictive distribution from the previous state (ignored 
+     *   for the initial distribution)
+     */
+    private double [] row(int previous)
+    {
+      final int row = initial ? nLatentStates : previous;
+      if (cumulative[row] == null)
+      {
+        final double [] result = new double[nLatentStates];
+        final int tableOffset = initial ? 0 : previous * nLatentStates;
+        double sum = 0.0;
+        for (int next = 0; next < nLatentStates; next++)
+        {
+          sum += tablesPrs[tableOffset + next] * emissionPrs[next];
+          result[next] = sum;
+        }
+        cumulative[row] = result;
+      }
+      return cumulative[row];
+    }
+    
+    /**
+     * Samples the next state, written in proposed[index]
+     * 
+     * @return The LOG predictive likelihood (the LOG weight update)
+     */
+    private double propose(Random random, int previous, int [] proposed, int index)
+    {
+      final double [] cumulative = row(previous);
+      final double total = cumulative[nLatentStates - 1];
+      if (total == 0.0)
+      {
+        // the observation is impossible from this state: any proposal, zero weight
+        proposed[index] = 0;
+        return Double.NEGATIVE_INFINITY;
+      }
+      final double target = random.nextDouble() * total;
+      int next = 0;
+      while (next < nLatentStates - 1 && cumulative[next] <= target)
+        next++;
+      proposed[index] = next;
+      return Math.log(total);
+    }
+  }
+  
+  public FullyAdaptedHMMProblemSpecification(HMMParams parameters, List<Integer> observations)
+  {
+    this(parameters, ObservationSequence.of(observations));
+  }
+  
+  /**
+   * @param observations E.g. a MappedObservationSequence, for very long sequences
+   */
+  public FullyAdaptedHMMProblemSpecification(HMMParams parameters, ObservationSequence observations)
+  {
+    if (parameters.nLatentStates() <= 0)
+      throw new RuntimeException("The fully adapted proposal requires a finite number of latent states");
+    this.parameters = parameters;
+    this.observations = observations;
+    this.nLatentStates = parameters.nLatentStates();
+  }
+  
+  @Override
+  public void proposeNext(int previousSmcIteration, Random random,
+      Integer currentParticle, ProposalOutput<Integer> output)
+  {
+    final int [] proposed = new int[1];
+    final double logWeightUpdate = proposeNext(previousSmcIteration, random, currentParticle, proposed, 0);
+    output.set(logWeightUpdate, proposed[0]);
+  }
+  
+  @Override
+  public void proposeInitial(Random random, ProposalOutput<Integer> output)
+  {
+    final int [] proposed = new int[1];
+    final double logWeightUpdate = proposeInitial(random, proposed, 0);
+    output.set(logWeightUpdate, proposed[0]);
+  }
+  
+  @Override
+  public double proposeNext(int previousSmcIteration, Random random,
+      int currentParticle, int[] proposedParticles, int proposedIndex)
+  {
+    return predictive(observations.get(previousSmcIteration + 1), false)
+      .propose(random, currentParticle, proposedParticles, proposedIndex);
+  }
+
+  @Override
+  public double proposeInitial(Random random, int[] proposedParticles, int proposedIndex)
+  {
+    return predictive(observations.get(0), true).propose(random, 0, proposedParticles, proposedIndex);
+  }
+  
+  @Override
+  public void proposeBatch(int previousSmcIteration, Random [] randoms, int [] currentParticles, 
+      int fromIndex, int toIndex, double [] logWeightUpdates, int [] proposedParticles)
+  {
+    final boolean initial = currentParticles == null;
+    final Predictive predictive = predictive(observations.get(initial ? 0 : previousSmcIteration + 1), initial);
+    for (int particleIndex = fromIndex; particleIndex < toIndex; particleIndex++)
+      logWeightUpdates[particleIndex] = predictive.propose(randoms[particleIndex], 
+          initial ? 0 : currentParticles[particleIndex], proposedParticles, particleIndex);
+  }
+  
+  @Override
+  public void proposeBatch(int previousSmcIteration, Random [] randoms, List<Integer> currentParticles, 
+      int fromIndex, int toIndex, double [] logWeightUpdates, List<Integer> proposedParticles)
+  {
+    final boolean initial = currentParticles == null;
+    final Predictive predictive = predictive(observations.get(initial ? 0 : previousSmcIteration + 1), initial);
+    final int [] proposed = new int[1];
+    for (int particleIndex = fromIndex; particleIndex < toIndex; particleIndex++)
+    {
+      logWeightUpdates[particleIndex] = predictive.propose(randoms[particleIndex], 
+          initial ? 0 : currentParticles.get(particleIndex), proposed, 0);
+      proposedParticles.set(particleIndex, proposed[0]);
+    }
+  }
+  
+  /**
+   * The LOG of p(x_t | x_{t-1}, y_t) (or p(x_0 | y_0))
+   */
+  @Override
+  public double proposalLogDensity(int previousSmcIteration, Integer currentParticle, Integer proposedParticle)
+  {
+    final int observation = observations.get(currentParticle == null ? 0 : previousSmcIteration + 1);
+    final double priorLogPr = currentParticle == null ?
+      parameters.initialLogPr(proposedParticle) :
+      parameters.transitionLogPr(currentParticle, proposedParticle);
+    return priorLogPr + parameters.emissionLogPr(proposedParticle, observation) - 
+      logWeightUpdate(previousSmcIteration, currentParticle, proposedParticle);
+  }
+  
+  /**
+   * The LOG predictive likelihood, p(y_t | x_{t-1}) (or p(y_0))
+   */
+  @Override
+  public double logWeightUpdate(int previousSmcIteration, Integer currentParticle, Integer proposedParticle)
+  {
+    final boolean initial = currentParticle == null;
+    final Predictive predictive = predictive(observations.get(initial ? 0 : previousSmcIteration + 1), initial);
+    return Math.log(predictive.row(initial ? 0 : currentParticle)[nLatentStates - 1]);
+  }
+  
+  /**
+   * @return The last Predictive of the current thread if it matches, otherwise a new one
+   */
+  private Predictive predictive(int observation, boolean initial)
+  {
+    final Tables tables = tables();
+    Predictive result = lastPredictive.get();
+    if (result == null || result.observation != observation || result.initial != initial || result.tables != tables)
+    {
+      result = new Predictive(tables, observation, initial);
+      lastPredictive.set(result);
+    }
+    return result;
+  }
+  
+  private Tables tables()
+  {
+    Tables current = tables;
+    if (current == null || current.signature != parameters.signature())
+      tables = current = new Tables(parameters);
+    return current;
+  }
+
+  public int nIterations()
+  {
+    return observations.size();
+  }
+
+  public long signature()
+  {
+    return parameters.signature();
+  }
+}
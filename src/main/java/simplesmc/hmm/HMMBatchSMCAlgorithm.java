@@ -0,0 +1,384 @@
+package simplesmc.hmm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntToDoubleFunction;
+
+import simplesmc.SMCOptions;
+import simplesmc.WorkerPool;
+import simplesmc.random.ParticleStreams;
+import simplesmc.random.RandomStreams;
+
+
+/**
+ * Estimates the LOG probability of the observations under each of many
+ * parameters of a finite HMM in one pass, e.g. for profile likelihoods or
+ * grid-based inference, with the bootstrap sampler of HMMProblemSpecification.
+ *
+ * The runs for the different parameters use common random numbers, so that
+ * the estimates vary smoothly with the parameters: at each iteration, particle
+ * index i uses the same uniform for all the parameters, drawn from the keyed
+ * stream of (seed, iteration, i), and proposes by inverting the cumulative
+ * transition (or initial) probabilities. Resampling is systematic, with one
+ * uniform per iteration shared by all the parameters, and performed at each
+ * iteration (essThreshold is ignored), after sorting the particles by state;
+ * as in SMCAlgorithm.sampleCorrelated(), a change in the resampling decisions
+ * would break the correlation.
+ *
+ * The particles and weights are stored as [particle index][parameter index], so
+ * that the inner loops run over contiguous parameters. The proposals, weights and
+ * resampled particles are computed by blocks of particles (for all the parameters),
+ * so that each thread writes its own rows, and all the threads are used even with
+ * fewer parameters than threads; the sums of each block are then combined in
+ * block order. The blocks do not depend on the number of threads, and neither
+ * does the result.
+ *
+ * Memory is in O(nParams * (nParticles + nLatentStates * (nLatentStates + MAX_BLOCKS))),
+ * as the cumulative transition probabilities of each parameter and the weight of
+ * each state in each block are tabulated.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public final class HMMBatchSMCAlgorithm
+{
+  /**
+   * The particles are split in at most MAX_BLOCKS blocks of at least MIN_BLOCK_SIZE particles
+   */
+  public static final int MAX_BLOCKS = 64, MIN_BLOCK_SIZE = 64;
+
+  private final List<? extends HMMParams> params;
+  private final ObservationSequence observations;
+  private final SMCOptions options;
+  private final WorkerPool workers;
+  private final ParticleStreams streams;
+
+  private final int nParams, nStates, nParticles, blockSize, nBlocks;
+
+  /**
+   * initialCdfs[param * nStates + state] and
+   * transitionCdfs[(param * nStates + current) * nStates + next]
+   */
+  private final double [] initialCdfs, transitionCdfs;
+
+  /**
+   * particles[particle * nParams + param], and the LOG weights in the same layout
+   */
+  private final int [] particles;
+  private final double [] logWeights;
+
+  /**
+   * The uniform of each particle index at the current iteration, shared by all the parameters
+   */
+  private final double [] uniforms;
+
+  /**
+   * Per parameter: emissionLogPrs[param * nStates + state] at the current iteration,
+   * the weight of each state relative to the maximum weight (same layout), and the
+   * sum of the weights relative to it
+   */
+  private final double [] emissionLogPrs, stateWeights, weightSums;
+
+  /**
+   * The same per block and parameter, relative to the maximum weight of the block:
+   * blockMaxLogWeights[block * nParams + param], blockWeightSums (same layout),
+   * and blockStateWeights[(block * nParams + param) * nStates + state]
+   */
+  private final double [] blockMaxLogWeights, blockWeightSums, blockStateWeights;
+
+  /**
+   * After resampling, the particles of a parameter with indices in
+   * [resampledEnds[param * nStates + state - 1], resampledEnds[param * nStates + state])
+   * are in the given state
+   */
+  private final int [] resampledEnds;
+
+  public HMMBatchSMCAlgorithm(List<? extends HMMParams> params, List<Integer> observations, SMCOptions options)
+  {
+    this(params, ObservationSequence.of(observations), options);
+  }
+
+  public HMMBatchSMCAlgorithm(List<? extends HMMParams> params, ObservationSequence observations, SMCOptions options)
+  {
+    this(params, observations, options, new WorkerPool(options.nThreads));
+  }
+
+  /**
+   * @param params The parameters, all with the same number of latent states
+   * @param options Uses nParticles, random (to draw the seed of each call to
+   *   logNormEstimates()), and randomStreams (PHILOX if it is STATEFUL)
+   * @param workers The threads to use (options.nThreads is then ignored)
+   */
+  public HMMBatchSMCAlgorithm(List<? extends HMMParams> params, ObservationSequence observations, SMCOptions options,
+      WorkerPool workers)
+  {
+    if (params.isEmpty())
+      throw new RuntimeException("At least one parameter is needed");
+    this.params = new ArrayList<>(params);
+    this.observations = observations;
+    this.options = options;
+    this.workers = workers;
+    this.streams = new ParticleStreams(options.randomStreams == RandomStreams.STATEFUL ?
+        RandomStreams.PHILOX :
+        options.randomStreams);
+    this.nParams = params.size();
+    this.nStates = params.get(0).nLatentStates();
+    this.nParticles = options.nParticles;
+    this.blockSize = Math.max(MIN_BLOCK_SIZE, (nParticles + MAX_BLOCKS - 1) / MAX_BLOCKS);
+    this.nBlocks = (nParticles + blockSize - 1) / blockSize;
+    for (HMMParams current : params)
+      if (current.nLatentStates() != nStates)
+        throw new RuntimeException("The parameters should have the same number of latent states");
+
+    initialCdfs = new double[nParams * nStates];
+    transitionCdfs = new double[nParams * nStates * nStates];
+    workers.process(nParams, chunkSize(), (fromParam, toParam) ->
+    {
+      for (int param = fromParam; param < toParam; param++)
+      {
+        final HMMParams current = this.params.get(param);
+        cumulate(initialCdfs, param * nStates, state -> current.initialLogPr(state));
+        for (int state = 0; state < nStates; state++)
+        {
+          final int currentState = state;
+          cumulate(transitionCdfs, (param * nStates + state) * nStates,
+              next -> current.transitionLogPr(currentState, next));
+        }
+      }
+    });
+
+    particles = new int[nParticles * nParams];
+    logWeights = new double[nParticles * nParams];
+    uniforms = new double[nParticles];
+    emissionLogPrs = new double[nParams * nStates];
+    stateWeights = new double[nParams * nStates];
+    weightSums = new double[nParams];
+    blockMaxLogWeights = new double[nBlocks * nParams];
+    blockWeightSums = new double[nBlocks * nParams];
+    blockStateWeights = new double[nBlocks * nParams * nStates];
+    resampledEnds = new int[nParams * nStates];
+  }
+
+  /**
+   * Runs the SMC algorithm for all the parameters; successive calls use
+   * different random numbers.
+   *
+   * @return The LOG of the estimate of the normalization constant for each
+   *   parameter, as SMCAlgorithm's logNormEstimate()
+   */
+  public double [] logNormEstimates()
+  {
+    final long seed = options.random.nextLong();
+    final double [] result = new double[nParams];
+    final int length = observations.size();
+    for (int iteration = 0; iteration < length; iteration++)
+    {
+      final int currentIteration = iteration;
+      final boolean resample = iteration < length - 1;
+      final double resamplingUniform = resample ? options.random.nextDouble() : 0.0;
+      streams.process(workers, nParticles, seed, iteration, (randoms, fromIndex, toIndex) ->
+      {
+        for (int particle = fromIndex; particle < toIndex; particle++)
+          uniforms[particle] = randoms[particle].nextDouble();
+      });
+      final int observation = observations.get(iteration);
+      workers.process(nParams, chunkSize(), (fromParam, toParam) ->
+      {
+        for (int param = fromParam; param < toParam; param++)
+        {
+          final HMMParams current = params.get(param);
+          for (int state = 0; state < nStates; state++)
+            emissionLogPrs[param * nStates + state] = current.emissionLogPr(state, observation);
+        }
+      });
+      // (with one thread, the workers process all the particles at once)
+      workers.process(nParticles, blockSize, (fromParticle, toParticle) ->
+      {
+        for (int blockStart = fromParticle; blockStart < toParticle; blockStart += blockSize)
+          propose(currentIteration, resample, blockStart, Math.min(toParticle, blockStart + blockSize));
+      });
+      workers.process(nParams, chunkSize(), (fromParam, toParam) ->
+        normalize(result, resample, resamplingUniform, fromParam, toParam));
+      if (resample)
+        workers.process(nParticles, blockSize, (fromParticle, toParticle) ->
+          resample(fromParticle, toParticle));
+    }
+    return result;
+  }
+
+  public int nParams()
+  {
+    return nParams;
+  }
+
+  /**
+   * Proposes the particles of iteration in [fromParticle, toParticle) (a block) for all
+   * the parameters, sets their LOG weights to the emission probabilities, and computes
+   * the sums of the block (including the weight of each state if resample is true)
+   */
+  private void propose(int iteration, boolean resample, int fromParticle, int toParticle)
+  {
+    final int blockOffset = fromParticle / blockSize * nParams;
+    Arrays.fill(blockMaxLogWeights, blockOffset, blockOffset + nParams, Double.NEGATIVE_INFINITY);
+    final double [] cdfs = iteration == 0 ? initialCdfs : transitionCdfs;
+    for (int particle = fromParticle; particle < toParticle; particle++)
+    {
+      final double uniform = uniforms[particle];
+      final int row = particle * nParams;
+      for (int param = 0; param < nParams; param++)
+      {
+        final int offset = iteration == 0 ?
+          param * nStates :
+          (param * nStates + particles[row + param]) * nStates;
+        final int state = firstReaching(cdfs, offset, uniform);
+        final double logWeight = emissionLogPrs[param * nStates + state];
+        particles[row + param] = state;
+        logWeights[row + param] = logWeight;
+        if (logWeight > blockMaxLogWeights[blockOffset + param])
+          blockMaxLogWeights[blockOffset + param] = logWeight;
+      }
+    }
+
+    Arrays.fill(blockWeightSums, blockOffset, blockOffset + nParams, 0.0);
+    if (resample)
+      Arrays.fill(blockStateWeights, blockOffset * nStates, (blockOffset + nParams) * nStates, 0.0);
+    for (int particle = fromParticle; particle < toParticle; particle++)
+    {
+      final int row = particle * nParams;
+      for (int param = 0; param < nParams; param++)
+      {
+        // all the weights of the block are zero if the maximum is
+        final double max = blockMaxLogWeights[blockOffset + param];
+        final double weight = max == Double.NEGATIVE_INFINITY ? 0.0 : Math.exp(logWeights[row + param] - max);
+        blockWeightSums[blockOffset + param] += weight;
+        if (resample)
+          blockStateWeights[(blockOffset + param) * nStates + particles[row + param]] += weight;
+      }
+    }
+  }
+
+  /**
+   * Combines the sums of the blocks (in block order) for the parameters in [fromParam, toParam),
+   * adds the LOG of the average weight to the estimates, and, if resample is true, computes
+   * the resampled states of each parameter
+   */
+  private void normalize(double [] result, boolean resample, double resamplingUniform, int fromParam, int toParam)
+  {
+    final double logNParticles = Math.log(nParticles);
+    for (int param = fromParam; param < toParam; param++)
+    {
+      double max = Double.NEGATIVE_INFINITY;
+      for (int block = 0; block < nBlocks; block++)
+        max = Math.max(max, blockMaxLogWeights[block * nParams + param]);
+      if (resample)
+        Arrays.fill(stateWeights, param * nStates, (param + 1) * nStates, 0.0);
+      double sum = 0.0;
+      for (int block = 0; block < nBlocks; block++)
+      {
+        final int blockParam = block * nParams + param;
+        // blocks whose weights are all zero (exp(-inf - -inf) would be NaN)
+        if (blockMaxLogWeights[blockParam] == Double.NEGATIVE_INFINITY)
+          continue;
+        final double factor = Math.exp(blockMaxLogWeights[blockParam] - max);
+        sum += blockWeightSums[blockParam] * factor;
+        if (resample)
+          for (int state = 0; state < nStates; state++)
+            stateWeights[param * nStates + state] += blockStateWeights[blockParam * nStates + state] * factor;
+      }
+      weightSums[param] = sum;
+      result[param] += sum == 0.0 ?
+        Double.NEGATIVE_INFINITY :
+        max + Math.log(sum) - logNParticles;
+      if (resample && sum > 0.0)
+        resampledEnds(param, resamplingUniform);
+    }
+  }
+
+  /**
+   * Systematic resampling of the particles of a parameter, which are then sorted by state:
+   * computes resampledEnds, from the weight of each state
+   */
+  private void resampledEnds(int param, double uniform)
+  {
+    final double step = weightSums[param] / nParticles;
+    double cumulative = 0.0;
+    int particle = 0;
+    for (int state = 0; state < nStates; state++)
+    {
+      cumulative += stateWeights[param * nStates + state];
+      if (state == nStates - 1)
+        particle = nParticles;
+      else
+      {
+        // the particles below cumulative / step - uniform - 1 are in the state, then check the next ones
+        particle = Math.max(particle, Math.min(nParticles, (int) (cumulative / step - uniform) - 1));
+        while (particle < nParticles && (particle + uniform) * step < cumulative)
+          particle++;
+      }
+      resampledEnds[param * nStates + state] = particle;
+    }
+  }
+
+  /**
+   * Writes the resampled states of the particles in [fromParticle, toParticle) (a block) for
+   * all the parameters (the particles of a parameter are left unchanged if all their weights
+   * are zero)
+   */
+  private void resample(int fromParticle, int toParticle)
+  {
+    for (int param = 0; param < nParams; param++)
+    {
+      if (weightSums[param] == 0.0)
+        continue;
+      final int offset = param * nStates;
+      int state = 0;
+      for (int particle = fromParticle; particle < toParticle; particle++)
+      {
+        while (resampledEnds[offset + state] <= particle)
+          state++;
+        particles[particle * nParams + param] = state;
+      }
+    }
+  }
+
+  /**
+   * @return The first state whose cumulative probability (in cdfs, starting at offset)
+   *   is greater than the uniform, or the last state if there is none
+   */
+  private int firstReaching(double [] cdfs, int offset, double uniform)
+  {
+    int low = 0, high = nStates - 1;
+    while (low < high)
+    {
+      final int middle = (low + high) >>> 1;
+      if (cdfs[offset + middle] <= uniform)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Writes the cumulative probabilities, normalized so that the last one is exactly one
+   */
+  private void cumulate(double [] cdfs, int offset, IntToDoubleFunction logPrs)
+  {
+    double sum = 0.0;
+    for (int state = 0; state < nStates; state++)
+    {
+      sum += Math.exp(logPrs.applyAsDouble(state));
+      cdfs[offset + state] = sum;
+    }
+    for (int state = 0; state < nStates; state++)
+      cdfs[offset + state] /= sum;
+  }
+
+  /**
+   * Contiguous ranges of parameters, one per thread
+   */
+  private int chunkSize()
+  {
+    return Math.max(1, (nParams + workers.nThreads() - 1) / workers.nThreads());
+  }
+}
@@ -5,7 +5,11 @@ import java.util.Random;
 
 import org.apache.commons.lang3.tuple.Pair;
 
-import simplesmc.ProblemSpecification;
+import simplesmc.AncestorSamplingSpecification;
+import simplesmc.FiniteStateProblemSpecification;
+import simplesmc.IntProblemSpecification;
+import simplesmc.InPlaceProblemSpecification;
+import simplesmc.ProposalOutput;
 import simplesmc.pmcmc.WithSignature;
 
 
@@ -19,15 +23,28 @@ import simplesmc.pmcmc.WithSignature;
  * Note that it does not requires the HMMParams' state space to 
  * be finite.
  * 
+ * Both the generic (boxed, with Pair or in-place outputs) and the 
+ * primitive (IntSMCAlgorithm) interfaces are provided, as well as the 
+ * one of CountedSMCAlgorithm when the number of latent states is finite.
+ * 
  * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
  *
  */
-public class HMMProblemSpecification implements ProblemSpecification<Integer>, WithSignature
+public class HMMProblemSpecification implements InPlaceProblemSpecification<Integer>, AncestorSamplingSpecification<Integer>, 
+  IntProblemSpecification, FiniteStateProblemSpecification, WithSignature
 {
   private final HMMParams parameters;
-  private final List<Integer> observations;
+  private final ObservationSequence observations;
   
   public HMMProblemSpecification(HMMParams parameters, List<Integer> observations)
+  {
+    this(parameters, ObservationSequence.of(observations));
+  }
+  
+  /**
+   * @param observations E.g. a MappedObservationSequence, for very long sequences
+   */
+  public HMMProblemSpecification(HMMParams parameters, ObservationSequence observations)
   {
     this.parameters = parameters;
     this.observations = observations;
@@ -47,6 +64,148 @@ public class HMMProblemSpecification implements ProblemSpecification<Integer>, W
     double emissionLogPr = parameters.emissionLogPr(proposed, observations.get(0));
     return Pair.of(emissionLogPr, proposed);
   }
+  
+  @Override
+  public void proposeNext(int previousSmcIteration, Random random,
+      Integer currentParticle, ProposalOutput<Integer> output)
+  {
+    int proposed = parameters.sampleTransition(random, currentParticle);
+    output.set(parameters.emissionLogPr(proposed, observations.get(previousSmcIteration + 1)), proposed);
+  }
+  
+  @Override
+  public void proposeInitial(Random random, ProposalOutput<Integer> output)
+  {
+    int proposed = parameters.sampleInitial(random);
+    output.set(parameters.emissionLogPr(proposed, observations.get(0)), proposed);
+  }
+  
+  @Override
+  public double proposeNext(int previousSmcIteration, Random random,
+      int currentParticle, int[] proposedParticles, int proposedIndex)
+  {
+    int proposed = parameters.sampleTransition(random, currentParticle);
+    proposedParticles[proposedIndex] = proposed;
+    return parameters.emissionLogPr(proposed, observations.get(previousSmcIteration + 1));
+  }
+
+  @Override
+  public double proposeInitial(Random random, int[] proposedParticles, int proposedIndex)
+  {
+    int proposed = parameters.sampleInitial(random);
+    proposedParticles[proposedIndex] = proposed;
+    return parameters.emissionLogPr(proposed, observations.get(0));
+  }
+
+  /**
+   * Batched version of the int proposals: the emission LOG probabilities of 
+   * the current observation are computed once for the block and then looked up.
+   */
+  @Override
+  public void proposeBatch(int previousSmcIteration, Random [] randoms, int [] currentParticles, 
+      int fromIndex, int toIndex, double [] logWeightUpdates, int [] proposedParticles)
+  {
+    final int observation = observations.get(currentParticles == null ? 0 : previousSmcIteration + 1);
+    final double [] emissionLogPrs = emissionLogPrs(observation, toIndex - fromIndex);
+    for (int particleIndex = fromIndex; particleIndex < toIndex; particleIndex++)
+    {
+      final int proposed = currentParticles == null ?
+        parameters.sampleInitial(randoms[particleIndex]) :
+        parameters.sampleTransition(randoms[particleIndex], currentParticles[particleIndex]);
+      proposedParticles[particleIndex] = proposed;
+      logWeightUpdates[particleIndex] = emissionLogPrs == null ? 
+        parameters.emissionLogPr(proposed, observation) : 
+        emissionLogPrs[proposed];
+    }
+  }
+  
+  /**
+   * Batched version of the generic proposals, see proposeBatch() above.
+   */
+  @Override
+  public void proposeBatch(int previousSmcIteration, Random [] randoms, List<Integer> currentParticles, 
+      int fromIndex, int toIndex, double [] logWeightUpdates, List<Integer> proposedParticles)
+  {
+    final int observation = observations.get(currentParticles == null ? 0 : previousSmcIteration + 1);
+    final double [] emissionLogPrs = emissionLogPrs(observation, toIndex - fromIndex);
+    for (int particleIndex = fromIndex; particleIndex < toIndex; particleIndex++)
+    {
+      final int proposed = currentParticles == null ?
+        parameters.sampleInitial(randoms[particleIndex]) :
+        parameters.sampleTransition(randoms[particleIndex], currentParticles.get(particleIndex));
+      proposedParticles.set(particleIndex, proposed);
+      logWeightUpdates[particleIndex] = emissionLogPrs == null ? 
+        parameters.emissionLogPr(proposed, observation) : 
+        emissionLogPrs[proposed];
+    }
+  }
+  
+  /**
+   * @return The emission LOG probability of the observation for each latent state, or null 
+   *   if tabulating them is not worth it for a block of the given size (which is also the 
+   *   case for infinite state spaces)
+   */
+  private double [] emissionLogPrs(int observation, int blockSize)
+  {
+    final int nLatentStates = parameters.nLatentStates();
+    if (nLatentStates <= 0 || nLatentStates > blockSize)
+      return null;
+    final double [] result = new double[nLatentStates];
+    for (int latent = 0; latent < nLatentStates; latent++)
+      result[latent] = parameters.emissionLogPr(latent, observation);
+    return result;
+  }
+
+  /**
+   * For the bootstrap sampler, this is the transition (or initial) probability.
+   */
+  @Override
+  public double proposalLogDensity(int previousSmcIteration, Integer currentParticle, Integer proposedParticle)
+  {
+    return currentParticle == null ?
+      parameters.initialLogPr(proposedParticle) :
+      parameters.transitionLogPr(currentParticle, proposedParticle);
+  }
+  
+  @Override
+  public double logWeightUpdate(int previousSmcIteration, Integer currentParticle, Integer proposedParticle)
+  {
+    return parameters.emissionLogPr(proposedParticle, observations.get(currentParticle == null ? 0 : previousSmcIteration + 1));
+  }
+
+  @Override
+  public int nStates()
+  {
+    if (parameters.nLatentStates() <= 0)
+      throw new RuntimeException("The number of latent states is infinite");
+    return parameters.nLatentStates();
+  }
+
+  @Override
+  public void initialProposalPrs(double [] prs)
+  {
+    for (int state = 0; state < prs.length; state++)
+      prs[state] = Math.exp(parameters.initialLogPr(state));
+  }
+
+  @Override
+  public double initialLogWeight(int proposedState)
+  {
+    return parameters.emissionLogPr(proposedState, observations.get(0));
+  }
+
+  @Override
+  public void nextProposalPrs(int currentSmcIteration, int currentState, double [] prs)
+  {
+    for (int state = 0; state < prs.length; state++)
+      prs[state] = Math.exp(parameters.transitionLogPr(currentState, state));
+  }
+
+  @Override
+  public double nextLogWeight(int currentSmcIteration, int currentState, int nextState)
+  {
+    return parameters.emissionLogPr(nextState, observations.get(currentSmcIteration + 1));
+  }
 
   public int nIterations()
   {
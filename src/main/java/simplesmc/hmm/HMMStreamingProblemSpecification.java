@@ -0,0 +1,47 @@
+package simplesmc.hmm;
+
+import java.util.Random;
+
+import simplesmc.ProposalOutput;
+import simplesmc.StreamingProblemSpecification;
+import simplesmc.pmcmc.WithSignature;
+
+
+/**
+ * The bootstrap sampler of HMMProblemSpecification, for use with 
+ * OnlineSMCAlgorithm: the observations are provided one at the 
+ * time, so the sequence is never held in memory.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class HMMStreamingProblemSpecification implements StreamingProblemSpecification<Integer, Integer>, WithSignature
+{
+  private final HMMParams parameters;
+  
+  public HMMStreamingProblemSpecification(HMMParams parameters)
+  {
+    this.parameters = parameters;
+  }
+
+  @Override
+  public void proposeNext(int currentSmcIteration, Random random,
+      Integer currentParticle, Integer observation, ProposalOutput<Integer> output)
+  {
+    int proposed = parameters.sampleTransition(random, currentParticle);
+    output.set(parameters.emissionLogPr(proposed, observation), proposed);
+  }
+
+  @Override
+  public void proposeInitial(Random random, Integer observation, ProposalOutput<Integer> output)
+  {
+    int proposed = parameters.sampleInitial(random);
+    output.set(parameters.emissionLogPr(proposed, observation), proposed);
+  }
+
+  @Override
+  public long signature()
+  {
+    return parameters.signature();
+  }
+}
@@ -48,12 +48,75 @@ public class HMMUtils
   }
   
   /**
-   * Construct a factor graph, and use the sum product algorithm to 
-   * compute the LOG probability of the data analytically
+   * Perform forward simulation of an HMM model of the provided length, streaming the 
+   * result to files (see MappedObservationSequence) instead of holding it in memory. 
+   * 
+   * Given the same random, the sequences are the same as those of generate() above.
+   * 
+   * @param latents Where to write the latent states, or null if they are not needed
+   * @param observations Where to write the observations
+   */
+  public static void generate(Random random, HMMParams params, int length, 
+      MappedObservationSequence.Writer latents, MappedObservationSequence.Writer observations)
+  {
+    int currentLatent = -1;
+    for (int iteration = 0; iteration < length; iteration++)
+    {
+      currentLatent = iteration == 0 ? 
+        params.sampleInitial(random) : 
+        params.sampleTransition(random, currentLatent);
+      int currentObs = params.sampleEmission(random, currentLatent);
+      if (latents != null)
+        latents.add(currentLatent);
+      observations.add(currentObs);
+    }
+  }
+  
+  /**
+   * Use the scaled forward algorithm (see ForwardBackward) to compute the 
+   * LOG probability of the data analytically
    * 
    * @return The LOG probability of the provided sequence of observations
    */
   public static double exactDataLogProbability(HMMParams parameters, List<Integer> observations)
+  {
+    return new ForwardBackward().logProbability(parameters, observations);
+  }
+  
+  /**
+   * See exactDataLogProbability() above; the memory used does not grow with the length 
+   * of the sequence, e.g. a MappedObservationSequence.
+   */
+  public static double exactDataLogProbability(HMMParams parameters, ObservationSequence observations)
+  {
+    return new ForwardBackward().logProbability(parameters, observations);
+  }
+  
+  /**
+   * @return The posterior marginals of the latent states, result[t][state], see ForwardBackward
+   */
+  public static double [][] posteriorMarginals(HMMParams parameters, List<Integer> observations)
+  {
+    return new ForwardBackward().posteriorMarginals(parameters, observations);
+  }
+  
+  /**
+   * @return The posterior marginals of the latent states, result[t][state], see ForwardBackward
+   */
+  public static double [][] posteriorMarginals(HMMParams parameters, ObservationSequence observations)
+  {
+    return new ForwardBackward().posteriorMarginals(parameters, observations);
+  }
+  
+  /**
+   * Construct a factor graph, and use the sum product algorithm to 
+   * compute the LOG probability of the data analytically. 
+   * 
+   * Slower than exactDataLogProbability(), kept as a reference implementation.
+   * 
+   * @return The LOG probability of the provided sequence of observations
+   */
+  public static double sumProductDataLogProbability(HMMParams parameters, List<Integer> observations)
   {
     final int len = observations.size();
     UndirectedGraph<Integer, ?> topology = GraphUtils.createChainTopology(len);
@@ -0,0 +1,205 @@
+package simplesmc.hmm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * An ObservationSequence stored in a compact binary file and read through
+ * memory mapping, so that very long sequences are neither boxed nor loaded
+ * in the heap, and opening one is immediate.
+ *
+ * Each observation is packed in 1, 2 or 4 bytes depending on the number of
+ * possible values (e.g. HMMParams.nObservedStates()). Fixed widths (rather than
+ * variable length encodings) keep random access in O(1).
+ *
+ * File format (big endian): a 16 bytes header (magic, bytes per observation,
+ * number of observations as a long), followed by the packed observations.
+ * Files are created with a Writer, see create().
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public final class MappedObservationSequence implements ObservationSequence
+{
+  private static final int MAGIC = 0x534d434f; // "SMCO"
+  private static final int HEADER_SIZE = 16;
+
+  /**
+   * Files larger than 2GB are mapped in several segments; since the header size
+   * and the widths divide the segment size, observations never straddle segments
+   */
+  private static final int SEGMENT_SHIFT = 30;
+  private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+  private final ByteBuffer [] segments;
+  private final int width;
+  private final int size;
+
+  /**
+   * Maps the file created with a Writer (see create()).
+   */
+  public static MappedObservationSequence open(File file)
+  {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+    {
+      final long fileSize = channel.size();
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {}
+      header.flip();
+      if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC)
+        throw new RuntimeException("Not an observation file: " + file);
+      final int width = header.getInt();
+      final long size = header.getLong();
+      if ((width != 1 && width != 2 && width != 4) || size < 0 || size > Integer.MAX_VALUE ||
+          HEADER_SIZE + size * width > fileSize)
+        throw new RuntimeException("Corrupted observation file: " + file);
+
+      final long end = HEADER_SIZE + size * width;
+      final ByteBuffer [] segments = new ByteBuffer[(int) ((end + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+      for (int s = 0; s < segments.length; s++)
+      {
+        final long start = (long) s << SEGMENT_SHIFT;
+        segments[s] = channel.map(MapMode.READ_ONLY, start, Math.min(end - start, 1L << SEGMENT_SHIFT));
+      }
+      return new MappedObservationSequence(segments, width, (int) size);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private MappedObservationSequence(ByteBuffer [] segments, int width, int size)
+  {
+    this.segments = segments;
+    this.width = width;
+    this.size = size;
+  }
+
+  @Override
+  public int size()
+  {
+    return size;
+  }
+
+  @Override
+  public int get(int t)
+  {
+    if (t < 0 || t >= size)
+      throw new IndexOutOfBoundsException("" + t);
+    final long position = HEADER_SIZE + (long) t * width;
+    final ByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+    final int offset = (int) (position & SEGMENT_MASK);
+    switch (width)
+    {
+      case 1  : return segment.get(offset) & 0xff;
+      case 2  : return segment.getChar(offset);
+      default : return segment.getInt(offset);
+    }
+  }
+
+  /**
+   * @return The number of bytes used for each observation
+   */
+  public int width()
+  {
+    return width;
+  }
+
+  /**
+   * @param nValues The number of possible values, e.g. HMMParams.nObservedStates(), or a
+   *   non-positive number if it is infinite
+   * @return A Writer appending to a new file (overwritten if it exists)
+   */
+  public static Writer create(File file, int nValues)
+  {
+    return new Writer(file, nValues);
+  }
+
+  /**
+   * Streams observations to a file readable with open().
+   */
+  public static final class Writer implements Closeable
+  {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+    private final int width, nValues;
+    private long size = 0;
+
+    private Writer(File file, int nValues)
+    {
+      this.nValues = nValues;
+      this.width = nValues > 0 && nValues <= 1 << 8 ? 1 : nValues > 0 && nValues <= 1 << 16 ? 2 : 4;
+      try
+      {
+        this.channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+      buffer.putInt(MAGIC);
+      buffer.putInt(width);
+      buffer.putLong(0L); // size, written by close()
+    }
+
+    public void add(int observation)
+    {
+      if (observation < 0 || (nValues > 0 && observation >= nValues))
+        throw new RuntimeException("Observation out of range: " + observation);
+      if (size == Integer.MAX_VALUE)
+        throw new RuntimeException("Too many observations");
+      if (buffer.remaining() < width)
+        flush();
+      switch (width)
+      {
+        case 1  : buffer.put((byte) observation); break;
+        case 2  : buffer.putChar((char) observation); break;
+        default : buffer.putInt(observation);
+      }
+      size++;
+    }
+
+    private void flush()
+    {
+      buffer.flip();
+      try
+      {
+        while (buffer.hasRemaining())
+          channel.write(buffer);
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+      buffer.clear();
+    }
+
+    @Override
+    public void close()
+    {
+      if (!channel.isOpen())
+        return;
+      flush();
+      buffer.putLong(size);
+      buffer.flip();
+      try
+      {
+        while (buffer.hasRemaining())
+          channel.write(buffer, 8 + buffer.position());
+        channel.close();
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+      buffer.clear();
+    }
+  }
+}
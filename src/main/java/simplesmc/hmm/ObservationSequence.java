@@ -0,0 +1,53 @@
+package simplesmc.hmm;
+
+import java.util.List;
+
+
+/**
+ * A sequence of discrete observations (or latent states) accessed without
+ * boxing, either held in an array (see of()) or backed by a memory mapped
+ * file (see MappedObservationSequence).
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public interface ObservationSequence
+{
+  public int size();
+
+  /**
+   * @param t An index between 0 (inclusive) and size() (exclusive)
+   */
+  public int get(int t);
+
+  /**
+   * @return A sequence holding a copy of the provided observations
+   */
+  public static ObservationSequence of(List<Integer> observations)
+  {
+    final int [] copy = new int[observations.size()];
+    for (int t = 0; t < copy.length; t++)
+      copy[t] = observations.get(t);
+    return of(copy);
+  }
+
+  /**
+   * @return A view of the provided array (not copied)
+   */
+  public static ObservationSequence of(final int [] observations)
+  {
+    return new ObservationSequence()
+    {
+      @Override
+      public int size()
+      {
+        return observations.length;
+      }
+
+      @Override
+      public int get(int t)
+      {
+        return observations[t];
+      }
+    };
+  }
+}
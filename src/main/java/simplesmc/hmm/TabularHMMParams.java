@@ -0,0 +1,140 @@
+package simplesmc.hmm;
+
+import java.util.Random;
+
+import blang.annotations.FactorComponent;
+
+
+/**
+ * HMM parameters backed by dense tables computed from another HMMParams: the 
+ * LOG probabilities are looked up instead of being recomputed at each call, and 
+ * the initial, transition and emission distributions are sampled in O(1) time 
+ * with alias tables (see AliasTable).
+ * 
+ * The tables are rebuilt lazily, the first time they are used after a change of 
+ * the underlying parameters' signature (e.g. after an MCMC move on their 
+ * variables). They are replaced atomically, so the instance can be used by 
+ * several threads.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class TabularHMMParams implements HMMParams
+{
+  /**
+   * The underlying parameters (a FactorComponent, so that blang finds their variables)
+   */
+  @FactorComponent
+  public final HMMParams parameters;
+  
+  private final int nLatentStates, nObservedStates;
+  
+  private static class Tables
+  {
+    private final long signature;
+    private final double [] initialLogPrs, transitionLogPrs, emissionLogPrs;
+    private final AliasTable initialAlias, transitionAlias, emissionAlias;
+    
+    private Tables(HMMParams parameters, int nLatentStates, int nObservedStates)
+    {
+      this.signature = parameters.signature();
+      initialLogPrs = new double[nLatentStates];
+      transitionLogPrs = new double[nLatentStates * nLatentStates];
+      emissionLogPrs = new double[nLatentStates * nObservedStates];
+      for (int latent = 0; latent < nLatentStates; latent++)
+      {
+        initialLogPrs[latent] = parameters.initialLogPr(latent);
+        for (int next = 0; next < nLatentStates; next++)
+          transitionLogPrs[latent * nLatentStates + next] = parameters.transitionLogPr(latent, next);
+        for (int emission = 0; emission < nObservedStates; emission++)
+          emissionLogPrs[latent * nObservedStates + emission] = parameters.emissionLogPr(latent, emission);
+      }
+      initialAlias = new AliasTable(exp(initialLogPrs), 1, nLatentStates);
+      transitionAlias = new AliasTable(exp(transitionLogPrs), nLatentStates, nLatentStates);
+      emissionAlias = new AliasTable(exp(emissionLogPrs), nLatentStates, nObservedStates);
+    }
+    
+    private static double [] exp(double [] logPrs)
+    {
+      final double [] result = new double[logPrs.length];
+      for (int i = 0; i < result.length; i++)
+        result[i] = Math.exp(logPrs[i]);
+      return result;
+    }
+  }
+  private volatile Tables tables = null;
+  
+  @Override
+  public double initialLogPr(int state)
+  {
+    return tables().initialLogPrs[state];
+  }
+
+  @Override
+  public int sampleInitial(Random random)
+  {
+    return tables().initialAlias.sample(random, 0);
+  }
+
+  @Override
+  public double transitionLogPr(int currentState, int nextState)
+  {
+    return tables().transitionLogPrs[currentState * nLatentStates + nextState];
+  }
+
+  @Override
+  public int sampleTransition(Random random, int currentState)
+  {
+    return tables().transitionAlias.sample(random, currentState);
+  }
+
+  @Override
+  public double emissionLogPr(int latentState, int emission)
+  {
+    return tables().emissionLogPrs[latentState * nObservedStates + emission];
+  }
+
+  @Override
+  public int sampleEmission(Random random, int currentState)
+  {
+    return tables().emissionAlias.sample(random, currentState);
+  }
+
+  @Override
+  public int nLatentStates()
+  {
+    return nLatentStates;
+  }
+
+  @Override
+  public int nObservedStates()
+  {
+    return nObservedStates;
+  }
+
+  @Override
+  public long signature()
+  {
+    return parameters.signature();
+  }
+  
+  private Tables tables()
+  {
+    Tables current = tables;
+    if (current == null || current.signature != parameters.signature())
+      tables = current = new Tables(parameters, nLatentStates, nObservedStates);
+    return current;
+  }
+  
+  /**
+   * @param parameters Should have finite numbers of latent and observed states
+   */
+  public TabularHMMParams(HMMParams parameters)
+  {
+    if (parameters.nLatentStates() <= 0 || parameters.nObservedStates() <= 0)
+      throw new RuntimeException("Tabular parameters require finite state spaces");
+    this.parameters = parameters;
+    this.nLatentStates = parameters.nLatentStates();
+    this.nObservedStates = parameters.nObservedStates();
+  }
+}
@@ -0,0 +1,71 @@
+package simplesmc.metrics;
+
+
+/**
+ * What happened during one iteration of an SMC algorithm.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public final class IterationMetrics
+{
+  /**
+   * Index of the population produced by the iteration (0 for the initial one)
+   */
+  public final int iteration;
+  
+  public final int nParticles;
+  
+  /**
+   * Relative ESS after proposing (before resampling)
+   */
+  public final double relativeESS;
+  
+  /**
+   * Whether the population was resampled at the end of the iteration
+   */
+  public final boolean resampled;
+  
+  /**
+   * Increment of the LOG normalization estimate (i.e. of logScaling)
+   */
+  public final double logScalingIncrement;
+  
+  /**
+   * LOG normalization estimate after the iteration
+   */
+  public final double logNormEstimate;
+  
+  /**
+   * Wall time spent proposing, normalizing the weights and resampling, in nanoseconds
+   */
+  public final long proposalNanos, normalizationNanos, resamplingNanos;
+  
+  /**
+   * Number of particles processed per second of wall time, over the whole iteration
+   */
+  public final double particlesPerSecond;
+  
+  public IterationMetrics(int iteration, int nParticles, double relativeESS, boolean resampled, 
+      double logScalingIncrement, double logNormEstimate, long proposalNanos, long normalizationNanos, 
+      long resamplingNanos)
+  {
+    this.iteration = iteration;
+    this.nParticles = nParticles;
+    this.relativeESS = relativeESS;
+    this.resampled = resampled;
+    this.logScalingIncrement = logScalingIncrement;
+    this.logNormEstimate = logNormEstimate;
+    this.proposalNanos = proposalNanos;
+    this.normalizationNanos = normalizationNanos;
+    this.resamplingNanos = resamplingNanos;
+    final long totalNanos = proposalNanos + normalizationNanos + resamplingNanos;
+    this.particlesPerSecond = totalNanos == 0 ? Double.POSITIVE_INFINITY : nParticles * 1e9 / totalNanos;
+  }
+  
+  @Override
+  public String toString()
+  {
+    return "iteration=" + iteration + ", relativeESS=" + relativeESS + ", resampled=" + resampled + 
+        ", logScalingIncrement=" + logScalingIncrement + ", particlesPerSecond=" + particlesPerSecond;
+  }
+}
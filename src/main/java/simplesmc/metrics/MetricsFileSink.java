@@ -0,0 +1,93 @@
+package simplesmc.metrics;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import com.google.gson.Gson;
+
+
+/**
+ * Writes the metrics of each iteration to a file, one line per iteration, either 
+ * as CSV (with a header) or as JSON lines.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class MetricsFileSink implements SMCListener, Closeable
+{
+  public static enum Format { CSV, JSON }
+  
+  public static final String CSV_HEADER = 
+    "iteration,nParticles,relativeESS,resampled,logScalingIncrement,logNormEstimate," + 
+    "proposalNanos,normalizationNanos,resamplingNanos,particlesPerSecond";
+  
+  private final BufferedWriter writer;
+  private final Format format;
+  private final Gson gson = new Gson();
+  
+  @Override
+  public void iterationCompleted(IterationMetrics metrics)
+  {
+    try
+    {
+      writer.write(format == Format.CSV ? csv(metrics) : gson.toJson(metrics));
+      writer.newLine();
+    } 
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  private static String csv(IterationMetrics metrics)
+  {
+    return 
+      metrics.iteration + "," + 
+      metrics.nParticles + "," + 
+      metrics.relativeESS + "," + 
+      metrics.resampled + "," + 
+      metrics.logScalingIncrement + "," + 
+      metrics.logNormEstimate + "," + 
+      metrics.proposalNanos + "," + 
+      metrics.normalizationNanos + "," + 
+      metrics.resamplingNanos + "," + 
+      metrics.particlesPerSecond;
+  }
+  
+  /**
+   * Flushes and closes the file
+   */
+  @Override
+  public void close()
+  {
+    try
+    {
+      writer.close();
+    } 
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  public MetricsFileSink(File file, Format format)
+  {
+    this.format = format;
+    try
+    {
+      this.writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+      if (format == Format.CSV)
+      {
+        writer.write(CSV_HEADER);
+        writer.newLine();
+      }
+    } 
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+}
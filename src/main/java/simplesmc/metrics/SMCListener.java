@@ -0,0 +1,27 @@
+package simplesmc.metrics;
+
+
+/**
+ * Receives the metrics of each iteration of an SMC algorithm (see 
+ * SMCAlgorithm.setListener()). Called by the thread running the algorithm, 
+ * after the iteration is complete.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+@FunctionalInterface
+public interface SMCListener
+{
+  public void iterationCompleted(IterationMetrics metrics);
+  
+  /**
+   * @return A listener forwarding the metrics to all the provided listeners
+   */
+  public static SMCListener all(final SMCListener ... listeners)
+  {
+    return metrics -> 
+    {
+      for (SMCListener listener : listeners)
+        listener.iterationCompleted(metrics);
+    };
+  }
+}
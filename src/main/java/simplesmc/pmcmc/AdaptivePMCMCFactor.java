@@ -0,0 +1,140 @@
+package simplesmc.pmcmc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import blang.annotations.FactorComponent;
+import blang.factors.Factor;
+import simplesmc.SMCAlgorithm;
+
+
+/**
+ * A PMCMC likelihood (see PMCMCFactor) which also tunes the number of particles 
+ * during burn-in, so that the variance of the estimate of the log likelihood is 
+ * close to a target (about 1 is recommended by Doucet et al., 2015).
+ * 
+ * Every options.tuningPeriod evaluations, the SMC algorithm is run 
+ * options.nReplicates times at the current parameters, and since the variance 
+ * is roughly inversely proportional to the number of particles, the number of 
+ * particles is scaled by the ratio of the estimated variance to the target. 
+ * After options.nTunings tunings, the number of particles is fixed, so the
+ * samples after burn-in are those of a standard PMCMC chain.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P>
+ */
+public class AdaptivePMCMCFactor<P> implements Factor
+{
+  private static final Logger logger = Logger.getLogger(AdaptivePMCMCFactor.class.getName());
+  
+  /**
+   * The parameters, see PMCMCFactor.
+   */
+  @FactorComponent
+  public final WithSignature params;
+  
+  private final SMCAlgorithm<P> smcAlgorithm;
+  private final TuningOptions options;
+  private final SignatureCache cache = new SignatureCache(10);
+  private final List<Tuning> tunings = new ArrayList<>();
+  private int nCalls = 0;
+  
+  /**
+   * The outcome of one tuning
+   */
+  public static class Tuning
+  {
+    /**
+     * Number of likelihood evaluations before the tuning
+     */
+    public final int nCalls;
+    
+    /**
+     * Number of particles used to estimate the variance
+     */
+    public final int nParticles;
+    
+    /**
+     * Estimated variance of the estimate of the log likelihood
+     */
+    public final double variance;
+    
+    /**
+     * Number of particles chosen for the next evaluations
+     */
+    public final int newNParticles;
+    
+    private Tuning(int nCalls, int nParticles, double variance, int newNParticles)
+    {
+      this.nCalls = nCalls;
+      this.nParticles = nParticles;
+      this.variance = variance;
+      this.newNParticles = newNParticles;
+    }
+    
+    @Override
+    public String toString()
+    {
+      return "nCalls=" + nCalls + ", nParticles=" + nParticles + ", variance=" + variance + ", newNParticles=" + newNParticles;
+    }
+  }
+  
+  @Override
+  public double logDensity()
+  {
+    if (tunings.size() < options.nTunings && nCalls % options.tuningPeriod == 0)
+      tune();
+    nCalls++;
+    return cache.get(params.signature(), () -> smcAlgorithm.sample().logNormEstimate());
+  }
+  
+  /**
+   * @return The tunings performed so far, in order
+   */
+  public List<Tuning> getTunings()
+  {
+    return Collections.unmodifiableList(tunings);
+  }
+  
+  private void tune()
+  {
+    final int nParticles = smcAlgorithm.nParticles();
+    // Welford's algorithm: the log likelihoods can be large compared to their 
+    // spread, so the sum of squares minus the squared mean would cancel
+    double mean = 0.0, sumOfSquaredDeviations = 0.0;
+    for (int replicate = 0; replicate < options.nReplicates; replicate++)
+    {
+      final double estimate = smcAlgorithm.sample().logNormEstimate();
+      final double delta = estimate - mean;
+      mean += delta / (replicate + 1);
+      sumOfSquaredDeviations += delta * (estimate - mean);
+    }
+    final double variance = sumOfSquaredDeviations / (options.nReplicates - 1);
+    
+    // a non-finite variance (e.g. all particles with zero weight) means far too few particles
+    final double scaled = Double.isFinite(variance) ? nParticles * variance / options.targetVariance : 2.0 * nParticles;
+    final int newNParticles = (int) Math.max(options.minParticles, Math.min(options.maxParticles, Math.round(scaled)));
+    smcAlgorithm.setNParticles(newNParticles);
+    
+    final Tuning tuning = new Tuning(nCalls, nParticles, variance, newNParticles);
+    tunings.add(tuning);
+    logger.info("Tuning of the number of particles: " + tuning);
+  }
+  
+  public AdaptivePMCMCFactor(WithSignature params, SMCAlgorithm<P> smcAlgorithm)
+  {
+    this(params, smcAlgorithm, new TuningOptions());
+  }
+
+  public AdaptivePMCMCFactor(WithSignature params, SMCAlgorithm<P> smcAlgorithm, TuningOptions options)
+  {
+    if (options.nReplicates < 2)
+      throw new RuntimeException("At least two replicates are needed to estimate the variance");
+    this.params = params;
+    this.smcAlgorithm = smcAlgorithm;
+    this.options = options;
+  }
+}
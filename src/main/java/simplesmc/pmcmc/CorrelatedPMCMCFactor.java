@@ -0,0 +1,112 @@
+package simplesmc.pmcmc;
+
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+import blang.annotations.FactorComponent;
+import blang.factors.Factor;
+import simplesmc.AuxiliaryRandomness;
+import simplesmc.SMCAlgorithm;
+
+
+/**
+ * A likelihood approximated using correlated pseudo-marginal PMCMC: 
+ * the auxiliary randomness of the SMC algorithm is part of the state of 
+ * the chain, and is refreshed by a Crank-Nicolson move (see 
+ * AuxiliaryRandomness.refresh()) each time the parameters are 
+ * changed. 
+ * 
+ * The estimates at the current and proposed parameters are then strongly 
+ * correlated, so the noise in their ratio is much smaller than with 
+ * PMCMCFactor, and far fewer particles are needed for a reasonable 
+ * acceptance rate.
+ * 
+ * As in PMCMCFactor, the parameters' signature is used to detect changes: 
+ * a call with a new signature is treated as a joint proposal of the 
+ * parameters and the auxiliary randomness; if the next call has the 
+ * proposed signature, the proposal was accepted, and if it has the current 
+ * one, the proposal was rejected and the previous auxiliary randomness is kept.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P>
+ */
+public class CorrelatedPMCMCFactor<P> implements Factor
+{
+  /**
+   * The parameters, see PMCMCFactor.
+   */
+  @FactorComponent
+  public final WithSignature params;
+  
+  private final SMCAlgorithm<P> smcAlgorithm;
+  private final ToDoubleFunction<P> sortKey;
+  private final Random random;
+  
+  /**
+   * Correlation of the Crank-Nicolson move, typically close to 1 (e.g. 0.99)
+   */
+  public final double correlation;
+  
+  private AuxiliaryRandomness currentRandomness, proposedRandomness;
+  private Long currentSignature = null, proposedSignature = null;
+  private double currentLogDensity, proposedLogDensity;
+  
+  @Override
+  public double logDensity()
+  {
+    final long signature = params.signature();
+    
+    if (currentSignature != null && signature == currentSignature)
+    {
+      // the previous proposal, if any, was rejected
+      proposedSignature = null;
+      proposedRandomness = null;
+      return currentLogDensity;
+    }
+    
+    if (proposedSignature != null && signature == proposedSignature)
+    {
+      // the previous proposal was accepted
+      currentSignature = proposedSignature;
+      currentRandomness = proposedRandomness;
+      currentLogDensity = proposedLogDensity;
+      proposedSignature = null;
+      proposedRandomness = null;
+      return currentLogDensity;
+    }
+    
+    if (currentSignature == null)
+    {
+      currentSignature = signature;
+      currentLogDensity = smcAlgorithm.sampleCorrelated(currentRandomness, sortKey).logNormEstimate();
+      return currentLogDensity;
+    }
+    
+    // new proposal
+    proposedSignature = signature;
+    proposedRandomness = currentRandomness.refresh(random, correlation);
+    proposedLogDensity = smcAlgorithm.sampleCorrelated(proposedRandomness, sortKey).logNormEstimate();
+    return proposedLogDensity;
+  }
+  
+  /**
+   * @param params
+   * @param smcAlgorithm
+   * @param sortKey Used to sort the particles before resampling, see SMCAlgorithm.sampleCorrelated()
+   * @param normalsPerProposal Number of normals replayed for each proposal (further draws are 
+   *   not correlated), see AuxiliaryRandomness
+   * @param correlation Correlation of the Crank-Nicolson move
+   * @param random Used to sample and refresh the auxiliary randomness
+   */
+  public CorrelatedPMCMCFactor(WithSignature params, SMCAlgorithm<P> smcAlgorithm, ToDoubleFunction<P> sortKey, 
+      int normalsPerProposal, double correlation, Random random)
+  {
+    this.params = params;
+    this.smcAlgorithm = smcAlgorithm;
+    this.sortKey = sortKey;
+    this.correlation = correlation;
+    this.random = random;
+    this.currentRandomness = AuxiliaryRandomness.sample(random, smcAlgorithm.proposal.nIterations(), smcAlgorithm.nParticles(), normalsPerProposal);
+  }
+}
@@ -1,8 +1,5 @@
 package simplesmc.pmcmc;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-
 import blang.annotations.FactorComponent;
 import blang.factors.Factor;
 import simplesmc.SMCAlgorithm;
@@ -35,25 +32,35 @@ public class PMCMCFactor<P> implements Factor
    * Used to remember the likelihood values associated with 
    * the recent calls.
    */
-  private final Cache<Long, Double> cache = CacheBuilder.newBuilder().maximumSize(10).build();
+  private final SignatureCache cache;
   
   @Override
   public double logDensity()
   {
-    final long currentSignature = params.signature();
-    
-    if (cache.getIfPresent(currentSignature) != null)
-      return cache.getIfPresent(currentSignature);
-    
-    final double result = smcAlgorithm.sample().logNormEstimate();
-    cache.put(currentSignature, result);
-    
-    return result;
+    return cache.get(params.signature(), () -> smcAlgorithm.sample().logNormEstimate());
+  }
+  
+  /**
+   * @return The cache, e.g. to monitor the number of hits and misses
+   */
+  public SignatureCache getCache()
+  {
+    return cache;
   }
 
   public PMCMCFactor(WithSignature params, SMCAlgorithm<P> smcAlgorithm)
+  {
+    this(params, smcAlgorithm, new SignatureCache(10));
+  }
+  
+  /**
+   * @param cache The cache, e.g. shared with a sampler prefetching estimates 
+   *   (see SignatureCache.prefetch())
+   */
+  public PMCMCFactor(WithSignature params, SMCAlgorithm<P> smcAlgorithm, SignatureCache cache)
   {
     this.params = params;
     this.smcAlgorithm = smcAlgorithm;
+    this.cache = cache;
   }
 }
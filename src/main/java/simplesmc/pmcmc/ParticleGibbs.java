@@ -0,0 +1,91 @@
+package simplesmc.pmcmc;
+
+import java.util.List;
+import java.util.Random;
+
+import bayonet.smc.ParticlePopulation;
+import simplesmc.AncestorSamplingSpecification;
+import simplesmc.SMCAlgorithm;
+import simplesmc.genealogy.Genealogy;
+
+
+/**
+ * Particle Gibbs, optionally with ancestor sampling: each call to sample() 
+ * performs a conditional SMC sweep given the current reference trajectory, 
+ * and draws the next reference from the resulting population.
+ * 
+ * With ancestor sampling, this mixes well even with few particles, contrary 
+ * to PMMH (PMCMCFactor), which requires a low variance estimate of Z.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P> The type (class) of the individual particles
+ */
+public class ParticleGibbs<P>
+{
+  private final SMCAlgorithm<P> smcAlgorithm;
+  private final boolean ancestorSampling;
+  private final Random random;
+  private final Genealogy<P> genealogy = new Genealogy<>();
+  private List<P> referenceTrajectory = null;
+  
+  /**
+   * Performs one particle Gibbs sweep (the first one is an unconditional SMC run).
+   * 
+   * @return The new reference trajectory
+   */
+  public List<P> sample()
+  {
+    ParticlePopulation<P> population = referenceTrajectory == null ?
+      smcAlgorithm.sample(genealogy) :
+      smcAlgorithm.sampleConditional(referenceTrajectory, ancestorSampling, genealogy);
+    referenceTrajectory = genealogy.sampleTrajectory(random, population);
+    return referenceTrajectory;
+  }
+  
+  /**
+   * @return The current reference trajectory, or null if sample() was not called yet
+   */
+  public List<P> getReferenceTrajectory()
+  {
+    return referenceTrajectory;
+  }
+  
+  /**
+   * Requires the proposal to be an AncestorSamplingSpecification (it uses its 
+   * logWeightUpdate() and proposalLogDensity()).
+   * 
+   * @return The LOG of the unnormalized target density at the current reference trajectory 
+   *   (e.g. the joint LOG probability of the latent states and the data in an HMM)
+   */
+  public double completeDataLogDensity()
+  {
+    if (referenceTrajectory == null)
+      sample();
+    if (!(smcAlgorithm.proposal instanceof AncestorSamplingSpecification))
+      throw new RuntimeException("The complete data density requires an AncestorSamplingSpecification");
+    final AncestorSamplingSpecification<P> proposal = (AncestorSamplingSpecification<P>) smcAlgorithm.proposal;
+    double sum = 0.0;
+    P previous = null;
+    for (int iteration = 0; iteration < referenceTrajectory.size(); iteration++)
+    {
+      final P current = referenceTrajectory.get(iteration);
+      sum += proposal.logWeightUpdate(iteration - 1, previous, current);
+      sum += proposal.proposalLogDensity(iteration - 1, previous, current);
+      previous = current;
+    }
+    return sum;
+  }
+  
+  /**
+   * @param smcAlgorithm
+   * @param ancestorSampling Whether to resample the ancestors of the reference trajectory
+   * @param random Used to pick the next reference trajectory
+   */
+  public ParticleGibbs(SMCAlgorithm<P> smcAlgorithm, boolean ancestorSampling, Random random)
+  {
+    this.smcAlgorithm = smcAlgorithm;
+    this.ancestorSampling = ancestorSampling;
+    this.random = random;
+  }
+}
@@ -0,0 +1,63 @@
+package simplesmc.pmcmc;
+
+import java.util.Random;
+
+import simplesmc.SMCAlgorithm;
+import blang.annotations.FactorComponent;
+import blang.factors.Factor;
+
+
+/**
+ * A likelihood (factor in a factor graph) for particle Gibbs: 
+ * conditionally on the current latent trajectory, the likelihood of the 
+ * static parameters is the complete data density, which is exact, so the 
+ * usual blang samplers can be used for the parameters.
+ * 
+ * The latent trajectory is refreshed by calling updateTrajectory() (one 
+ * conditional SMC sweep, see ParticleGibbs), to be interleaved with the 
+ * parameter moves, e.g. once per MCMC scan.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <P>
+ */
+public class ParticleGibbsFactor<P> implements Factor
+{
+  /**
+   * The parameters, see PMCMCFactor.
+   */
+  @FactorComponent
+  public final WithSignature params;
+  
+  private final ParticleGibbs<P> particleGibbs;
+  
+  @Override
+  public double logDensity()
+  {
+    return particleGibbs.completeDataLogDensity();
+  }
+  
+  /**
+   * Performs one particle Gibbs sweep given the current parameters.
+   */
+  public void updateTrajectory()
+  {
+    particleGibbs.sample();
+  }
+  
+  public ParticleGibbs<P> getParticleGibbs()
+  {
+    return particleGibbs;
+  }
+  
+  public ParticleGibbsFactor(WithSignature params, ParticleGibbs<P> particleGibbs)
+  {
+    this.params = params;
+    this.particleGibbs = particleGibbs;
+  }
+  
+  public ParticleGibbsFactor(WithSignature params, SMCAlgorithm<P> smcAlgorithm, Random random)
+  {
+    this(params, new ParticleGibbs<>(smcAlgorithm, true, random));
+  }
+}
@@ -0,0 +1,205 @@
+package simplesmc.pmcmc;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A thread safe cache of likelihood estimates keyed by the parameters' signature 
+ * (see WithSignature), which can also compute estimates ahead of time (see prefetch()).
+ * 
+ * Entries are evicted in least-recently-used order. Each estimate is computed at 
+ * most once while it is in the cache: a call to get() for an estimate still being 
+ * computed waits for it instead of starting a new computation, so that a rejected 
+ * move reuses the estimate of the current state, as required by PMCMC.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class SignatureCache
+{
+  private final int maximumSize;
+  
+  /**
+   * Used to compute the prefetched estimates, or null if prefetching is not supported
+   */
+  private final ExecutorService executor;
+  
+  /**
+   * In access order, guarded by synchronizing on this
+   */
+  private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  
+  private final AtomicLong nHits = new AtomicLong(), nMisses = new AtomicLong(), nWasted = new AtomicLong();
+  
+  private static class Entry
+  {
+    private final FutureTask<Double> task;
+    private final boolean prefetched;
+    private boolean used = false;
+    
+    private Entry(Callable<Double> computation, boolean prefetched)
+    {
+      this.task = new FutureTask<>(computation);
+      this.prefetched = prefetched;
+    }
+  }
+  
+  /**
+   * @return The estimate associated with the signature, computing it in the 
+   *   calling thread if it is neither in the cache nor being prefetched
+   */
+  public double get(long signature, Callable<Double> computation)
+  {
+    final Entry entry;
+    boolean computeHere = false;
+    synchronized (this)
+    {
+      Entry found = entries.get(signature);
+      if (found == null)
+      {
+        found = new Entry(computation, false);
+        put(signature, found);
+        computeHere = true;
+        nMisses.incrementAndGet();
+      }
+      else
+        nHits.incrementAndGet();
+      found.used = true;
+      entry = found;
+    }
+    if (computeHere)
+      entry.task.run();
+    return value(entry.task);
+  }
+  
+  /**
+   * Starts computing the estimate in the background, unless the signature is already 
+   * in the cache.
+   */
+  public void prefetch(long signature, Callable<Double> computation)
+  {
+    if (executor == null)
+      throw new RuntimeException("Prefetching requires an executor");
+    final Entry entry;
+    synchronized (this)
+    {
+      if (entries.containsKey(signature))
+        return;
+      entry = new Entry(computation, true);
+      put(signature, entry);
+    }
+    executor.execute(entry.task);
+  }
+  
+  /**
+   * Removes all the entries except those with the provided signatures, e.g. the 
+   * speculative estimates which turned out not to be needed. Those which did not 
+   * start yet are cancelled.
+   */
+  public synchronized void retainOnly(Collection<Long> signatures)
+  {
+    for (Iterator<Map.Entry<Long, Entry>> iterator = entries.entrySet().iterator(); iterator.hasNext(); )
+    {
+      Map.Entry<Long, Entry> current = iterator.next();
+      if (!signatures.contains(current.getKey()))
+      {
+        discard(current.getValue());
+        iterator.remove();
+      }
+    }
+  }
+  
+  /**
+   * @return Number of calls to get() served by an estimate in the cache (possibly 
+   *   waiting for a prefetch to complete)
+   */
+  public long nHits()
+  {
+    return nHits.get();
+  }
+  
+  /**
+   * @return Number of calls to get() which had to compute the estimate
+   */
+  public long nMisses()
+  {
+    return nMisses.get();
+  }
+  
+  /**
+   * @return Number of prefetched estimates removed from the cache without being used
+   *   (including those cancelled before they started)
+   */
+  public long nWasted()
+  {
+    return nWasted.get();
+  }
+  
+  public synchronized int size()
+  {
+    return entries.size();
+  }
+  
+  private void put(long signature, Entry entry)
+  {
+    entries.put(signature, entry);
+    for (Iterator<Entry> iterator = entries.values().iterator(); entries.size() > maximumSize; )
+    {
+      discard(iterator.next());
+      iterator.remove();
+    }
+  }
+  
+  private void discard(Entry entry)
+  {
+    if (entry.prefetched && !entry.used)
+    {
+      nWasted.incrementAndGet();
+      entry.task.cancel(false);
+    }
+  }
+  
+  private static double value(FutureTask<Double> task)
+  {
+    try
+    {
+      return task.get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e)
+    {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+  
+  /**
+   * A cache without prefetching
+   */
+  public SignatureCache(int maximumSize)
+  {
+    this(maximumSize, null);
+  }
+  
+  /**
+   * @param maximumSize Maximum number of estimates kept
+   * @param executor Threads used by prefetch()
+   */
+  public SignatureCache(int maximumSize, ExecutorService executor)
+  {
+    if (maximumSize < 1)
+      throw new RuntimeException("The cache should have a positive size: " + maximumSize);
+    this.maximumSize = maximumSize;
+    this.executor = executor;
+  }
+}
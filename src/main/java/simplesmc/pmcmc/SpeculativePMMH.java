@@ -0,0 +1,172 @@
+package simplesmc.pmcmc;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.function.BiFunction;
+import java.util.function.ToDoubleBiFunction;
+import java.util.function.ToDoubleFunction;
+
+
+/**
+ * Particle marginal Metropolis-Hastings (PMMH) where the likelihood estimates 
+ * of the next steps are computed speculatively and in parallel, so that a single 
+ * chain can use many cores even when each SMC run is small.
+ * 
+ * Every depth steps, the tree of all the states the chain can visit in the next 
+ * depth steps is built: each node proposes a state from its own random stream, the 
+ * left child of a node corresponds to rejecting that proposal, and the right child, to 
+ * accepting it. The estimates for all the 2^depth - 1 proposals of the tree are 
+ * prefetched in the SignatureCache (breadth first, so the nearest steps are computed 
+ * first), then the chain walks down the tree, waiting for the estimates it needs. The
+ * other estimates are wasted work (see SignatureCache.nWasted()): about one proposal 
+ * out of depth ones is used.
+ * 
+ * Since each node has its own random streams, the chain does not depend on the number 
+ * of threads.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ * @param <S> The type of the parameters
+ */
+public class SpeculativePMMH<S extends WithSignature>
+{
+  private final BiFunction<Random, S, S> proposal;
+  private final ToDoubleFunction<S> logPrior;
+  private final ToDoubleBiFunction<S, Random> logLikelihoodEstimate;
+  private final SignatureCache cache;
+  private final Random random;
+  
+  private S current;
+  private double currentLogPrior;
+  private long currentSeed;
+  
+  /**
+   * The current tree (indexed as a binary heap, starting at 1), and the 
+   * position of the chain in it.
+   */
+  private final Random [] nodeRandoms;
+  private final long [] nodeSeeds;
+  private final Object [] nodeProposals;
+  private final double [] nodeLogPriors;
+  private int node;
+  private int nSteps = 0, nAccepted = 0;
+  
+  /**
+   * Performs one Metropolis-Hastings step.
+   * 
+   * @return The new state of the chain
+   */
+  public S next()
+  {
+    if (node >= nodeRandoms.length)
+      buildTree();
+    
+    @SuppressWarnings("unchecked")
+    final S proposed = (S) nodeProposals[node];
+    final double proposedLogPrior = nodeLogPriors[node];
+    final double logUniform = Math.log(nodeRandoms[node].nextDouble());
+    boolean accept = false;
+    if (proposedLogPrior != Double.NEGATIVE_INFINITY)
+    {
+      final double logRatio = 
+        proposedLogPrior + logLikelihood(proposed, nodeSeeds[node]) 
+          - currentLogPrior - logLikelihood(current, currentSeed);
+      accept = logUniform < logRatio;
+    }
+    
+    nSteps++;
+    if (accept)
+    {
+      nAccepted++;
+      current = proposed;
+      currentLogPrior = proposedLogPrior;
+      currentSeed = nodeSeeds[node];
+      node = 2 * node + 1;
+    }
+    else
+      node = 2 * node;
+    
+    return current;
+  }
+  
+  public S getCurrentState()
+  {
+    return current;
+  }
+  
+  public double acceptanceRate()
+  {
+    return ((double) nAccepted) / nSteps;
+  }
+  
+  private void buildTree()
+  {
+    // only the current estimate can be reused from the previous tree
+    cache.retainOnly(Collections.singleton(current.signature()));
+    
+    final SplittableRandom splitRandom = new SplittableRandom(random.nextLong());
+    @SuppressWarnings("unchecked")
+    final S [] nodeStates = (S[]) new WithSignature[nodeRandoms.length];
+    nodeStates[1] = current;
+    for (int i = 1; i < nodeRandoms.length; i++)
+    {
+      nodeRandoms[i] = new Random(splitRandom.split().nextLong());
+      nodeSeeds[i] = splitRandom.split().nextLong();
+      final S proposed = proposal.apply(nodeRandoms[i], nodeStates[i]);
+      nodeProposals[i] = proposed;
+      nodeLogPriors[i] = logPrior.applyAsDouble(proposed);
+      if (nodeLogPriors[i] != Double.NEGATIVE_INFINITY)
+        prefetch(proposed, nodeSeeds[i]);
+      if (2 * i < nodeRandoms.length)
+      {
+        nodeStates[2 * i] = nodeStates[i];
+        nodeStates[2 * i + 1] = proposed;
+      }
+    }
+    node = 1;
+  }
+  
+  private double logLikelihood(S state, long seed)
+  {
+    return cache.get(state.signature(), () -> logLikelihoodEstimate.applyAsDouble(state, new Random(seed)));
+  }
+  
+  private void prefetch(S state, long seed)
+  {
+    cache.prefetch(state.signature(), () -> logLikelihoodEstimate.applyAsDouble(state, new Random(seed)));
+  }
+  
+  /**
+   * @param initial The initial state of the chain
+   * @param proposal A symmetric proposal, which should return a new object (the states are 
+   *   used concurrently, so they should not be modified)
+   * @param logPrior 
+   * @param logLikelihoodEstimate An estimate of the log likelihood using the provided random
+   *   stream, for example the logNormEstimate() of an SMCAlgorithm using options.random = random
+   *   and options.nThreads = 1. Called concurrently for different states.
+   * @param depth Number of steps for which the estimates are prefetched
+   * @param cache Holds the estimates, should have a size of at least 2^depth and an executor
+   * @param random
+   */
+  public SpeculativePMMH(S initial, BiFunction<Random, S, S> proposal, ToDoubleFunction<S> logPrior, 
+      ToDoubleBiFunction<S, Random> logLikelihoodEstimate, int depth, SignatureCache cache, Random random)
+  {
+    if (depth < 1 || depth > 20)
+      throw new RuntimeException("The depth should be between 1 and 20: " + depth);
+    this.proposal = proposal;
+    this.logPrior = logPrior;
+    this.logLikelihoodEstimate = logLikelihoodEstimate;
+    this.cache = cache;
+    this.random = random;
+    this.current = initial;
+    this.currentLogPrior = logPrior.applyAsDouble(initial);
+    this.currentSeed = random.nextLong();
+    final int nNodes = 1 << depth;
+    this.nodeRandoms = new Random[nNodes];
+    this.nodeSeeds = new long[nNodes];
+    this.nodeProposals = new Object[nNodes];
+    this.nodeLogPriors = new double[nNodes];
+    this.node = nNodes;
+  }
+}
@@ -0,0 +1,31 @@
+package simplesmc.pmcmc;
+
+import briefj.opt.Option;
+
+
+/**
+ * Command line options for the tuning of the number of particles in PMCMC 
+ * (see AdaptivePMCMCFactor)
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class TuningOptions
+{
+  @Option(gloss = "Target variance of the estimate of the log likelihood")
+  public double targetVariance = 1.0;
+  
+  @Option(gloss = "Number of SMC runs used to estimate the variance")
+  public int nReplicates = 10;
+  
+  @Option(gloss = "Number of likelihood evaluations between two tunings")
+  public int tuningPeriod = 100;
+  
+  @Option(gloss = "Number of tunings, after which the number of particles is fixed (should be within burn-in)")
+  public int nTunings = 5;
+  
+  @Option(gloss = "Minimum number of particles")
+  public int minParticles = 10;
+  
+  @Option(gloss = "Maximum number of particles")
+  public int maxParticles = 1_000_000;
+}
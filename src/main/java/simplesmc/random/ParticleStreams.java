@@ -0,0 +1,94 @@
+package simplesmc.random;
+
+import java.util.Random;
+
+import simplesmc.WorkerPool;
+
+
+/**
+ * Per-particle random streams derived on demand from (seed, iteration, particle index), 
+ * with no object per particle: each thread keys a small pool of StreamRandoms for 
+ * a block of BLOCK_SIZE particles at a time. As with the stateful streams, the 
+ * results do not depend on the number of threads.
+ * 
+ * The Random of a particle index is only valid while its block is processed: 
+ * proposals should not keep references to them.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public final class ParticleStreams
+{
+  /**
+   * Maximum number of particles processed in a call to the BlockProcessor
+   */
+  public static final int BLOCK_SIZE = 256;
+  
+  private final ThreadLocal<StreamRandom []> pools;
+  
+  /**
+   * Indexed by particle; entry i points to the pooled StreamRandom keyed for particle i 
+   * while its block is processed. Only references, reused across calls.
+   */
+  private Random [] streams = new Random[0];
+  
+  public ParticleStreams(RandomStreams type)
+  {
+    if (type.create() == null)
+      throw new RuntimeException("Not a keyed stream type: " + type);
+    this.pools = ThreadLocal.withInitial(() -> 
+    {
+      final StreamRandom [] pool = new StreamRandom[BLOCK_SIZE];
+      for (int i = 0; i < BLOCK_SIZE; i++)
+        pool[i] = type.create();
+      return pool;
+    });
+  }
+  
+  /**
+   * Processes the particle indices 0, 1, .., nParticles - 1 with the provided workers, 
+   * in blocks of at most BLOCK_SIZE, after keying the stream of each particle index 
+   * with (seed, iteration, index).
+   */
+  public void process(WorkerPool workers, int nParticles, final long seed, final int iteration, final BlockProcessor processor)
+  {
+    process(workers, 0, nParticles, seed, iteration, processor);
+  }
+  
+  /**
+   * As process(), for the particles of a larger population with indices firstIndex, 
+   * firstIndex + 1, ..., firstIndex + nParticles - 1 (e.g. those of one node of 
+   * DistributedSMCAlgorithm): the stream of local index i is keyed with 
+   * (seed, iteration, firstIndex + i), while the processor receives the local indices.
+   */
+  public void process(WorkerPool workers, final int firstIndex, int nParticles, final long seed, final int iteration, 
+      final BlockProcessor processor)
+  {
+    if (streams.length < nParticles)
+      streams = new Random[nParticles];
+    final Random [] streams = this.streams;
+    workers.process(nParticles, (fromIndex, toIndex) ->
+    {
+      final StreamRandom [] pool = pools.get();
+      for (int blockStart = fromIndex; blockStart < toIndex; blockStart += BLOCK_SIZE)
+      {
+        final int blockEnd = Math.min(toIndex, blockStart + BLOCK_SIZE);
+        for (int particle = blockStart; particle < blockEnd; particle++)
+        {
+          final StreamRandom random = pool[particle - blockStart];
+          random.setStream(seed, iteration, firstIndex + particle);
+          streams[particle] = random;
+        }
+        processor.process(streams, blockStart, blockEnd);
+      }
+    });
+  }
+  
+  @FunctionalInterface
+  public static interface BlockProcessor
+  {
+    /**
+     * @param randoms The random stream of each particle index in [fromIndex, toIndex)
+     */
+    public void process(Random [] randoms, int fromIndex, int toIndex);
+  }
+}
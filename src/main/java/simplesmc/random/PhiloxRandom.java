@@ -0,0 +1,103 @@
+package simplesmc.random;
+
+
+/**
+ * The Philox4x32-10 counter-based generator (Salmon et al., 2011, "Parallel random 
+ * numbers: as easy as 1, 2, 3"): each block of 128 random bits is a keyed bijection 
+ * of a 128 bits counter. The key is the seed, and the counter holds the 
+ * particle index, the iteration and the position in the stream, so the streams of 
+ * distinct (iteration, particle) are distinct by construction.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public final class PhiloxRandom extends StreamRandom
+{
+  private static final long serialVersionUID = 1L;
+  
+  private static final int 
+    M0 = 0xD2511F53, M1 = 0xCD9E8D57,
+    W0 = 0x9E3779B9, W1 = 0xBB67AE85;
+  private static final int N_ROUNDS = 10;
+  
+  // note: only primitive fields, see StreamRandom.setSeed()
+  private int key0, key1, iteration, particle;
+  
+  /**
+   * Position in the stream, in blocks of 4 ints
+   */
+  private long blockIndex;
+  
+  private int output0, output1, output2, output3;
+  
+  /**
+   * Number of ints of the current block already returned (4 when a new block is needed)
+   */
+  private int used;
+  
+  @Override
+  protected void key(long seed, int iteration, int particle)
+  {
+    this.key0 = (int) seed;
+    this.key1 = (int) (seed >>> 32);
+    this.iteration = iteration;
+    this.particle = particle;
+    this.blockIndex = 0;
+    this.used = 4;
+  }
+  
+  @Override
+  protected int nextBits()
+  {
+    if (used == 4)
+    {
+      block((int) blockIndex, particle, iteration, (int) (blockIndex >>> 32));
+      blockIndex++;
+      used = 0;
+    }
+    switch (used++)
+    {
+      case 0  : return output0;
+      case 1  : return output1;
+      case 2  : return output2;
+      default : return output3;
+    }
+  }
+  
+  /**
+   * Sets output0..3 to the Philox4x32-10 bijection of the given counter, under the current key
+   */
+  private void block(int counter0, int counter1, int counter2, int counter3)
+  {
+    int k0 = key0, k1 = key1;
+    for (int round = 0; round < N_ROUNDS; round++)
+    {
+      final long product0 = (M0 & 0xffffffffL) * (counter0 & 0xffffffffL);
+      final long product1 = (M1 & 0xffffffffL) * (counter2 & 0xffffffffL);
+      final int next0 = (int) (product1 >>> 32) ^ counter1 ^ k0;
+      final int next2 = (int) (product0 >>> 32) ^ counter3 ^ k1;
+      counter0 = next0;
+      counter1 = (int) product1;
+      counter2 = next2;
+      counter3 = (int) product0;
+      k0 += W0;
+      k1 += W1;
+    }
+    output0 = counter0;
+    output1 = counter1;
+    output2 = counter2;
+    output3 = counter3;
+  }
+  
+  /**
+   * @return The Philox4x32-10 bijection of the counter under the key (for testing against 
+   *   published known answers)
+   */
+  static int [] philox(int [] counter, int [] key)
+  {
+    final PhiloxRandom random = new PhiloxRandom();
+    random.key0 = key[0];
+    random.key1 = key[1];
+    random.block(counter[0], counter[1], counter[2], counter[3]);
+    return new int[]{random.output0, random.output1, random.output2, random.output3};
+  }
+}
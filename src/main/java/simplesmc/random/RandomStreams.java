@@ -0,0 +1,45 @@
+package simplesmc.random;
+
+
+/**
+ * How the random stream of each particle index is obtained, see SMCOptions.randomStreams
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public enum RandomStreams
+{
+  /**
+   * One java.util.Random per particle index, created up front and advanced across 
+   * iterations and calls
+   */
+  STATEFUL,
+  
+  /**
+   * Counter-based streams keyed by (seed, iteration, particle index), see PhiloxRandom
+   */
+  PHILOX,
+  
+  /**
+   * See SplitMixRandom
+   */
+  SPLITMIX,
+  
+  /**
+   * See XoroshiroRandom
+   */
+  XOROSHIRO;
+  
+  /**
+   * @return A new generator for the keyed streams, or null for STATEFUL
+   */
+  public StreamRandom create()
+  {
+    switch (this)
+    {
+      case PHILOX    : return new PhiloxRandom();
+      case SPLITMIX  : return new SplitMixRandom();
+      case XOROSHIRO : return new XoroshiroRandom();
+      default        : return null;
+    }
+  }
+}
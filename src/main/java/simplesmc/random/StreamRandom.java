@@ -0,0 +1,96 @@
+package simplesmc.random;
+
+import java.util.Random;
+
+
+/**
+ * A java.util.Random whose stream is selected by a key (seed, iteration, particle 
+ * index) instead of being advanced from a shared state, so that a single instance 
+ * per thread can serve the streams of all the particles (see ParticleStreams).
+ * 
+ * Subclasses provide 32 random bits at a time; the state inherited from 
+ * java.util.Random (and its compare-and-set updates) is never used.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public abstract class StreamRandom extends Random
+{
+  private static final long serialVersionUID = 1L;
+  
+  private boolean haveNextGaussian;
+  private double nextGaussian;
+  
+  /**
+   * Selects the stream with the given key, positioned at its beginning
+   */
+  public final void setStream(long seed, int iteration, int particle)
+  {
+    haveNextGaussian = false;
+    key(seed, iteration, particle);
+  }
+  
+  protected abstract void key(long seed, int iteration, int particle);
+  
+  /**
+   * @return The next 32 random bits of the current stream
+   */
+  protected abstract int nextBits();
+  
+  /**
+   * Called by the constructor of java.util.Random, before the fields of the subclasses 
+   * are initialized: implementations of key() should only assign primitive fields.
+   */
+  @Override
+  public void setSeed(long seed)
+  {
+    setStream(seed, 0, 0);
+  }
+  
+  @Override
+  protected final int next(int bits)
+  {
+    return nextBits() >>> (32 - bits);
+  }
+  
+  @Override
+  public int nextInt()
+  {
+    return nextBits();
+  }
+  
+  @Override
+  public long nextLong()
+  {
+    return ((long) nextBits() << 32) | (nextBits() & 0xffffffffL);
+  }
+  
+  @Override
+  public double nextDouble()
+  {
+    return (nextLong() >>> 11) * 0x1.0p-53;
+  }
+  
+  /**
+   * Same polar method as java.util.Random, without the synchronization
+   */
+  @Override
+  public double nextGaussian()
+  {
+    if (haveNextGaussian)
+    {
+      haveNextGaussian = false;
+      return nextGaussian;
+    }
+    double v1, v2, s;
+    do
+    {
+      v1 = 2 * nextDouble() - 1;
+      v2 = 2 * nextDouble() - 1;
+      s = v1 * v1 + v2 * v2;
+    } while (s >= 1 || s == 0);
+    final double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+    nextGaussian = v2 * multiplier;
+    haveNextGaussian = true;
+    return v1 * multiplier;
+  }
+}
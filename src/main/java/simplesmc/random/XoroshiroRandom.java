@@ -0,0 +1,42 @@
+package simplesmc.random;
+
+
+/**
+ * The xoroshiro128++ generator (Blackman and Vigna), with its 128 bits state 
+ * initialized by SplitMix64 from a hash of (seed, iteration, particle). For 
+ * comparison with PhiloxRandom: the streams are only distinct with high probability.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public final class XoroshiroRandom extends StreamRandom
+{
+  private static final long serialVersionUID = 1L;
+  
+  private long state0, state1;
+  
+  @Override
+  protected void key(long seed, int iteration, int particle)
+  {
+    final long start = SplitMixRandom.hash(seed, iteration, particle);
+    state0 = SplitMixRandom.mix64(start + SplitMixRandom.GOLDEN_GAMMA);
+    state1 = SplitMixRandom.mix64(start + 2 * SplitMixRandom.GOLDEN_GAMMA);
+  }
+  
+  @Override
+  protected int nextBits()
+  {
+    return (int) (nextLong() >>> 32);
+  }
+  
+  @Override
+  public long nextLong()
+  {
+    final long s0 = state0;
+    long s1 = state1;
+    final long result = Long.rotateLeft(s0 + s1, 17) + s0;
+    s1 ^= s0;
+    state0 = Long.rotateLeft(s0, 49) ^ s1 ^ (s1 << 21);
+    state1 = Long.rotateLeft(s1, 28);
+    return result;
+  }
+}
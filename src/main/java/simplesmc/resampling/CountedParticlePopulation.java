@@ -0,0 +1,184 @@
+package simplesmc.resampling;
+
+import java.util.Random;
+
+import bayonet.smc.ResamplingScheme;
+
+
+/**
+ * A population of int particles taking few distinct values, stored as the
+ * distinct values, the number of particles with each value, and the total
+ * weight of these particles. All the particles with a given value have the
+ * same weight (the total divided by the count); this does not change the
+ * weighted empirical distribution, nor the estimates of the normalization.
+ *
+ * Memory and computations are then in O(number of distinct values) instead
+ * of O(nParticles), see CountedSMCAlgorithm.
+ *
+ * Follows the same conventions as WeightedPopulation.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public final class CountedParticlePopulation
+{
+  /**
+   * The distinct values
+   */
+  public final int [] particles;
+
+  /**
+   * The number of particles with each distinct value (positive)
+   */
+  public final int [] counts;
+
+  /**
+   * The total normalized weight of the particles with each distinct value
+   */
+  private final double [] groupWeights;
+
+  private final int nParticles;
+
+  /**
+   * See WeightedPopulation
+   */
+  public final double logScaling;
+
+  /**
+   * Note: the array logGroupWeights is exponentiated and normalized in place.
+   *
+   * @param logGroupWeights The LOG of the total (unnormalized) weight of the particles with each value
+   */
+  public static CountedParticlePopulation buildDestructivelyFromLogWeights(
+      double [] logGroupWeights,
+      int [] particles,
+      int [] counts,
+      double logScaling)
+  {
+    final double logNormalization = Resampling.expNormalize(logGroupWeights);
+    return new CountedParticlePopulation(particles, counts, logGroupWeights, logScaling + logNormalization);
+  }
+
+  public static CountedParticlePopulation buildEquallyWeighted(int [] particles, int [] counts, double logScaling)
+  {
+    final int nParticles = sum(counts);
+    final double [] groupWeights = new double[counts.length];
+    for (int group = 0; group < counts.length; group++)
+      groupWeights[group] = ((double) counts[group]) / nParticles;
+    return new CountedParticlePopulation(particles, counts, groupWeights, logScaling);
+  }
+
+  /**
+   * @return The total normalized weight of the particles with value particles[group]
+   */
+  public double getGroupWeight(int group)
+  {
+    return groupWeights[group];
+  }
+
+  /**
+   * @return The normalized weight of each of the particles with value particles[group]
+   */
+  public double getNormalizedWeight(int group)
+  {
+    return groupWeights[group] / counts[group];
+  }
+
+  public int nDistinct()
+  {
+    return particles.length;
+  }
+
+  public int nParticles()
+  {
+    return nParticles;
+  }
+
+  public double getESS()
+  {
+    double sumOfSquares = 0.0;
+    for (int group = 0; group < particles.length; group++)
+      sumOfSquares += groupWeights[group] * groupWeights[group] / counts[group];
+    return 1.0 / sumOfSquares;
+  }
+
+  public double getRelativeESS()
+  {
+    return getESS() / nParticles;
+  }
+
+  /**
+   * @return The LOG of the estimate of the normalization constant
+   */
+  public double logNormEstimate()
+  {
+    return logScaling - Math.log(nParticles);
+  }
+
+  /**
+   * In O(nDistinct()), see Resampling.sampleCounts()
+   */
+  public CountedParticlePopulation resample(Random random, ResamplingScheme resamplingScheme)
+  {
+    final int [] resampledCounts = Resampling.sampleCounts(random, resamplingScheme, groupWeights, nParticles);
+    int nDistinct = 0;
+    for (int count : resampledCounts)
+      if (count > 0)
+        nDistinct++;
+    final int [] values = new int[nDistinct], counts = new int[nDistinct];
+    for (int group = 0, i = 0; group < particles.length; group++)
+      if (resampledCounts[group] > 0)
+      {
+        values[i] = particles[group];
+        counts[i++] = resampledCounts[group];
+      }
+    return buildEquallyWeighted(values, counts, logScaling);
+  }
+
+  /**
+   * @return The value of a particle sampled proportionally to its weight
+   */
+  public int sample(Random random)
+  {
+    return particles[Resampling.sampleIndex(random, groupWeights)];
+  }
+
+  /**
+   * @return The same population with one entry per particle (which takes O(nParticles))
+   */
+  public IntParticlePopulation expand()
+  {
+    final int [] expanded = new int[nParticles];
+    final double [] logWeights = new double[nParticles];
+    for (int group = 0, i = 0; group < particles.length; group++)
+    {
+      final double logWeight = Math.log(getNormalizedWeight(group));
+      for (int copy = 0; copy < counts[group]; copy++, i++)
+      {
+        expanded[i] = particles[group];
+        logWeights[i] = logWeight;
+      }
+    }
+    return IntParticlePopulation.buildDestructivelyFromLogWeights(logWeights, expanded, logScaling);
+  }
+
+  private static int sum(int [] counts)
+  {
+    long result = 0;
+    for (int count : counts)
+      result += count;
+    if (result > Integer.MAX_VALUE)
+      throw new RuntimeException("Too many particles");
+    return (int) result;
+  }
+
+  private CountedParticlePopulation(int [] particles, int [] counts, double [] groupWeights, double logScaling)
+  {
+    if (particles.length != counts.length || particles.length != groupWeights.length)
+      throw new RuntimeException();
+    this.particles = particles;
+    this.counts = counts;
+    this.groupWeights = groupWeights;
+    this.nParticles = sum(counts);
+    this.logScaling = logScaling;
+  }
+}
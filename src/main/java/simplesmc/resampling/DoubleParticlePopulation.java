@@ -0,0 +1,72 @@
+package simplesmc.resampling;
+
+import java.util.Random;
+
+import simplesmc.WorkerPool;
+import bayonet.smc.ResamplingScheme;
+
+
+/**
+ * A particle population where each particle is a double, stored in a 
+ * primitive array to avoid boxing.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public final class DoubleParticlePopulation extends WeightedPopulation
+{
+  public final double [] particles;
+  
+  /**
+   * Note: the array logWeights is exponentiated and normalized in place.
+   */
+  public static DoubleParticlePopulation buildDestructivelyFromLogWeights(
+      double [] logWeights, 
+      double [] particles, 
+      double logScaling)
+  {
+    final double logNormalization = expNormalize(logWeights);
+    return new DoubleParticlePopulation(particles, logWeights, logScaling + logNormalization);
+  }
+  
+  public static DoubleParticlePopulation buildEquallyWeighted(double [] particles, double logScaling)
+  {
+    return new DoubleParticlePopulation(particles, uniformWeights(particles.length), logScaling);
+  }
+  
+  public DoubleParticlePopulation resample(Random random, ResamplingScheme resamplingScheme)
+  {
+    return resample(random, resamplingScheme, null);
+  }
+  
+  /**
+   * @param workers The threads to use, or null to resample in the calling thread
+   */
+  public DoubleParticlePopulation resample(Random random, ResamplingScheme resamplingScheme, WorkerPool workers)
+  {
+    final int [] ancestors = sampleAncestors(random, resamplingScheme, workers);
+    final double [] resampled = new double[ancestors.length];
+    final WorkerPool.BlockProcessor copy = (fromIndex, toIndex) ->
+    {
+      for (int i = fromIndex; i < toIndex; i++)
+        resampled[i] = particles[ancestors[i]];
+    };
+    if (workers == null)
+      copy.process(0, ancestors.length);
+    else
+      workers.process(ancestors.length, copy);
+    return buildEquallyWeighted(resampled, logScaling);
+  }
+  
+  public double sample(Random random)
+  {
+    return particles[sampleIndex(random)];
+  }
+  
+  private DoubleParticlePopulation(double [] particles, double [] normalizedWeights, double logScaling)
+  {
+    super(normalizedWeights, logScaling);
+    if (particles.length != normalizedWeights.length)
+      throw new RuntimeException();
+    this.particles = particles;
+  }
+}
@@ -0,0 +1,72 @@
+package simplesmc.resampling;
+
+import java.util.Random;
+
+import simplesmc.WorkerPool;
+import bayonet.smc.ResamplingScheme;
+
+
+/**
+ * A particle population where each particle is an int, stored in a 
+ * primitive array to avoid boxing.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public final class IntParticlePopulation extends WeightedPopulation
+{
+  public final int [] particles;
+  
+  /**
+   * Note: the array logWeights is exponentiated and normalized in place.
+   */
+  public static IntParticlePopulation buildDestructivelyFromLogWeights(
+      double [] logWeights, 
+      int [] particles, 
+      double logScaling)
+  {
+    final double logNormalization = expNormalize(logWeights);
+    return new IntParticlePopulation(particles, logWeights, logScaling + logNormalization);
+  }
+  
+  public static IntParticlePopulation buildEquallyWeighted(int [] particles, double logScaling)
+  {
+    return new IntParticlePopulation(particles, uniformWeights(particles.length), logScaling);
+  }
+  
+  public IntParticlePopulation resample(Random random, ResamplingScheme resamplingScheme)
+  {
+    return resample(random, resamplingScheme, null);
+  }
+  
+  /**
+   * @param workers The threads to use, or null to resample in the calling thread
+   */
+  public IntParticlePopulation resample(Random random, ResamplingScheme resamplingScheme, WorkerPool workers)
+  {
+    final int [] ancestors = sampleAncestors(random, resamplingScheme, workers);
+    final int [] resampled = new int[ancestors.length];
+    final WorkerPool.BlockProcessor copy = (fromIndex, toIndex) ->
+    {
+      for (int i = fromIndex; i < toIndex; i++)
+        resampled[i] = particles[ancestors[i]];
+    };
+    if (workers == null)
+      copy.process(0, ancestors.length);
+    else
+      workers.process(ancestors.length, copy);
+    return buildEquallyWeighted(resampled, logScaling);
+  }
+  
+  public int sample(Random random)
+  {
+    return particles[sampleIndex(random)];
+  }
+  
+  private IntParticlePopulation(int [] particles, double [] normalizedWeights, double logScaling)
+  {
+    super(normalizedWeights, logScaling);
+    if (particles.length != normalizedWeights.length)
+      throw new RuntimeException();
+    this.particles = particles;
+  }
+}
@@ -0,0 +1,399 @@
+package simplesmc.resampling;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import simplesmc.WorkerPool;
+import bayonet.smc.ResamplingScheme;
+
+
+/**
+ * Resampling algorithms expressed in terms of ancestor indices, so that 
+ * they can be shared by all population representations.
+ * 
+ * The cumulative weights are computed block by block with a fixed block 
+ * size, and each resampled particle is matched to the first ancestor 
+ * whose cumulative weight reaches its sorted cumulative probability. This 
+ * makes it possible to perform both steps in parallel (a parallel prefix 
+ * sum, followed by a partitioned search) while giving exactly the same 
+ * ancestors as the serial version, for all resampling schemes.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class Resampling
+{
+  /**
+   * Number of weights summed sequentially by a task of the prefix sum
+   */
+  public static final int PREFIX_SUM_BLOCK_SIZE = 1 << 14;
+  
+  /**
+   * Serial resampling.
+   * 
+   * @return For each resampled particle, the index of its ancestor
+   */
+  public static int [] sampleAncestors(Random random, ResamplingScheme resamplingScheme, double [] normalizedWeights)
+  {
+    return sampleAncestors(random, resamplingScheme, normalizedWeights, null);
+  }
+  
+  /**
+   * Uses the sorted cumulative probabilities provided by the resampling scheme, 
+   * and matches them against the cumulative weights in O(n).
+   * 
+   * @param workers The threads to use, or null to resample in the calling thread
+   * @return For each resampled particle, the index of its ancestor
+   */
+  public static int [] sampleAncestors(Random random, ResamplingScheme resamplingScheme, double [] normalizedWeights, WorkerPool workers)
+  {
+    final int nParticles = normalizedWeights.length;
+    return sampleAncestors(random, resamplingScheme, normalizedWeights, workers, new double[nParticles], new int[nParticles]);
+  }
+  
+  /**
+   * Same as sampleAncestors(), but using the provided buffers, e.g. to resample 
+   * repeatedly without allocating them each time.
+   * 
+   * @param cumulativeWeights Overwritten by the cumulative weights (same length as normalizedWeights)
+   * @param result Overwritten by the ancestors (same length as normalizedWeights)
+   * @return result
+   */
+  public static int [] sampleAncestors(Random random, ResamplingScheme resamplingScheme, double [] normalizedWeights, WorkerPool workers, 
+      final double [] cumulativeWeights, final int [] result)
+  {
+    final int nParticles = normalizedWeights.length;
+    if (cumulativeWeights.length != nParticles || result.length != nParticles)
+      throw new RuntimeException();
+    // note: the uniforms are generated serially, as consuming the provided 
+    // random in the same order is what makes the result reproducible
+    final double [] sortedCumulativeProbabilities = resamplingScheme.getSortedCumulativeProbabilities(random, nParticles);
+    cumulativeWeights(normalizedWeights, workers, cumulativeWeights);
+    final WorkerPool.BlockProcessor search = (fromIndex, toIndex) ->
+    {
+      if (fromIndex == toIndex)
+        return;
+      int ancestor = firstReaching(cumulativeWeights, sortedCumulativeProbabilities[fromIndex]);
+      for (int i = fromIndex; i < toIndex; i++)
+      {
+        final double current = sortedCumulativeProbabilities[i];
+        while (ancestor < nParticles - 1 && cumulativeWeights[ancestor] < current)
+          ancestor++;
+        result[i] = ancestor;
+      }
+    };
+    if (workers == null)
+      search.process(0, nParticles);
+    else
+      workers.process(nParticles, search);
+    return result;
+  }
+  
+  /**
+   * Systematic resampling where the particles are first sorted by the provided keys 
+   * (ties broken by index), and the resampled particles are returned in that order. 
+   * 
+   * Used for correlated pseudo-marginal methods: the ancestors are then a piecewise 
+   * constant function of the uniform and of the weights, which makes the estimates 
+   * at nearby parameters strongly correlated when the same uniform is used.
+   * 
+   * @param uniform A uniform on [0, 1) (the only randomness used)
+   * @return For each resampled particle, the index of its ancestor
+   */
+  public static int [] sampleSortedSystematicAncestors(double [] normalizedWeights, final double [] keys, double uniform)
+  {
+    final int nParticles = normalizedWeights.length;
+    final int [] order = IntStream.range(0, nParticles).boxed()
+      .sorted((first, second) -> Double.compare(keys[first], keys[second]))
+      .mapToInt(Integer::intValue).toArray();
+    final int [] result = new int[nParticles];
+    double cumulative = normalizedWeights[order[0]];
+    int sortedAncestor = 0;
+    for (int i = 0; i < nParticles; i++)
+    {
+      final double current = (i + uniform) / nParticles;
+      while (sortedAncestor < nParticles - 1 && cumulative < current)
+        cumulative += normalizedWeights[order[++sortedAncestor]];
+      result[i] = order[sortedAncestor];
+    }
+    return result;
+  }
+  
+  /**
+   * @return The inclusive prefix sums of the weights, computed block by block 
+   *   (see PREFIX_SUM_BLOCK_SIZE) so that the result does not depend on workers
+   */
+  public static double [] cumulativeWeights(final double [] weights, WorkerPool workers)
+  {
+    return cumulativeWeights(weights, workers, new double[weights.length]);
+  }
+  
+  /**
+   * @param result Overwritten by the prefix sums (same length as weights)
+   * @return result
+   */
+  public static double [] cumulativeWeights(final double [] weights, WorkerPool workers, final double [] result)
+  {
+    final int nBlocks = (weights.length + PREFIX_SUM_BLOCK_SIZE - 1) / PREFIX_SUM_BLOCK_SIZE;
+    
+    // first pass: total of each block
+    final double [] blockOffsets = new double[nBlocks + 1];
+    processBlocks(nBlocks, workers, block ->
+    {
+      double sum = 0.0;
+      for (int i = blockStart(block); i < blockEnd(block, weights.length); i++)
+        sum += weights[i];
+      blockOffsets[block + 1] = sum;
+    });
+    
+    // then, the (small) scan over the blocks
+    for (int block = 0; block < nBlocks; block++)
+      blockOffsets[block + 1] += blockOffsets[block];
+    
+    // second pass: prefix sums within each block
+    processBlocks(nBlocks, workers, block ->
+    {
+      double sum = 0.0;
+      for (int i = blockStart(block); i < blockEnd(block, weights.length); i++)
+      {
+        sum += weights[i];
+        result[i] = blockOffsets[block] + sum;
+      }
+    });
+    return result;
+  }
+  
+  private static void processBlocks(int nBlocks, WorkerPool workers, BlockTask task)
+  {
+    if (workers == null)
+      for (int block = 0; block < nBlocks; block++)
+        task.process(block);
+    else
+      workers.process(nBlocks, 1, (fromBlock, toBlock) ->
+      {
+        for (int block = fromBlock; block < toBlock; block++)
+          task.process(block);
+      });
+  }
+  
+  private static interface BlockTask
+  {
+    public void process(int block);
+  }
+  
+  private static int blockStart(int block)
+  {
+    return block * PREFIX_SUM_BLOCK_SIZE;
+  }
+  
+  private static int blockEnd(int block, int length)
+  {
+    return (int) Math.min(length, (long) (block + 1) * PREFIX_SUM_BLOCK_SIZE);
+  }
+  
+  /**
+   * @return The first index whose cumulative weight is greater or equal to the 
+   *   provided value, or the last index if there is none
+   */
+  private static int firstReaching(double [] cumulativeWeights, double value)
+  {
+    int low = 0, high = cumulativeWeights.length - 1;
+    while (low < high)
+    {
+      final int middle = (low + high) >>> 1;
+      if (cumulativeWeights[middle] < value)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+  
+  /**
+   * Resampling of a population where particles are grouped by distinct value 
+   * (see CountedParticlePopulation), in O(number of groups) rather than O(nParticles): 
+   * the multinomial scheme uses sequential binomial draws, and the stratified and 
+   * systematic schemes only draw the uniforms of the strata straddling two groups.
+   * 
+   * @param groupWeights The normalized total weight of each group
+   * @return The number of resampled particles in each group
+   */
+  public static int [] sampleCounts(Random random, ResamplingScheme resamplingScheme, double [] groupWeights, int nParticles)
+  {
+    final int nGroups = groupWeights.length;
+    final int [] result = new int[nGroups];
+    if (resamplingScheme == ResamplingScheme.MULTINOMIAL)
+    {
+      sampleMultinomial(random, nParticles, groupWeights, result);
+      return result;
+    }
+    final boolean systematic = resamplingScheme == ResamplingScheme.SYSTEMATIC;
+    if (!systematic && resamplingScheme != ResamplingScheme.STRATIFIED)
+      throw new RuntimeException("Unsupported resampling scheme: " + resamplingScheme);
+    final double systematicUniform = systematic ? random.nextDouble() : Double.NaN;
+    // the point of stratum i is (i + uniform) / nParticles; everything below is scaled by nParticles
+    int stratum = 0;
+    double point = Double.NaN; // point of the current stratum, once drawn
+    double cumulative = 0.0;
+    for (int group = 0; group < nGroups; group++)
+    {
+      cumulative += groupWeights[group];
+      final double upper = group == nGroups - 1 ? nParticles : Math.min(nParticles, cumulative * nParticles);
+      // strata entirely below upper
+      final int nFull = Math.max(0, (int) Math.floor(upper) - stratum);
+      result[group] += nFull;
+      if (nFull > 0)
+      {
+        stratum += nFull;
+        point = Double.NaN;
+      }
+      // the stratum straddling upper, if any
+      if (stratum < nParticles && stratum < upper)
+      {
+        if (Double.isNaN(point))
+          point = stratum + (systematic ? systematicUniform : random.nextDouble());
+        if (point < upper)
+        {
+          result[group]++;
+          stratum++;
+          point = Double.NaN;
+        }
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Samples a multinomial with sequential binomial draws, in O(number of categories).
+   * 
+   * @param prs The probability of each category (should sum to one)
+   * @param result Where the count of each category is written
+   */
+  public static void sampleMultinomial(Random random, int n, double [] prs, int [] result)
+  {
+    int remaining = n;
+    double remainingMass = 1.0;
+    for (int category = 0; category < prs.length; category++)
+    {
+      if (remaining == 0 || prs[category] <= 0.0)
+      {
+        result[category] = 0;
+        continue;
+      }
+      final double conditional = prs[category] / remainingMass;
+      final int count = conditional >= 1.0 || category == prs.length - 1 ? 
+        remaining : 
+        sampleBinomial(random, remaining, conditional);
+      result[category] = count;
+      remaining -= count;
+      remainingMass -= prs[category];
+    }
+    if (remaining > 0) // rounding: assign the rest to the last category with positive probability
+      for (int category = prs.length - 1; category >= 0; category--)
+        if (prs[category] > 0.0)
+        {
+          result[category] += remaining;
+          break;
+        }
+  }
+  
+  /**
+   * Exact binomial sampling by inversion, with the outcomes enumerated from the mode 
+   * outward (in decreasing probability), so that the expected cost is 
+   * O(1 + sqrt(n p (1 - p))).
+   */
+  public static int sampleBinomial(Random random, int n, double p)
+  {
+    if (p <= 0.0 || n == 0)
+      return 0;
+    if (p >= 1.0)
+      return n;
+    final int mode = (int) Math.min(n, Math.floor((n + 1) * p));
+    final double logP = Math.log(p), logQ = Math.log1p(-p);
+    final double modePr = Math.exp(logFactorial(n) - logFactorial(mode) - logFactorial(n - mode) + 
+        mode * logP + (n - mode) * logQ);
+    final double ratio = p / (1.0 - p);
+    double uniform = random.nextDouble() - modePr;
+    if (uniform < 0.0)
+      return mode;
+    int low = mode, high = mode;
+    double lowPr = modePr, highPr = modePr;
+    while (low > 0 || high < n)
+    {
+      // probabilities of the next candidates below and above
+      final double belowPr = low > 0 ? lowPr * low / ((n - low + 1) * ratio) : -1.0;
+      final double abovePr = high < n ? highPr * (n - high) * ratio / (high + 1) : -1.0;
+      if (belowPr >= abovePr)
+      {
+        low--;
+        lowPr = belowPr;
+        uniform -= belowPr;
+        if (uniform < 0.0)
+          return low;
+      }
+      else
+      {
+        high++;
+        highPr = abovePr;
+        uniform -= abovePr;
+        if (uniform < 0.0)
+          return high;
+      }
+    }
+    return mode; // rounding
+  }
+  
+  private static double logFactorial(int k)
+  {
+    if (k < 16)
+    {
+      double result = 0.0;
+      for (int i = 2; i <= k; i++)
+        result += Math.log(i);
+      return result;
+    }
+    // Stirling series for log Gamma(k + 1)
+    final double x = k + 1.0;
+    return (x - 0.5) * Math.log(x) - x + 0.5 * Math.log(2.0 * Math.PI) + 1.0 / (12.0 * x) - 1.0 / (360.0 * x * x * x);
+  }
+  
+  /**
+   * Exponentiates and normalizes the provided LOG weights in place.
+   * 
+   * @return The LOG of the sum of the unnormalized weights
+   */
+  public static double expNormalize(double [] logWeights)
+  {
+    double max = Double.NEGATIVE_INFINITY;
+    for (double logWeight : logWeights)
+      max = Math.max(max, logWeight);
+    if (max == Double.NEGATIVE_INFINITY)
+      throw new RuntimeException("All the particles have zero weight");
+    double sum = 0.0;
+    for (int i = 0; i < logWeights.length; i++)
+    {
+      logWeights[i] = Math.exp(logWeights[i] - max);
+      sum += logWeights[i];
+    }
+    for (int i = 0; i < logWeights.length; i++)
+      logWeights[i] /= sum;
+    return max + Math.log(sum);
+  }
+  
+  /**
+   * @return An index sampled proportionally to the provided normalized weights
+   */
+  public static int sampleIndex(Random random, double [] normalizedWeights)
+  {
+    final double uniform = random.nextDouble();
+    double sum = 0.0;
+    for (int i = 0; i < normalizedWeights.length; i++)
+    {
+      sum += normalizedWeights[i];
+      if (uniform < sum)
+        return i;
+    }
+    return normalizedWeights.length - 1;
+  }
+  
+  private Resampling() {}
+}
@@ -0,0 +1,109 @@
+package simplesmc.resampling;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import simplesmc.WorkerPool;
+import bayonet.smc.ResamplingScheme;
+
+
+/**
+ * The weights and normalization constant estimate of a particle population, 
+ * independently of how the particles themselves are stored.
+ * 
+ * Follows the same conventions as bayonet's ParticlePopulation, so that 
+ * the estimates of the primitive populations and of the generic one can be 
+ * compared directly.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public abstract class WeightedPopulation
+{
+  private final double [] normalizedWeights;
+  
+  /**
+   * LOG of the sum of the unnormalized weights, accumulated over the 
+   * iterations (see logNormEstimate())
+   */
+  public final double logScaling;
+  
+  protected WeightedPopulation(double [] normalizedWeights, double logScaling)
+  {
+    this.normalizedWeights = normalizedWeights;
+    this.logScaling = logScaling;
+  }
+  
+  public double getNormalizedWeight(int particleIndex)
+  {
+    return normalizedWeights[particleIndex];
+  }
+  
+  public int nParticles()
+  {
+    return normalizedWeights.length;
+  }
+  
+  public double getESS()
+  {
+    double sumOfSquares = 0.0;
+    for (double weight : normalizedWeights)
+      sumOfSquares += weight * weight;
+    return 1.0 / sumOfSquares;
+  }
+  
+  public double getRelativeESS()
+  {
+    return getESS() / nParticles();
+  }
+  
+  /**
+   * @return The LOG of the estimate of the normalization constant
+   */
+  public double logNormEstimate()
+  {
+    return logScaling - Math.log(nParticles());
+  }
+  
+  /**
+   * @return The index of a particle sampled proportionally to its weight
+   */
+  public int sampleIndex(Random random)
+  {
+    return Resampling.sampleIndex(random, normalizedWeights);
+  }
+  
+  /**
+   * @return For each particle in the resampled population, the index of its ancestor 
+   *   in this population
+   */
+  public int [] sampleAncestors(Random random, ResamplingScheme resamplingScheme)
+  {
+    return sampleAncestors(random, resamplingScheme, null);
+  }
+  
+  /**
+   * @param workers The threads to use, or null to resample in the calling thread
+   * @return See sampleAncestors(Random, ResamplingScheme)
+   */
+  public int [] sampleAncestors(Random random, ResamplingScheme resamplingScheme, WorkerPool workers)
+  {
+    return Resampling.sampleAncestors(random, resamplingScheme, normalizedWeights, workers);
+  }
+  
+  /**
+   * Exponentiates and normalizes the provided LOG weights in place.
+   * 
+   * @return The LOG of the sum of the unnormalized weights
+   */
+  protected static double expNormalize(double [] logWeights)
+  {
+    return Resampling.expNormalize(logWeights);
+  }
+  
+  protected static double [] uniformWeights(int nParticles)
+  {
+    double [] result = new double[nParticles];
+    Arrays.fill(result, 1.0 / nParticles);
+    return result;
+  }
+}
@@ -0,0 +1,74 @@
+package simplesmc;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplesmc.hmm.HMMProblemSpecification;
+import simplesmc.hmm.HMMUtils;
+import simplesmc.hmm.ToyHMMParams;
+import simplesmc.pmcmc.AdaptivePMCMCFactor;
+import simplesmc.pmcmc.TuningOptions;
+
+
+
+public class TestAdaptivePMCMC
+{
+  /**
+   * Starting with too few particles, the tuning should reach a variance of the 
+   * log likelihood estimate close to the target
+   */
+  @Test
+  public void testTuning()
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(2);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, 200).getRight();
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 10;
+    SMCAlgorithm<Integer> smc = new SMCAlgorithm<>(new HMMProblemSpecification(hmmParams, observations), options);
+    TuningOptions tuningOptions = new TuningOptions();
+    tuningOptions.tuningPeriod = 5;
+    tuningOptions.nReplicates = 50;
+    tuningOptions.nTunings = 3;
+    AdaptivePMCMCFactor<Integer> factor = new AdaptivePMCMCFactor<>(hmmParams, smc, tuningOptions);
+    
+    Random random = new Random(1);
+    for (int i = 0; i < 20; i++)
+    {
+      hmmParams.selfTransitionProbability.setValue(0.75 + 0.1 * random.nextDouble());
+      factor.logDensity();
+    }
+    
+    List<AdaptivePMCMCFactor.Tuning> tunings = factor.getTunings();
+    Assert.assertEquals(tuningOptions.nTunings, tunings.size());
+    for (AdaptivePMCMCFactor.Tuning tuning : tunings)
+      System.out.println(tuning);
+    AdaptivePMCMCFactor.Tuning last = tunings.get(tunings.size() - 1);
+    Assert.assertEquals(last.newNParticles, smc.nParticles());
+    
+    // the variance at the final number of particles (the tunings measure it at the previous ones)
+    final int nReplicates = 200;
+    double [] estimates = new double[nReplicates];
+    for (int replicate = 0; replicate < nReplicates; replicate++)
+      estimates[replicate] = smc.sample().logNormEstimate();
+    final double variance = variance(estimates);
+    System.out.println("nParticles = " + smc.nParticles() + ", variance = " + variance);
+    Assert.assertEquals(tuningOptions.targetVariance, variance, tuningOptions.targetVariance / 2.0);
+  }
+  
+  /**
+   * Two-pass, to avoid cancellations
+   */
+  private static double variance(double [] values)
+  {
+    double mean = 0.0;
+    for (double value : values)
+      mean += value / values.length;
+    double sum = 0.0;
+    for (double value : values)
+      sum += (value - mean) * (value - mean);
+    return sum / (values.length - 1);
+  }
+}
@@ -0,0 +1,152 @@
+package simplesmc;
+
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplesmc.hmm.HMMProblemSpecification;
+import simplesmc.hmm.HMMUtils;
+import simplesmc.hmm.ToyHMMParams;
+import simplesmc.pmcmc.CorrelatedPMCMCFactor;
+
+
+
+public class TestCorrelatedSMC
+{
+  /**
+   * With shared auxiliary randomness, the difference between the estimates at 
+   * two nearby parameters should have a much smaller variance than with 
+   * independent randomness
+   */
+  @Test
+  public void testCorrelation()
+  {
+    final int length = 50;
+    AutoRegression model = new AutoRegression(new Random(1), length);
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 50;
+    SMCAlgorithm<Double> smc = new SMCAlgorithm<>(model, options);
+    
+    Random random = new Random(1);
+    final int nReplicates = 100;
+    double [] correlated = new double[nReplicates], independent = new double[nReplicates];
+    for (int replicate = 0; replicate < nReplicates; replicate++)
+    {
+      AuxiliaryRandomness randomness = AuxiliaryRandomness.sample(random, length, options.nParticles, 2);
+      
+      model.coefficient = 0.8;
+      double before = smc.sampleCorrelated(randomness, Double::doubleValue).logNormEstimate();
+      Assert.assertEquals(before, smc.sampleCorrelated(randomness, Double::doubleValue).logNormEstimate(), 0.0);
+      
+      model.coefficient = 0.81;
+      correlated[replicate] = smc.sampleCorrelated(randomness.refresh(random, 0.99), Double::doubleValue).logNormEstimate() - before;
+      independent[replicate] = smc.sampleCorrelated(AuxiliaryRandomness.sample(random, length, options.nParticles, 2), 
+          Double::doubleValue).logNormEstimate() - before;
+    }
+    System.out.println("variance correlated = " + variance(correlated) + ", independent = " + variance(independent));
+    Assert.assertTrue(variance(correlated) < variance(independent) / 3.0);
+  }
+  
+  /**
+   * The estimates using auxiliary randomness should still be consistent
+   */
+  @Test
+  public void testEstimate()
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, 10).getRight();
+    double exactLogZ = HMMUtils.exactDataLogProbability(hmmParams, observations);
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 10_000;
+    options.nThreads = 2;
+    SMCAlgorithm<Integer> smc = new SMCAlgorithm<>(new HMMProblemSpecification(hmmParams, observations), options);
+    AuxiliaryRandomness randomness = AuxiliaryRandomness.sample(new Random(1), observations.size(), options.nParticles, 4);
+    double approxLogZ = smc.sampleCorrelated(randomness, Integer::doubleValue).logNormEstimate();
+    Assert.assertEquals(exactLogZ, approxLogZ, Math.abs(exactLogZ / 100.0));
+  }
+  
+  /**
+   * After a rejection, proposing the same parameters again should be a new proposal 
+   * (with refreshed auxiliary randomness), not a stale acceptance
+   */
+  @Test
+  public void testRepeatedProposal()
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, 20).getRight();
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 100;
+    SMCAlgorithm<Integer> smc = new SMCAlgorithm<>(new HMMProblemSpecification(hmmParams, observations), options);
+    CorrelatedPMCMCFactor<Integer> factor = new CorrelatedPMCMCFactor<>(hmmParams, smc, Integer::doubleValue, 2, 0.9, new Random(1));
+    
+    hmmParams.selfTransitionProbability.setValue(0.9);
+    final double current = factor.logDensity();
+    hmmParams.selfTransitionProbability.setValue(0.8);
+    final double firstProposal = factor.logDensity();
+    hmmParams.selfTransitionProbability.setValue(0.9);
+    Assert.assertEquals(current, factor.logDensity(), 0.0);
+    hmmParams.selfTransitionProbability.setValue(0.8);
+    Assert.assertNotEquals(firstProposal, factor.logDensity(), 0.0);
+    hmmParams.selfTransitionProbability.setValue(0.9);
+    Assert.assertEquals(current, factor.logDensity(), 0.0);
+  }
+  
+  private static double variance(double [] values)
+  {
+    double sum = 0.0, sumOfSquares = 0.0;
+    for (double value : values)
+    {
+      sum += value;
+      sumOfSquares += value * value;
+    }
+    return sumOfSquares / values.length - Math.pow(sum / values.length, 2);
+  }
+  
+  /**
+   * x_t = coefficient * x_{t-1} + N(0, 1), y_t = x_t + N(0, 1), using a bootstrap proposal
+   */
+  private static class AutoRegression implements ProblemSpecification<Double>
+  {
+    private final double [] observations;
+    private double coefficient = 0.8;
+    
+    AutoRegression(Random random, int length)
+    {
+      observations = new double[length];
+      double latent = random.nextGaussian();
+      for (int t = 0; t < length; t++)
+      {
+        if (t > 0)
+          latent = coefficient * latent + random.nextGaussian();
+        observations[t] = latent + random.nextGaussian();
+      }
+    }
+    
+    private Pair<Double, Double> weighted(int iteration, double proposed)
+    {
+      double residual = observations[iteration] - proposed;
+      return Pair.of(-0.5 * residual * residual - 0.5 * Math.log(2.0 * Math.PI), proposed);
+    }
+    
+    @Override
+    public Pair<Double, Double> proposeNext(int currentSmcIteration, Random random, Double currentParticle)
+    {
+      return weighted(currentSmcIteration + 1, coefficient * currentParticle + random.nextGaussian());
+    }
+
+    @Override
+    public Pair<Double, Double> proposeInitial(Random random)
+    {
+      return weighted(0, random.nextGaussian());
+    }
+
+    @Override
+    public int nIterations()
+    {
+      return observations.length;
+    }
+  }
+}
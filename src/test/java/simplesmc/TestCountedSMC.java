@@ -0,0 +1,68 @@
+package simplesmc;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import bayonet.smc.ResamplingScheme;
+import simplesmc.hmm.HMMProblemSpecification;
+import simplesmc.hmm.HMMUtils;
+import simplesmc.hmm.ToyHMMParams;
+import simplesmc.resampling.CountedParticlePopulation;
+import simplesmc.resampling.Resampling;
+
+
+
+public class TestCountedSMC
+{
+  @Test
+  public void testEstimate()
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, 50).getRight();
+    double exactLogZ = HMMUtils.exactDataLogProbability(hmmParams, observations);
+    
+    for (ResamplingScheme resamplingScheme : ResamplingScheme.values())
+    {
+      SMCOptions options = new SMCOptions();
+      options.nParticles = 1_000_000;
+      options.resamplingScheme = resamplingScheme;
+      CountedParticlePopulation population = 
+          new CountedSMCAlgorithm(new HMMProblemSpecification(hmmParams, observations), options).sample();
+      System.out.println(resamplingScheme + ": exact = " + exactLogZ + ", estimate = " + population.logNormEstimate());
+      Assert.assertEquals(options.nParticles, population.nParticles());
+      Assert.assertTrue(population.nDistinct() <= hmmParams.nLatentStates());
+      Assert.assertEquals(exactLogZ, population.logNormEstimate(), 0.05);
+      Assert.assertEquals(population.logNormEstimate(), population.expand().logNormEstimate(), 1e-10);
+    }
+  }
+  
+  @Test
+  public void testSampleCounts()
+  {
+    final double [] weights = {0.1, 0.0, 0.25, 0.005, 0.645};
+    final int nParticles = 1000, nReplicates = 2000;
+    Random random = new Random(1);
+    for (ResamplingScheme resamplingScheme : ResamplingScheme.values())
+    {
+      double [] means = new double[weights.length];
+      for (int replicate = 0; replicate < nReplicates; replicate++)
+      {
+        int [] counts = Resampling.sampleCounts(random, resamplingScheme, weights, nParticles);
+        int total = 0;
+        for (int group = 0; group < weights.length; group++)
+        {
+          total += counts[group];
+          means[group] += ((double) counts[group]) / nReplicates;
+          if (resamplingScheme != ResamplingScheme.MULTINOMIAL)
+            Assert.assertTrue(Math.abs(counts[group] - nParticles * weights[group]) < 2.0);
+        }
+        Assert.assertEquals(nParticles, total);
+      }
+      for (int group = 0; group < weights.length; group++)
+        Assert.assertEquals(nParticles * weights[group], means[group], 1.0);
+    }
+  }
+}
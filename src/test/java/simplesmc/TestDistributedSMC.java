@@ -0,0 +1,181 @@
+package simplesmc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplesmc.distributed.DistributedSMCAlgorithm;
+import simplesmc.distributed.LoopbackTransport;
+import simplesmc.distributed.ParticleCodec;
+import simplesmc.distributed.SocketTransport;
+import simplesmc.distributed.Transport;
+import simplesmc.hmm.HMMProblemSpecification;
+import simplesmc.hmm.HMMUtils;
+import simplesmc.hmm.ToyHMMParams;
+import simplesmc.random.RandomStreams;
+import bayonet.smc.ParticlePopulation;
+
+
+
+public class TestDistributedSMC
+{
+  private final ToyHMMParams hmmParams = new ToyHMMParams(5);
+  private final List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, 20).getRight();
+  
+  @Test
+  public void testLoopback() throws Exception
+  {
+    final List<Transport> transports = LoopbackTransport.create(3);
+    checkMatchesSingleJVM(3, rank -> transports.get(rank), RandomStreams.STATEFUL);
+  }
+  
+  @Test
+  public void testKeyedStreams() throws Exception
+  {
+    final List<Transport> transports = LoopbackTransport.create(3);
+    checkMatchesSingleJVM(3, rank -> transports.get(rank), RandomStreams.PHILOX);
+  }
+  
+  @Test
+  public void testSockets() throws Exception
+  {
+    final List<InetSocketAddress> addresses = new ArrayList<>();
+    for (int rank = 0; rank < 2; rank++)
+      addresses.add(new InetSocketAddress("localhost", freePort()));
+    checkMatchesSingleJVM(2, rank -> new SocketTransport(rank, addresses), RandomStreams.STATEFUL);
+  }
+  
+  /**
+   * The initial particles of node 1 all have zero weight, so that the whole 
+   * population is the particles of node 0 after resampling
+   */
+  @Test
+  public void testNodeWithZeroWeights() throws Exception
+  {
+    final int nNodes = 2;
+    final List<Transport> transports = LoopbackTransport.create(nNodes);
+    ExecutorService nodes = Executors.newFixedThreadPool(nNodes);
+    List<Future<ParticlePopulation<Integer>>> results = new ArrayList<>();
+    for (int rank = 0; rank < nNodes; rank++)
+    {
+      final boolean zeroWeights = rank == 1;
+      final Transport transport = transports.get(rank);
+      results.add(nodes.submit(() -> 
+      {
+        DistributedSMCAlgorithm<Integer> smc = new DistributedSMCAlgorithm<>(
+            new NodeProblem(zeroWeights), resamplingOptions(), transport, ParticleCodec.integers());
+        return smc.gather(smc.sample());
+      }));
+    }
+    ParticlePopulation<Integer> actual = results.get(0).get();
+    results.get(1).get();
+    nodes.shutdown();
+    
+    Assert.assertEquals(Math.log(0.5), actual.logNormEstimate(), 1e-12);
+    for (int i = 0; i < actual.nParticles(); i++)
+    {
+      Assert.assertEquals(1.0 / actual.nParticles(), actual.getNormalizedWeight(i), 1e-12);
+      Assert.assertEquals(0, (int) actual.particles.get(i));
+    }
+  }
+  
+  /**
+   * Initial particles 0 (with weight one) or 1 (with weight zero), then unchanged with weight one
+   */
+  private static class NodeProblem implements ProblemSpecification<Integer>
+  {
+    private final boolean zeroWeights;
+    
+    NodeProblem(boolean zeroWeights)
+    {
+      this.zeroWeights = zeroWeights;
+    }
+    
+    @Override
+    public Pair<Double, Integer> proposeNext(int currentSmcIteration, Random random, Integer currentParticle)
+    {
+      return Pair.of(0.0, currentParticle);
+    }
+    
+    @Override
+    public Pair<Double, Integer> proposeInitial(Random random)
+    {
+      return zeroWeights ? Pair.of(Double.NEGATIVE_INFINITY, 1) : Pair.of(0.0, 0);
+    }
+    
+    @Override
+    public int nIterations()
+    {
+      return 3;
+    }
+  }
+  
+  private void checkMatchesSingleJVM(int nNodes, IntFunction<Transport> transports, RandomStreams randomStreams) throws Exception
+  {
+    ParticlePopulation<Integer> expected = new SMCAlgorithm<>(new HMMProblemSpecification(hmmParams, observations), 
+        options(randomStreams)).sample();
+    
+    ExecutorService nodes = Executors.newFixedThreadPool(nNodes);
+    List<Future<ParticlePopulation<Integer>>> results = new ArrayList<>();
+    for (int rank = 0; rank < nNodes; rank++)
+    {
+      final int current = rank;
+      results.add(nodes.submit(() -> 
+      {
+        try (Transport transport = transports.apply(current))
+        {
+          DistributedSMCAlgorithm<Integer> smc = new DistributedSMCAlgorithm<>(
+              new HMMProblemSpecification(hmmParams, observations), options(randomStreams), transport, ParticleCodec.integers());
+          return smc.gather(smc.sample());
+        }
+      }));
+    }
+    ParticlePopulation<Integer> actual = results.get(0).get();
+    for (int rank = 1; rank < nNodes; rank++)
+      Assert.assertNull(results.get(rank).get());
+    nodes.shutdown();
+    
+    Assert.assertEquals(expected.particles, actual.particles);
+    Assert.assertEquals(expected.logNormEstimate(), actual.logNormEstimate(), 1e-10);
+    for (int i = 0; i < expected.nParticles(); i++)
+      Assert.assertEquals(expected.getNormalizedWeight(i), actual.getNormalizedWeight(i), 1e-12);
+  }
+  
+  private static SMCOptions options(RandomStreams randomStreams)
+  {
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 1000;
+    options.nThreads = 2;
+    options.randomStreams = randomStreams;
+    return options;
+  }
+  
+  /**
+   * Resamples whenever the weights are not equal
+   */
+  private static SMCOptions resamplingOptions()
+  {
+    SMCOptions options = options(RandomStreams.STATEFUL);
+    options.essThreshold = 1.0;
+    return options;
+  }
+  
+  private static int freePort() throws IOException
+  {
+    try (ServerSocket socket = new ServerSocket(0))
+    {
+      return socket.getLocalPort();
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package simplesmc;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplesmc.hmm.HMMProblemSpecification;
+import simplesmc.hmm.HMMUtils;
+import simplesmc.hmm.ToyHMMParams;
+
+
+
+public class TestIslandSMC
+{
+  @Test
+  public void testIslands()
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, 10).getRight();
+    double exactLogZ = HMMUtils.exactDataLogProbability(hmmParams, observations);
+    
+    for (int interactionPeriod : new int[]{0, 2})
+    {
+      IslandPopulations<Integer> sequential = sample(hmmParams, observations, 1, interactionPeriod);
+      IslandPopulations<Integer> parallel = sample(hmmParams, observations, 4, interactionPeriod);
+      Assert.assertEquals(sequential.logNormEstimate(), parallel.logNormEstimate(), 0.0);
+      Assert.assertEquals(exactLogZ, parallel.logNormEstimate(), Math.abs(exactLogZ / 100.0));
+      Assert.assertEquals(parallel.logNormEstimate(), parallel.merge().logNormEstimate(), 1e-10);
+      Assert.assertTrue(parallel.relativeVariance() > 0.0);
+      System.out.println("interactionPeriod = " + interactionPeriod + ", estimate = " + parallel.logNormEstimate() + 
+          ", relative variance = " + parallel.relativeVariance());
+    }
+    System.out.println("exact = " + exactLogZ);
+  }
+  
+  private static IslandPopulations<Integer> sample(ToyHMMParams hmmParams, List<Integer> observations, int nThreads, int interactionPeriod)
+  {
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 8_000;
+    options.nThreads = nThreads;
+    if (interactionPeriod > 0)
+      options.essThreshold = 1.01; // forces the interactions
+    IslandSMCAlgorithm<Integer> smc = new IslandSMCAlgorithm<>(
+        new HMMProblemSpecification(hmmParams, observations), options, 8, interactionPeriod);
+    return smc.sample();
+  }
+}
@@ -0,0 +1,139 @@
+package simplesmc;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplesmc.hmm.HMMProblemSpecification;
+import simplesmc.hmm.HMMUtils;
+import simplesmc.genealogy.Genealogy;
+import simplesmc.hmm.ToyHMMParams;
+import simplesmc.pmcmc.ParticleGibbs;
+
+
+
+public class TestParticleGibbs
+{
+  /**
+   * Particle Gibbs (with and without ancestor sampling) and very few particles should 
+   * still approximate the posterior marginals, here computed by brute force enumeration.
+   */
+  @Test
+  public void testPosteriorMarginals()
+  {
+    testPosteriorMarginals(true);
+    testPosteriorMarginals(false);
+  }
+  
+  private void testPosteriorMarginals(boolean ancestorSampling)
+  {
+    final int length = 5, nStates = 2, nSweeps = 20_000;
+    ToyHMMParams hmmParams = new ToyHMMParams(nStates);
+    hmmParams.selfTransitionProbability.setValue(0.7);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, length).getRight();
+    
+    double [] exact = exactMarginalsOfOne(hmmParams, observations);
+    
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 5;
+    ParticleGibbs<Integer> particleGibbs = new ParticleGibbs<>(
+        new SMCAlgorithm<>(new HMMProblemSpecification(hmmParams, observations), options), 
+        ancestorSampling, new Random(1));
+    double [] approx = new double[length];
+    for (int sweep = 0; sweep < nSweeps; sweep++)
+    {
+      List<Integer> trajectory = particleGibbs.sample();
+      for (int t = 0; t < length; t++)
+        approx[t] += trajectory.get(t) / (double) nSweeps;
+    }
+    
+    for (int t = 0; t < length; t++)
+    {
+      System.out.println("ancestorSampling = " + ancestorSampling + ", exact = " + exact[t] + ", approx = " + approx[t]);
+      Assert.assertEquals(exact[t], approx[t], 0.015);
+    }
+  }
+  
+  /**
+   * Without ancestor sampling, each of the other particles should pick its ancestor 
+   * independently, proportionally to the weights: here, with two equally weighted 
+   * particles, the free particle should descend from itself half of the time.
+   */
+  @Test
+  public void testFreeAncestors()
+  {
+    final int nReplicates = 10_000;
+    ConditionalProblemSpecification<Integer> proposal = new ConditionalProblemSpecification<Integer>()
+    {
+      @Override
+      public Pair<Double, Integer> proposeNext(int currentSmcIteration, Random random, Integer currentParticle)
+      {
+        return Pair.of(0.0, currentParticle);
+      }
+      
+      @Override
+      public Pair<Double, Integer> proposeInitial(Random random)
+      {
+        return Pair.of(0.0, 1);
+      }
+      
+      @Override
+      public double logWeightUpdate(int currentSmcIteration, Integer currentParticle, Integer proposedParticle)
+      {
+        return 0.0;
+      }
+      
+      @Override
+      public int nIterations()
+      {
+        return 2;
+      }
+    };
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 2;
+    SMCAlgorithm<Integer> smc = new SMCAlgorithm<>(proposal, options);
+    Genealogy<Integer> genealogy = new Genealogy<>();
+    int nFromItself = 0;
+    for (int replicate = 0; replicate < nReplicates; replicate++)
+    {
+      // the reference is 0, and the free particle is initialized at 1
+      smc.sampleConditional(Arrays.asList(0, 0), false, genealogy);
+      nFromItself += genealogy.trajectory(1).get(0);
+    }
+    Assert.assertEquals(0.5, ((double) nFromItself) / nReplicates, 0.02);
+    
+    // the genealogy is optional
+    Assert.assertEquals(0, (int) smc.sampleConditional(Arrays.asList(0, 0), false, null).particles.get(SMCAlgorithm.REFERENCE_INDEX));
+  }
+  
+  /**
+   * @return For each time step, the posterior probability that the latent state is 1
+   */
+  private static double [] exactMarginalsOfOne(ToyHMMParams params, List<Integer> observations)
+  {
+    final int length = observations.size();
+    double [] result = new double[length];
+    double normalization = 0.0;
+    for (int path = 0; path < (1 << length); path++)
+    {
+      double logPr = 0.0;
+      for (int t = 0; t < length; t++)
+      {
+        int state = (path >> t) & 1;
+        logPr += t == 0 ? params.initialLogPr(state) : params.transitionLogPr((path >> (t - 1)) & 1, state);
+        logPr += params.emissionLogPr(state, observations.get(t));
+      }
+      double pr = Math.exp(logPr);
+      normalization += pr;
+      for (int t = 0; t < length; t++)
+        result[t] += pr * ((path >> t) & 1);
+    }
+    for (int t = 0; t < length; t++)
+      result[t] /= normalization;
+    return result;
+  }
+}
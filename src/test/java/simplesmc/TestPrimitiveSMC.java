@@ -0,0 +1,83 @@
+package simplesmc;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplesmc.hmm.HMMProblemSpecification;
+import simplesmc.hmm.HMMUtils;
+import simplesmc.hmm.ToyHMMParams;
+import simplesmc.resampling.IntParticlePopulation;
+
+
+
+public class TestPrimitiveSMC
+{
+  /**
+   * Same as TestSMC, but using the primitive (int) particle representation.
+   */
+  @Test
+  public void testIntSMC()
+  {
+    Random random = new Random(1);
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(random, hmmParams, 10).getRight();
+    
+    double exactLogZ = HMMUtils.exactDataLogProbability(hmmParams, observations);
+    System.out.println("exact = " + exactLogZ);
+    
+    HMMProblemSpecification proposal = new HMMProblemSpecification(hmmParams, observations);
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 10_000;
+    options.nThreads = 4;
+    IntSMCAlgorithm smc = new IntSMCAlgorithm(proposal, options);
+    
+    IntParticlePopulation population = smc.sample();
+    Assert.assertEquals(options.nParticles, population.particles.length);
+    double approxLogZ = population.logNormEstimate();
+    System.out.println("estimate = " + approxLogZ);
+    Assert.assertEquals(exactLogZ, approxLogZ, Math.abs(exactLogZ / 100.0));
+  }
+  
+  /**
+   * The batched HMM proposal should give exactly the same result as
+   * the per-particle one.
+   */
+  @Test
+  public void testBatchMatchesPerParticle()
+  {
+    Random random = new Random(1);
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(random, hmmParams, 20).getRight();
+    final HMMProblemSpecification batched = new HMMProblemSpecification(hmmParams, observations);
+    IntProblemSpecification perParticle = new IntProblemSpecification()
+    {
+      @Override
+      public double proposeNext(int currentSmcIteration, Random random, int currentParticle, int[] proposedParticles, int proposedIndex)
+      {
+        return batched.proposeNext(currentSmcIteration, random, currentParticle, proposedParticles, proposedIndex);
+      }
+
+      @Override
+      public double proposeInitial(Random random, int[] proposedParticles, int proposedIndex)
+      {
+        return batched.proposeInitial(random, proposedParticles, proposedIndex);
+      }
+
+      @Override
+      public int nIterations()
+      {
+        return batched.nIterations();
+      }
+    };
+    
+    SMCOptions options = new SMCOptions();
+    options.nThreads = 2;
+    double batchedLogZ = new IntSMCAlgorithm(batched, options).sample().logNormEstimate();
+    options.random = new Random(1);
+    double perParticleLogZ = new IntSMCAlgorithm(perParticle, options).sample().logNormEstimate();
+    Assert.assertEquals(perParticleLogZ, batchedLogZ, 0.0);
+  }
+}
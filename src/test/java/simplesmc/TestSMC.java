@@ -1,15 +1,31 @@
 package simplesmc;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Assert;
 import org.junit.Test;
 
+import bayonet.smc.ParticlePopulation;
+
+import simplesmc.checkpoint.Checkpoint;
+import simplesmc.distributed.ParticleCodec;
+import simplesmc.genealogy.Genealogy;
+import simplesmc.hmm.FullyAdaptedHMMProblemSpecification;
 import simplesmc.hmm.HMMProblemSpecification;
+import simplesmc.hmm.HMMStreamingProblemSpecification;
 import simplesmc.hmm.HMMUtils;
 import simplesmc.hmm.ToyHMMParams;
+import simplesmc.metrics.IterationMetrics;
+import simplesmc.metrics.MetricsFileSink;
+import simplesmc.metrics.SMCListener;
 import tutorialj.Tutorial;
 
 
@@ -51,4 +67,305 @@ public class TestSMC
     System.out.println("tol = " + tol);
     Assert.assertEquals(exactLogZ, approxLogZ, tol);
   }
+  
+  /**
+   * The in-place proposals and the Pair-based ones (used through the adapter) 
+   * should give exactly the same result for the same seed.
+   */
+  @Test
+  public void testInPlaceMatchesPairProposals()
+  {
+    Random random = new Random(1);
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(random, hmmParams, 10).getRight();
+    final HMMProblemSpecification inPlace = new HMMProblemSpecification(hmmParams, observations);
+    ProblemSpecification<Integer> pairBased = new ProblemSpecification<Integer>() 
+    {
+      @Override
+      public Pair<Double, Integer> proposeNext(int currentSmcIteration, Random random, Integer currentParticle)
+      {
+        return inPlace.proposeNext(currentSmcIteration, random, currentParticle);
+      }
+      
+      @Override
+      public Pair<Double, Integer> proposeInitial(Random random)
+      {
+        return inPlace.proposeInitial(random);
+      }
+
+      @Override
+      public int nIterations()
+      {
+        return inPlace.nIterations();
+      }
+    };
+    
+    SMCOptions options = new SMCOptions();
+    options.nThreads = 2;
+    double inPlaceLogZ = new SMCAlgorithm<>(inPlace, options).sample().logNormEstimate();
+    options.random = new Random(1);
+    double pairBasedLogZ = new SMCAlgorithm<>(pairBased, options).sample().logNormEstimate();
+    Assert.assertEquals(pairBasedLogZ, inPlaceLogZ, 0.0);
+  }
+  
+  /**
+   * The result should not depend on the number of threads, nor on the executor
+   */
+  @Test
+  public void testDeterministicAcrossThreads()
+  {
+    Random random = new Random(1);
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(random, hmmParams, 10).getRight();
+    HMMProblemSpecification proposal = new HMMProblemSpecification(hmmParams, observations);
+    
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 5_000;
+    double serialLogZ = new SMCAlgorithm<>(proposal, options).sample().logNormEstimate();
+    
+    options.random = new Random(1);
+    options.nThreads = 4;
+    SMCAlgorithm<Integer> parallel = new SMCAlgorithm<>(proposal, options);
+    Assert.assertEquals(serialLogZ, parallel.sample().logNormEstimate(), 0.0);
+    
+    options.random = new Random(1);
+    SMCAlgorithm<Integer> shared = new SMCAlgorithm<>(proposal, options, new WorkerPool(new ForkJoinPool(3), 8));
+    Assert.assertEquals(serialLogZ, shared.sample().logNormEstimate(), 0.0);
+  }
+  
+  /**
+   * The online filter should give estimates close to the exact value 
+   * after each observation
+   */
+  @Test
+  public void testOnlineSMC()
+  {
+    Random random = new Random(1);
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(random, hmmParams, 20).getRight();
+    
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 10_000;
+    options.nThreads = 2;
+    OnlineSMCAlgorithm<Integer, Integer> filter = 
+      new OnlineSMCAlgorithm<>(new HMMStreamingProblemSpecification(hmmParams), options);
+    
+    for (int t = 0; t < observations.size(); t++)
+    {
+      filter.step(observations.get(t));
+      double exactLogZ = HMMUtils.exactDataLogProbability(hmmParams, observations.subList(0, t + 1));
+      Assert.assertEquals(t + 1, filter.nObservations());
+      Assert.assertEquals(exactLogZ, filter.logNormEstimate(), Math.abs(exactLogZ / 50.0));
+    }
+  }
+  
+  /**
+   * The trajectories should end at the final particles, and the genealogy 
+   * should coalesce, so that far fewer than nParticles * nIterations nodes 
+   * are kept
+   */
+  @Test
+  public void testGenealogy()
+  {
+    Random random = new Random(1);
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(random, hmmParams, 500).getRight();
+    
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 1_000;
+    SMCAlgorithm<Integer> smc = new SMCAlgorithm<>(new HMMProblemSpecification(hmmParams, observations), options);
+    Genealogy<Integer> genealogy = new Genealogy<>();
+    ParticlePopulation<Integer> population = smc.sample(genealogy);
+    
+    Assert.assertEquals(observations.size(), genealogy.nGenerations());
+    for (int particleIndex = 0; particleIndex < population.nParticles(); particleIndex++)
+    {
+      List<Integer> trajectory = genealogy.trajectory(particleIndex);
+      Assert.assertEquals(observations.size(), trajectory.size());
+      Assert.assertEquals(population.particles.get(particleIndex), trajectory.get(trajectory.size() - 1));
+    }
+    int nNodes = genealogy.nReachableNodes();
+    System.out.println("nReachableNodes = " + nNodes);
+    Assert.assertTrue(nNodes < options.nParticles * observations.size() / 10);
+  }
+  
+  /**
+   * After resizing, the algorithm should behave as if it was created with the new number of particles
+   */
+  @Test
+  public void testSetNParticles()
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, 20).getRight();
+    HMMProblemSpecification proposal = new HMMProblemSpecification(hmmParams, observations);
+    
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 200;
+    ParticlePopulation<Integer> expected = new SMCAlgorithm<>(proposal, options).sample();
+    
+    options = new SMCOptions();
+    options.nParticles = 50;
+    SMCAlgorithm<Integer> resized = new SMCAlgorithm<>(proposal, options);
+    resized.setNParticles(300);
+    resized.setNParticles(200);
+    ParticlePopulation<Integer> actual = resized.sample();
+    
+    Assert.assertEquals(expected.particles, actual.particles);
+    Assert.assertEquals(expected.logNormEstimate(), actual.logNormEstimate(), 0.0);
+  }
+  
+  /**
+   * The fully adapted proposal should be consistent, and have a lower variance than 
+   * the bootstrap proposal for the same number of particles
+   */
+  @Test
+  public void testFullyAdapted()
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, 50).getRight();
+    double exactLogZ = HMMUtils.exactDataLogProbability(hmmParams, observations);
+    
+    final int nReplicates = 50;
+    double [] squaredErrors = new double[2];
+    for (int replicate = 0; replicate < nReplicates; replicate++)
+    {
+      SMCOptions options = new SMCOptions();
+      options.nParticles = 100;
+      options.random = new Random(replicate);
+      squaredErrors[0] += Math.pow(exactLogZ - new SMCAlgorithm<>(
+          new HMMProblemSpecification(hmmParams, observations), options).sample().logNormEstimate(), 2);
+      squaredErrors[1] += Math.pow(exactLogZ - new SMCAlgorithm<>(
+          new FullyAdaptedHMMProblemSpecification(hmmParams, observations), options).sample().logNormEstimate(), 2);
+    }
+    System.out.println("mean squared errors: bootstrap = " + squaredErrors[0] / nReplicates + 
+        ", fully adapted = " + squaredErrors[1] / nReplicates);
+    Assert.assertTrue(squaredErrors[1] < squaredErrors[0] / 2.0);
+    Assert.assertTrue(squaredErrors[1] / nReplicates < 1.0);
+  }
+  
+  /**
+   * The predictive likelihoods reused across calls should follow the iteration 
+   * and the parameters
+   */
+  @Test
+  public void testFullyAdaptedWeightUpdates()
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, 10).getRight();
+    FullyAdaptedHMMProblemSpecification proposal = new FullyAdaptedHMMProblemSpecification(hmmParams, observations);
+    for (double selfTransitionProbability : new double[]{0.5, 0.9})
+    {
+      hmmParams.selfTransitionProbability.setValue(selfTransitionProbability);
+      for (int iteration = 0; iteration < observations.size() - 1; iteration++)
+        for (int previous = 0; previous < hmmParams.nLatentStates(); previous++)
+        {
+          double expected = 0.0;
+          for (int next = 0; next < hmmParams.nLatentStates(); next++)
+            expected += Math.exp(hmmParams.transitionLogPr(previous, next) + 
+                hmmParams.emissionLogPr(next, observations.get(iteration + 1)));
+          Assert.assertEquals(Math.log(expected), proposal.logWeightUpdate(iteration, previous, null), 1e-12);
+        }
+    }
+  }
+  
+  /**
+   * The listener should see every iteration, with increments adding up to the estimate
+   */
+  @Test
+  public void testListener() throws IOException
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, 30).getRight();
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 500;
+    SMCAlgorithm<Integer> smc = new SMCAlgorithm<>(new HMMProblemSpecification(hmmParams, observations), options);
+    
+    List<IterationMetrics> metrics = new ArrayList<>();
+    File file = File.createTempFile("metrics", ".csv");
+    file.deleteOnExit();
+    try (MetricsFileSink sink = new MetricsFileSink(file, MetricsFileSink.Format.CSV))
+    {
+      smc.setListener(SMCListener.all(metrics::add, sink));
+      ParticlePopulation<Integer> population = smc.sample();
+      
+      Assert.assertEquals(observations.size(), metrics.size());
+      double sum = 0.0;
+      boolean resampled = false;
+      for (int i = 0; i < metrics.size(); i++)
+      {
+        Assert.assertEquals(i, metrics.get(i).iteration);
+        sum += metrics.get(i).logScalingIncrement;
+        resampled = resampled || metrics.get(i).resampled;
+      }
+      Assert.assertTrue(resampled);
+      Assert.assertEquals(population.logNormEstimate(), sum - Math.log(options.nParticles), 1e-10);
+      Assert.assertEquals(population.logNormEstimate(), metrics.get(metrics.size() - 1).logNormEstimate, 0.0);
+    }
+    Assert.assertEquals(observations.size() + 1, Files.readAllLines(file.toPath()).size());
+  }
+  
+  @Test
+  public void testCheckpoint() throws IOException
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, 30).getRight();
+    HMMProblemSpecification proposal = new HMMProblemSpecification(hmmParams, observations);
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 200;
+    File directory = Files.createTempDirectory("checkpoints").toFile();
+    directory.deleteOnExit();
+    
+    SMCAlgorithm<Integer> smc = new SMCAlgorithm<>(proposal, options);
+    smc.setCheckpointing(directory, 7, ParticleCodec.integers());
+    ParticlePopulation<Integer> uninterrupted = smc.sample();
+    Assert.assertEquals(Arrays.asList(7, 14, 21, 28), Checkpoint.iterations(directory));
+    
+    for (int iteration : Checkpoint.iterations(directory))
+    {
+      File file = Checkpoint.file(directory, iteration);
+      file.deleteOnExit();
+      Checkpoint<Integer> checkpoint = Checkpoint.read(file, ParticleCodec.integers());
+      Assert.assertEquals(iteration, checkpoint.iteration);
+      
+      SMCOptions resumedOptions = new SMCOptions();
+      resumedOptions.nParticles = options.nParticles;
+      resumedOptions.random = new Random(2);
+      ParticlePopulation<Integer> resumed = new SMCAlgorithm<>(proposal, resumedOptions).resume(checkpoint);
+      Assert.assertEquals(uninterrupted.particles, resumed.particles);
+      Assert.assertEquals(uninterrupted.logNormEstimate(), resumed.logNormEstimate(), 0.0);
+      for (int i = 0; i < options.nParticles; i++)
+        Assert.assertEquals(uninterrupted.getNormalizedWeight(i), resumed.getNormalizedWeight(i), 0.0);
+    }
+    Assert.assertEquals(28, Checkpoint.latest(directory, ParticleCodec.integers()).iteration);
+  }
+  
+  /**
+   * The population returned by sample() should not share the buffers reused by the 
+   * next runs, and should match the one obtained by proposing population by population
+   */
+  @Test
+  public void testArena()
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, 30).getRight();
+    HMMProblemSpecification proposal = new HMMProblemSpecification(hmmParams, observations);
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 500;
+    SMCAlgorithm<Integer> smc = new SMCAlgorithm<>(proposal, options);
+    ParticlePopulation<Integer> first = smc.sample();
+    List<Integer> particles = new ArrayList<>(first.particles);
+    double estimate = first.logNormEstimate();
+    smc.sample();
+    Assert.assertEquals(particles, first.particles);
+    Assert.assertEquals(estimate, first.logNormEstimate(), 0.0);
+    
+    options = new SMCOptions();
+    options.nParticles = 500;
+    SMCAlgorithm<Integer> stepwise = new SMCAlgorithm<>(proposal, options);
+    ParticlePopulation<Integer> population = stepwise.initialPopulation();
+    for (int iteration = 0; iteration < observations.size() - 1; iteration++)
+      population = stepwise.step(population, iteration);
+    Assert.assertEquals(particles, population.particles);
+    Assert.assertEquals(estimate, population.logNormEstimate(), 1e-10);
+  }
 }
@@ -0,0 +1,96 @@
+package simplesmc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplesmc.pmcmc.SignatureCache;
+import simplesmc.pmcmc.SpeculativePMMH;
+import simplesmc.pmcmc.WithSignature;
+
+
+
+public class TestSpeculativePMMH
+{
+  @Test
+  public void testCacheCounters() throws InterruptedException
+  {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    SignatureCache cache = new SignatureCache(10, executor);
+    cache.prefetch(1, () -> 1.0);
+    cache.prefetch(2, () -> 2.0);
+    Assert.assertEquals(1.0, cache.get(1, () -> -1.0), 0.0);
+    Assert.assertEquals(3.0, cache.get(3, () -> 3.0), 0.0);
+    Assert.assertEquals(1.0, cache.get(1, () -> -1.0), 0.0);
+    cache.retainOnly(Collections.singleton(1L));
+    Assert.assertEquals(2, cache.nHits());
+    Assert.assertEquals(1, cache.nMisses());
+    Assert.assertEquals(1, cache.nWasted());
+    Assert.assertEquals(1, cache.size());
+    executor.shutdown();
+  }
+  
+  /**
+   * The chain should not depend on the number of threads, and with an exact likelihood, 
+   * should target the posterior of a conjugate normal model.
+   */
+  @Test
+  public void testSpeculativeChain()
+  {
+    List<Double> sequential = chain(1, 20_000), parallel = chain(4, 20_000);
+    Assert.assertEquals(sequential, parallel);
+    
+    // prior N(0, 1), one observation at 1 with unit variance: the posterior is N(0.5, 0.5)
+    double sum = 0.0, sumOfSquares = 0.0;
+    for (double value : parallel)
+    {
+      sum += value;
+      sumOfSquares += value * value;
+    }
+    double mean = sum / parallel.size();
+    Assert.assertEquals(0.5, mean, 0.05);
+    Assert.assertEquals(0.5, sumOfSquares / parallel.size() - mean * mean, 0.05);
+  }
+  
+  private static List<Double> chain(int nThreads, int nSteps)
+  {
+    ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+    final int depth = 3;
+    SignatureCache cache = new SignatureCache(1 << depth, executor);
+    SpeculativePMMH<Scalar> pmmh = new SpeculativePMMH<>(
+        new Scalar(0.0), 
+        (random, current) -> new Scalar(current.value + random.nextGaussian()), 
+        scalar -> -0.5 * scalar.value * scalar.value, 
+        (scalar, random) -> -0.5 * (scalar.value - 1.0) * (scalar.value - 1.0), 
+        depth, cache, new Random(1));
+    List<Double> result = new ArrayList<>();
+    for (int i = 0; i < nSteps; i++)
+      result.add(pmmh.next().value);
+    executor.shutdown();
+    Assert.assertTrue(cache.nHits() > 0);
+    Assert.assertTrue(cache.nWasted() > 0);
+    return result;
+  }
+  
+  private static class Scalar implements WithSignature
+  {
+    private final double value;
+    
+    private Scalar(double value)
+    {
+      this.value = value;
+    }
+
+    @Override
+    public long signature()
+    {
+      return Double.doubleToLongBits(value);
+    }
+  }
+}
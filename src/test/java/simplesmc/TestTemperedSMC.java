@@ -0,0 +1,106 @@
+package simplesmc;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplesmc.random.RandomStreams;
+import bayonet.smc.ParticlePopulation;
+
+
+
+public class TestTemperedSMC
+{
+  /**
+   * Normal prior and likelihood, for which the marginal likelihood and the 
+   * posterior are known
+   */
+  @Test
+  public void testConjugateNormal()
+  {
+    Random random = new Random(1);
+    final double [] observations = new double[20];
+    for (int i = 0; i < observations.length; i++)
+      observations[i] = 2.0 + random.nextGaussian();
+    
+    final int n = observations.length;
+    double sum = 0.0, sumOfSquares = 0.0;
+    for (double observation : observations)
+    {
+      sum += observation;
+      sumOfSquares += observation * observation;
+    }
+    final double exactLogZ = 
+      - n / 2.0 * Math.log(2.0 * Math.PI) 
+      - 0.5 * Math.log(1.0 + n) 
+      - 0.5 * (sumOfSquares - sum * sum / (1.0 + n));
+    final double posteriorMean = sum / (n + 1.0);
+    
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 5_000;
+    options.nThreads = 4;
+    TemperingOptions temperingOptions = new TemperingOptions();
+    temperingOptions.nRejuvenationSteps = 5;
+    TemperedSMCAlgorithm<Double> smc = new TemperedSMCAlgorithm<>(new NormalModel(observations), options, temperingOptions);
+    ParticlePopulation<Double> population = smc.sample();
+    
+    double estimatedMean = 0.0;
+    for (int i = 0; i < population.nParticles(); i++)
+      estimatedMean += population.getNormalizedWeight(i) * population.particles.get(i);
+    System.out.println("temperatures = " + smc.getTemperatures());
+    System.out.println("exact = " + exactLogZ + ", estimate = " + population.logNormEstimate());
+    Assert.assertEquals(exactLogZ, population.logNormEstimate(), 0.1);
+    Assert.assertEquals(posteriorMean, estimatedMean, 0.02);
+    Assert.assertEquals(1.0, smc.getTemperatures().get(smc.getTemperatures().size() - 1), 0.0);
+    Assert.assertTrue(smc.getTemperatures().size() > 2);
+    
+    // with keyed random streams
+    options = new SMCOptions();
+    options.nParticles = 5_000;
+    options.nThreads = 4;
+    options.randomStreams = RandomStreams.PHILOX;
+    population = new TemperedSMCAlgorithm<>(new NormalModel(observations), options, temperingOptions).sample();
+    Assert.assertEquals(exactLogZ, population.logNormEstimate(), 0.1);
+  }
+  
+  private static class NormalModel implements TemperedProblemSpecification<Double>
+  {
+    private final double [] observations;
+    
+    private NormalModel(double [] observations)
+    {
+      this.observations = observations;
+    }
+    
+    private double logLikelihood(double mean)
+    {
+      double result = 0.0;
+      for (double observation : observations)
+        result += -0.5 * (observation - mean) * (observation - mean) - 0.5 * Math.log(2.0 * Math.PI);
+      return result;
+    }
+
+    @Override
+    public void sampleInitial(Random random, ProposalOutput<Double> output)
+    {
+      final double particle = random.nextGaussian();
+      output.set(logLikelihood(particle), particle);
+    }
+
+    @Override
+    public void rejuvenate(Random random, Double currentParticle, double currentLogLikelihood, double temperature,
+        ProposalOutput<Double> output)
+    {
+      final double proposed = currentParticle + random.nextGaussian() / Math.sqrt(1.0 + temperature * observations.length);
+      final double proposedLogLikelihood = logLikelihood(proposed);
+      final double logRatio = 
+        -0.5 * proposed * proposed + temperature * proposedLogLikelihood 
+        + 0.5 * currentParticle * currentParticle - temperature * currentLogLikelihood;
+      if (Math.log(random.nextDouble()) < logRatio)
+        output.set(proposedLogLikelihood, proposed);
+      else
+        output.set(currentLogLikelihood, currentParticle);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package simplesmc.hmm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+
+public class TestForwardBackward
+{
+  @Test
+  public void testMatchesSumProduct()
+  {
+    ToyHMMParams params = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(new Random(1), params, 1000).getRight();
+    Assert.assertEquals(
+        HMMUtils.sumProductDataLogProbability(params, observations), 
+        HMMUtils.exactDataLogProbability(params, observations), 1e-8);
+  }
+  
+  @Test
+  public void testBatch()
+  {
+    List<Integer> observations = HMMUtils.generate(new Random(1), new ToyHMMParams(3), 100).getRight();
+    List<ToyHMMParams> paramsList = new ArrayList<>();
+    for (double selfTransitionProbability : new double[]{0.2, 0.5, 0.9})
+    {
+      ToyHMMParams params = new ToyHMMParams(3);
+      params.selfTransitionProbability.setValue(selfTransitionProbability);
+      paramsList.add(params);
+    }
+    double [] batch = new ForwardBackward().logProbabilities(paramsList, observations);
+    for (int i = 0; i < paramsList.size(); i++)
+      Assert.assertEquals(HMMUtils.sumProductDataLogProbability(paramsList.get(i), observations), batch[i], 1e-10);
+  }
+  
+  /**
+   * Compare the marginals to those obtained by enumerating all the latent sequences
+   */
+  @Test
+  public void testPosteriorMarginals()
+  {
+    final int nStates = 3, length = 6;
+    ToyHMMParams params = new ToyHMMParams(nStates);
+    List<Integer> observations = HMMUtils.generate(new Random(1), params, length).getRight();
+    
+    double [][] expected = new double[length][nStates];
+    double total = 0.0;
+    int [] latents = new int[length];
+    for (int code = 0; code < Math.pow(nStates, length); code++)
+    {
+      for (int t = 0, remainder = code; t < length; t++, remainder /= nStates)
+        latents[t] = remainder % nStates;
+      double logPr = 0.0;
+      for (int t = 0; t < length; t++)
+        logPr += 
+          (t == 0 ? params.initialLogPr(latents[t]) : params.transitionLogPr(latents[t - 1], latents[t])) + 
+          params.emissionLogPr(latents[t], observations.get(t));
+      total += Math.exp(logPr);
+      for (int t = 0; t < length; t++)
+        expected[t][latents[t]] += Math.exp(logPr);
+    }
+    
+    Assert.assertEquals(Math.log(total), HMMUtils.exactDataLogProbability(params, observations), 1e-10);
+    double [][] actual = HMMUtils.posteriorMarginals(params, observations);
+    for (int t = 0; t < length; t++)
+    {
+      for (int state = 0; state < nStates; state++)
+        expected[t][state] /= total;
+      Assert.assertArrayEquals(Arrays.toString(expected[t]), expected[t], actual[t], 1e-10);
+    }
+  }
+}
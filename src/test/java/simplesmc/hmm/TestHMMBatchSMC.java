@@ -0,0 +1,94 @@
+package simplesmc.hmm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplesmc.SMCAlgorithm;
+import simplesmc.SMCOptions;
+
+
+
+public class TestHMMBatchSMC
+{
+  @Test
+  public void testEstimates()
+  {
+    List<ToyHMMParams> grid = grid(10, 0.5, 0.05);
+    List<Integer> observations = HMMUtils.generate(new Random(1), new ToyHMMParams(5), 50).getRight();
+    double [] exact = new ForwardBackward().logProbabilities(grid, observations);
+    
+    // average over a few seeds, as the estimates at the different parameters are correlated
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 2000;
+    HMMBatchSMCAlgorithm batch = new HMMBatchSMCAlgorithm(grid, observations, options);
+    final int nReplicates = 20;
+    double [] means = new double[grid.size()];
+    for (int replicate = 0; replicate < nReplicates; replicate++)
+    {
+      double [] estimates = batch.logNormEstimates();
+      for (int i = 0; i < grid.size(); i++)
+        means[i] += estimates[i] / nReplicates;
+    }
+    for (int i = 0; i < grid.size(); i++)
+    {
+      System.out.println("exact = " + exact[i] + ", mean estimate = " + means[i]);
+      Assert.assertEquals(exact[i], means[i], 0.15);
+    }
+    
+    // the result should not depend on the number of threads
+    options = new SMCOptions();
+    options.nParticles = 2000;
+    double [] estimates = new HMMBatchSMCAlgorithm(grid, observations, options).logNormEstimates();
+    options = new SMCOptions();
+    options.nParticles = 2000;
+    options.nThreads = 4;
+    Assert.assertArrayEquals(estimates, new HMMBatchSMCAlgorithm(grid, observations, options).logNormEstimates(), 0.0);
+  }
+  
+  /**
+   * With common random numbers, the errors at nearby parameters should be much 
+   * closer than with independent runs
+   */
+  @Test
+  public void testSmoothness()
+  {
+    List<ToyHMMParams> grid = grid(20, 0.8, 0.002);
+    List<Integer> observations = HMMUtils.generate(new Random(1), new ToyHMMParams(5), 100).getRight();
+    double [] exact = new ForwardBackward().logProbabilities(grid, observations);
+    
+    SMCOptions options = new SMCOptions();
+    options.nParticles = 1000;
+    double [] batch = new HMMBatchSMCAlgorithm(grid, observations, options).logNormEstimates();
+    double [] independent = new double[grid.size()];
+    for (int i = 0; i < grid.size(); i++)
+      independent[i] = new SMCAlgorithm<>(new HMMProblemSpecification(grid.get(i), observations), options).sample().logNormEstimate();
+    
+    double batchRoughness = roughness(batch, exact), independentRoughness = roughness(independent, exact);
+    System.out.println("roughness: batch = " + batchRoughness + ", independent = " + independentRoughness);
+    Assert.assertTrue(batchRoughness < independentRoughness / 10.0);
+  }
+  
+  private static double roughness(double [] estimates, double [] exact)
+  {
+    double result = 0.0;
+    for (int i = 0; i < estimates.length - 1; i++)
+      result += Math.pow((estimates[i + 1] - exact[i + 1]) - (estimates[i] - exact[i]), 2);
+    return result;
+  }
+  
+  private static List<ToyHMMParams> grid(int size, double first, double spacing)
+  {
+    List<ToyHMMParams> result = new ArrayList<>();
+    for (int i = 0; i < size; i++)
+    {
+      ToyHMMParams params = new ToyHMMParams(5);
+      params.selfTransitionProbability.setValue(first + i * spacing);
+      result.add(params);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,73 @@
+package simplesmc.hmm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplesmc.SMCAlgorithm;
+import simplesmc.SMCOptions;
+
+
+
+public class TestMappedObservationSequence
+{
+  @Test
+  public void testGenerate() throws IOException
+  {
+    for (int nStates : new int[]{5, 300})
+    {
+      ToyHMMParams params = new ToyHMMParams(nStates);
+      Pair<List<Integer>, List<Integer>> generated = HMMUtils.generate(new Random(1), params, 1000);
+
+      File latentsFile = File.createTempFile("latents", ".bin"), observationsFile = File.createTempFile("observations", ".bin");
+      latentsFile.deleteOnExit();
+      observationsFile.deleteOnExit();
+      try (MappedObservationSequence.Writer latents = MappedObservationSequence.create(latentsFile, params.nLatentStates());
+           MappedObservationSequence.Writer observations = MappedObservationSequence.create(observationsFile, params.nObservedStates()))
+      {
+        HMMUtils.generate(new Random(1), params, 1000, latents, observations);
+      }
+
+      MappedObservationSequence latents = MappedObservationSequence.open(latentsFile);
+      MappedObservationSequence observations = MappedObservationSequence.open(observationsFile);
+      Assert.assertEquals(nStates <= 256 ? 1 : 2, observations.width());
+      Assert.assertEquals(generated.getLeft(), toList(latents));
+      Assert.assertEquals(generated.getRight(), toList(observations));
+      Assert.assertEquals(HMMUtils.exactDataLogProbability(params, generated.getRight()),
+          HMMUtils.exactDataLogProbability(params, observations), 0.0);
+    }
+  }
+
+  @Test
+  public void testSMC() throws IOException
+  {
+    ToyHMMParams params = new ToyHMMParams(5);
+    File file = File.createTempFile("observations", ".bin");
+    file.deleteOnExit();
+    try (MappedObservationSequence.Writer writer = MappedObservationSequence.create(file, params.nObservedStates()))
+    {
+      HMMUtils.generate(new Random(1), params, 100, null, writer);
+    }
+    MappedObservationSequence observations = MappedObservationSequence.open(file);
+
+    SMCOptions options = new SMCOptions();
+    double mapped = new SMCAlgorithm<>(new HMMProblemSpecification(params, observations), options).sample().logNormEstimate();
+    options = new SMCOptions();
+    double boxed = new SMCAlgorithm<>(new HMMProblemSpecification(params, toList(observations)), options).sample().logNormEstimate();
+    Assert.assertEquals(boxed, mapped, 0.0);
+  }
+
+  private static List<Integer> toList(ObservationSequence sequence)
+  {
+    List<Integer> result = new ArrayList<>();
+    for (int t = 0; t < sequence.size(); t++)
+      result.add(sequence.get(t));
+    return result;
+  }
+}
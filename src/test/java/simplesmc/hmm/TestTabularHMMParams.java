@@ -0,0 +1,57 @@
+package simplesmc.hmm;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+
+public class TestTabularHMMParams
+{
+  @Test
+  public void testMatchesUnderlying()
+  {
+    ToyHMMParams toy = new ToyHMMParams(4);
+    TabularHMMParams tabular = new TabularHMMParams(toy);
+    for (double selfTransitionProbability : new double[]{0.9, 0.3})
+    {
+      // the tables should be rebuilt when the parameters change
+      toy.selfTransitionProbability.setValue(selfTransitionProbability);
+      for (int current = 0; current < toy.nStates; current++)
+      {
+        Assert.assertEquals(toy.initialLogPr(current), tabular.initialLogPr(current), 0.0);
+        for (int other = 0; other < toy.nStates; other++)
+        {
+          Assert.assertEquals(toy.transitionLogPr(current, other), tabular.transitionLogPr(current, other), 0.0);
+          Assert.assertEquals(toy.emissionLogPr(current, other), tabular.emissionLogPr(current, other), 0.0);
+        }
+      }
+      List<Integer> observations = HMMUtils.generate(new Random(1), toy, 100).getRight();
+      Assert.assertEquals(
+          HMMUtils.exactDataLogProbability(toy, observations), 
+          HMMUtils.exactDataLogProbability(tabular, observations), 1e-12);
+    }
+  }
+  
+  @Test
+  public void testAliasSampling()
+  {
+    final double [] prs = {0.1, 0.0, 0.6, 0.3, /* second row: */ 1.0, 1.0, 1.0, 5.0};
+    AliasTable table = new AliasTable(prs, 2, 4);
+    Random random = new Random(1);
+    final int nSamples = 200_000;
+    for (int row = 0; row < 2; row++)
+    {
+      double sum = 0.0;
+      for (int column = 0; column < 4; column++)
+        sum += prs[row * 4 + column];
+      int [] counts = new int[4];
+      for (int i = 0; i < nSamples; i++)
+        counts[table.sample(random, row)]++;
+      for (int column = 0; column < 4; column++)
+        Assert.assertEquals(prs[row * 4 + column] / sum, ((double) counts[column]) / nSamples, 0.005);
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package simplesmc.random;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplesmc.IntSMCAlgorithm;
+import simplesmc.OnlineSMCAlgorithm;
+import simplesmc.SMCAlgorithm;
+import simplesmc.SMCOptions;
+import simplesmc.hmm.HMMProblemSpecification;
+import simplesmc.hmm.HMMStreamingProblemSpecification;
+import simplesmc.hmm.HMMUtils;
+import simplesmc.hmm.ToyHMMParams;
+
+
+
+public class TestRandomStreams
+{
+  /**
+   * Known answers from the Random123 distribution
+   */
+  @Test
+  public void testPhilox()
+  {
+    Assert.assertArrayEquals(new int[]{0x6627e8d5, 0xe169c58d, 0xbc57ac4c, 0x9b00dbd8}, 
+        PhiloxRandom.philox(new int[]{0, 0, 0, 0}, new int[]{0, 0}));
+    Assert.assertArrayEquals(new int[]{0x408f276d, 0x41c83b0e, 0xa20bc7c6, 0x6d5451fd}, 
+        PhiloxRandom.philox(new int[]{-1, -1, -1, -1}, new int[]{-1, -1}));
+    Assert.assertArrayEquals(new int[]{0xd16cfe09, 0x94fdcceb, 0x5001e420, 0x24126ea1}, 
+        PhiloxRandom.philox(new int[]{0x243f6a88, 0x85a308d3, 0x13198a2e, 0x03707344}, new int[]{0xa4093822, 0x299f31d0}));
+  }
+  
+  @Test
+  public void testStreams()
+  {
+    for (RandomStreams type : new RandomStreams[]{RandomStreams.PHILOX, RandomStreams.SPLITMIX, RandomStreams.XOROSHIRO})
+    {
+      StreamRandom first = type.create(), second = type.create();
+      first.setStream(1L, 2, 3);
+      double [] draws = new double[10];
+      double sum = 0.0;
+      for (int i = 0; i < draws.length; i++)
+      {
+        draws[i] = first.nextDouble();
+        sum += draws[i];
+      }
+      Assert.assertTrue(sum > 0.0 && sum < draws.length);
+      // same key: same stream, whatever happened before
+      second.setStream(1L, 2, 4);
+      second.nextGaussian();
+      second.setStream(1L, 2, 3);
+      for (int i = 0; i < draws.length; i++)
+        Assert.assertEquals(draws[i], second.nextDouble(), 0.0);
+      // different keys: different streams
+      second.setStream(1L, 3, 3);
+      Assert.assertNotEquals(draws[0], second.nextDouble(), 0.0);
+      second.setStream(2L, 2, 3);
+      Assert.assertNotEquals(draws[0], second.nextDouble(), 0.0);
+    }
+  }
+  
+  @Test
+  public void testSMC()
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, 20).getRight();
+    double exactLogZ = HMMUtils.exactDataLogProbability(hmmParams, observations);
+    for (RandomStreams type : RandomStreams.values())
+    {
+      double [] estimates = new double[2];
+      for (int nThreads : new int[]{1, 4})
+      {
+        SMCOptions options = new SMCOptions();
+        options.nParticles = 10_000;
+        options.nThreads = nThreads;
+        options.randomStreams = type;
+        double estimate = new SMCAlgorithm<>(new HMMProblemSpecification(hmmParams, observations), options).sample().logNormEstimate();
+        Assert.assertEquals(exactLogZ, estimate, 0.1);
+        if (nThreads == 1)
+          estimates[0] = estimate;
+        else
+          Assert.assertEquals(estimates[0], estimate, 0.0);
+        
+        options = new SMCOptions();
+        options.nParticles = 10_000;
+        options.nThreads = nThreads;
+        options.randomStreams = type;
+        estimate = new IntSMCAlgorithm(new HMMProblemSpecification(hmmParams, observations), options).sample().logNormEstimate();
+        if (nThreads == 1)
+          estimates[1] = estimate;
+        else
+          Assert.assertEquals(estimates[1], estimate, 0.0);
+      }
+    }
+  }
+  
+  /**
+   * The online filter should also honor the keyed streams
+   */
+  @Test
+  public void testOnlineSMC()
+  {
+    ToyHMMParams hmmParams = new ToyHMMParams(5);
+    List<Integer> observations = HMMUtils.generate(new Random(1), hmmParams, 20).getRight();
+    double exactLogZ = HMMUtils.exactDataLogProbability(hmmParams, observations);
+    double [] estimates = new double[2];
+    for (int nThreads : new int[]{1, 4})
+    {
+      SMCOptions options = new SMCOptions();
+      options.nParticles = 10_000;
+      options.nThreads = nThreads;
+      estimates[0] = filter(hmmParams, observations, options);
+      options = new SMCOptions();
+      options.nParticles = 10_000;
+      options.nThreads = nThreads;
+      options.randomStreams = RandomStreams.PHILOX;
+      double estimate = filter(hmmParams, observations, options);
+      Assert.assertEquals(exactLogZ, estimate, 0.1);
+      Assert.assertNotEquals(estimates[0], estimate, 0.0);
+      if (nThreads == 1)
+        estimates[1] = estimate;
+      else
+        Assert.assertEquals(estimates[1], estimate, 0.0);
+    }
+  }
+  
+  private static double filter(ToyHMMParams hmmParams, List<Integer> observations, SMCOptions options)
+  {
+    OnlineSMCAlgorithm<Integer, Integer> filter = 
+      new OnlineSMCAlgorithm<>(new HMMStreamingProblemSpecification(hmmParams), options);
+    for (int observation : observations)
+      filter.step(observation);
+    return filter.logNormEstimate();
+  }
+}
@@ -2,6 +2,7 @@ package simplesmc.resampling;
 
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.lang3.time.StopWatch;
 import org.junit.Assert;
@@ -11,6 +12,7 @@ import bayonet.distributions.NegativeBinomial;
 import bayonet.distributions.Poisson;
 import bayonet.smc.ParticlePopulation;
 import bayonet.smc.ResamplingScheme;
+import simplesmc.WorkerPool;
 
 
 /**
@@ -102,6 +104,31 @@ public class TestPopulationResampling
     }
   }
   
+  /**
+   * Parallel resampling should give exactly the same ancestors as the serial version
+   */
+  @Test
+  public void testParallelResampling()
+  {
+    final int nParticles = 1_000_000;
+    Random random = new Random(1);
+    double [] logWeights = new double[nParticles];
+    int [] particles = new int[nParticles];
+    for (int i = 0; i < nParticles; i++)
+    {
+      logWeights[i] = 3.0 * random.nextGaussian();
+      particles[i] = i;
+    }
+    IntParticlePopulation population = IntParticlePopulation.buildDestructivelyFromLogWeights(logWeights, particles, 0.0);
+    WorkerPool workers = new WorkerPool(new ForkJoinPool(3), 4);
+    for (ResamplingScheme scheme : ResamplingScheme.values())
+    {
+      int [] serial   = population.resample(new Random(1), scheme).particles;
+      int [] parallel = population.resample(new Random(1), scheme, workers).particles;
+      Assert.assertArrayEquals(serial, parallel);
+    }
+  }
+  
   static void check(ParticlePopulation<Integer> population)
   {
     double error = Math.abs(exactMean() - approximateMean(population));